@@ -0,0 +1,205 @@
+package com.example.studentclientapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Username/email availability hints for the registration form.
+ *
+ * check() is called on every keystroke; only the value still in the field after
+ * DEBOUNCE_MS is sent as CHECK_AVAILABILITY. Answers are cached with a short TTL (taken
+ * names longer than free ones, since a free name can be claimed at any moment), and
+ * "already exists" errors from REGISTER feed the cache too, so a known-taken value is
+ * rejected locally instead of costing a registration round trip.
+ */
+class AvailabilityChecker {
+    private static final String TAG = "AvailabilityChecker";
+
+    static final String FIELD_USERNAME = "username";
+    static final String FIELD_EMAIL = "email";
+
+    static final long DEBOUNCE_MS = 400;
+    static final long TAKEN_TTL_MS = 5 * 60 * 1000;
+    static final long FREE_TTL_MS = 30 * 1000;
+    static final int MAX_ENTRIES = 200;
+
+    private static AvailabilityChecker instance;
+
+    interface Listener {
+        /**
+         * Called on the main thread. value is echoed so stale answers can be ignored.
+         */
+        void onAvailability(String field, String value, boolean available);
+    }
+
+    /**
+     * Holds checks back for the debounce; the main thread's Handler outside tests.
+     */
+    interface Scheduler {
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final Map<String, Runnable> pendingChecks = new HashMap<>();
+    private final Map<String, Entry> cache = new HashMap<>();
+
+    private AvailabilityChecker() {
+        this(new Scheduler() {
+            private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void postDelayed(Runnable task, long delayMs) {
+                mainHandler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable task) {
+                mainHandler.removeCallbacks(task);
+            }
+        }, Clock.SYSTEM);
+    }
+
+    AvailabilityChecker(Scheduler scheduler, Clock clock) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    static synchronized AvailabilityChecker getInstance() {
+        if (instance == null) {
+            instance = new AvailabilityChecker();
+        }
+        return instance;
+    }
+
+    /**
+     * Schedule a check of one field, replacing any check of it still waiting out the
+     * debounce. Cached answers are delivered straight away.
+     */
+    void check(final String field, final String value, final Listener listener) {
+        Runnable previous = pendingChecks.remove(field);
+        if (previous != null) {
+            scheduler.removeCallbacks(previous);
+        }
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+
+        Boolean cached = getCached(field, value);
+        if (cached != null) {
+            listener.onAvailability(field, value, cached);
+            return;
+        }
+
+        Runnable check = new Runnable() {
+            @Override
+            public void run() {
+                pendingChecks.remove(field);
+                send(field, value, listener);
+            }
+        };
+        pendingChecks.put(field, check);
+        scheduler.postDelayed(check, DEBOUNCE_MS);
+    }
+
+    /**
+     * Cached answer, or null if unknown or expired.
+     */
+    synchronized Boolean getCached(String field, String value) {
+        Entry entry = cache.get(key(field, value));
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.elapsedRealtime()) {
+            cache.remove(key(field, value));
+            return null;
+        }
+        return entry.available;
+    }
+
+    synchronized void record(String field, String value, boolean available) {
+        long now = clock.elapsedRealtime();
+        if (cache.size() >= MAX_ENTRIES) {
+            // Drop expired entries first; if that is not enough, start over
+            Iterator<Entry> entries = cache.values().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().expiresAt <= now) {
+                    entries.remove();
+                }
+            }
+            if (cache.size() >= MAX_ENTRIES) {
+                cache.clear();
+            }
+        }
+        cache.put(key(field, value), new Entry(available, now + (available ? FREE_TTL_MS : TAKEN_TTL_MS)));
+    }
+
+    /**
+     * Learn from a REGISTER-style error message, e.g. "Username already exists".
+     */
+    void recordRegistrationError(String username, String email, String message) {
+        if (message == null) {
+            return;
+        }
+        if (message.startsWith("Username already exists")) {
+            record(FIELD_USERNAME, username, false);
+        } else if (message.startsWith("Email already registered")) {
+            record(FIELD_EMAIL, email, false);
+        }
+    }
+
+    /**
+     * Ask the server; package-private so tests can stand in for it.
+     */
+    void send(final String field, final String value, final Listener listener) {
+        try {
+            JSONObject params = new JSONObject();
+            params.put(field, value);
+
+            // A hint, not something the user is blocked on
+            SocketClient.getInstance().sendRequest("CHECK_AVAILABILITY", params,
+                    RequestDispatcher.Priority.BACKGROUND, new SocketClient.ResponseCallback() {
+                @Override
+                public void onResponse(JSONObject response) {
+                    JSONObject data = response.optJSONObject("data");
+                    String resultKey = field + "_available";
+                    if (data == null || !data.has(resultKey)) {
+                        Log.w(TAG, "No availability answer for " + field);
+                        return;
+                    }
+                    boolean available = data.optBoolean(resultKey);
+                    record(field, value, available);
+                    listener.onAvailability(field, value, available);
+                }
+
+                @Override
+                public void onError(String error) {
+                    Log.w(TAG, "Availability check failed: " + error);
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not check availability: " + e.getMessage());
+        }
+    }
+
+    private static String key(String field, String value) {
+        return field + ":" + value;
+    }
+
+    private static class Entry {
+        final boolean available;
+        final long expiresAt;
+
+        Entry(boolean available, long expiresAt) {
+            this.available = available;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.studentclientapp;
+
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One persistent, pipelined connection to the server.
+ *
+ * Each request is written as "<msg_id>:<encrypted payload>\n" without waiting for the
+ * previous reply. A reader thread matches each "<msg_id>:..." response line back to its
+ * caller, so several requests can share one round trip. Frames tagged with message id 0
+ * are server-initiated events and go to the EventListener instead.
+ */
+class ClientConnection {
+    private static final String TAG = "ClientConnection";
+
+    // Message id the server uses for pushed frames; request ids start at 1
+    static final int PUSH_MESSAGE_ID = 0;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final BufferedReader in;
+    private final Object writeLock = new Object();
+    private final AtomicInteger nextMessageId = new AtomicInteger(1);
+    private final Map<Integer, PendingCall> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    // Server instance this connection was opened to
+    volatile ServerPool.Endpoint endpoint;
+
+    // Set once a second request reuses this connection (stale-connection retry hint)
+    volatile boolean wasUsed;
+
+    // Compression threshold agreed in the HELLO exchange; -1 until the server accepts
+    volatile int compressMinSize = -1;
+
+    // True once the server has agreed to the compact binary encoding
+    volatile boolean binaryEncoding;
+
+    // SUBSCRIBE has been sent on this connection / the server has confirmed it
+    volatile boolean subscribeSent;
+    volatile boolean subscribed;
+
+    // Username the server has bound to this connection by a LOGIN or RESUME on it, if any
+    volatile String authenticatedUser;
+
+    // Closed because the device lost or changed its network, not because the server failed
+    volatile boolean networkChanged;
+
+    private volatile EventListener eventListener;
+
+    interface ResponseListener {
+        void onResponse(String payload);
+        void onFailure(IOException error);
+    }
+
+    interface EventListener {
+        void onEvent(String payload);
+    }
+
+    private ClientConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "socket-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    static ClientConnection open(String host, int port, int connectTimeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            socket.setTcpNoDelay(true);
+            return new ClientConnection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    void setEventListener(EventListener listener) {
+        this.eventListener = listener;
+    }
+
+    /**
+     * Write one encrypted payload and block until its response arrives.
+     * Other threads may write their own requests while this one is waiting.
+     */
+    String call(String encryptedPayload, long timeoutMs) throws IOException {
+        PendingCall call = new PendingCall(null);
+        int messageId = write(encryptedPayload, call);
+
+        try {
+            if (!call.latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                pending.remove(messageId);
+                throw new SocketTimeoutException("No response for message " + messageId);
+            }
+        } catch (InterruptedException e) {
+            pending.remove(messageId);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for response");
+        }
+
+        if (call.error != null) {
+            throw call.error;
+        }
+        return call.response;
+    }
+
+    /**
+     * Write one encrypted payload without blocking; the listener runs on the reader thread.
+     */
+    void send(String encryptedPayload, ResponseListener listener) throws IOException {
+        write(encryptedPayload, new PendingCall(listener));
+    }
+
+    private int write(String encryptedPayload, PendingCall call) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+
+        int messageId = nextMessageId.getAndIncrement();
+        pending.put(messageId, call);
+
+        try {
+            byte[] frame = (messageId + ":" + encryptedPayload + "\n").getBytes(StandardCharsets.UTF_8);
+            synchronized (writeLock) {
+                out.write(frame);
+                out.flush();
+            }
+            return messageId;
+        } catch (IOException e) {
+            pending.remove(messageId);
+            close();
+            throw e;
+        }
+    }
+
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing socket: " + e.getMessage());
+        }
+        failPending(new IOException("Connection closed"));
+    }
+
+    private void readLoop() {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int separator = line.indexOf(':');
+                if (separator <= 0) {
+                    Log.w(TAG, "Dropping untagged frame (length: " + line.length() + ")");
+                    continue;
+                }
+
+                int messageId;
+                try {
+                    messageId = Integer.parseInt(line.substring(0, separator));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Dropping frame with invalid message id");
+                    continue;
+                }
+
+                if (messageId == PUSH_MESSAGE_ID) {
+                    EventListener listener = eventListener;
+                    if (listener != null) {
+                        listener.onEvent(line.substring(separator + 1));
+                    }
+                    continue;
+                }
+
+                PendingCall call = pending.remove(messageId);
+                if (call == null) {
+                    Log.w(TAG, "No caller waiting for message " + messageId);
+                    continue;
+                }
+                call.complete(line.substring(separator + 1), null);
+            }
+            Log.d(TAG, "Server closed the connection");
+        } catch (IOException e) {
+            if (!closed) {
+                Log.e(TAG, "Read error: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void failPending(IOException error) {
+        for (Integer messageId : pending.keySet()) {
+            PendingCall call = pending.remove(messageId);
+            if (call != null) {
+                call.complete(null, error);
+            }
+        }
+    }
+
+    private static class PendingCall {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ResponseListener listener;
+        volatile String response;
+        volatile IOException error;
+
+        PendingCall(ResponseListener listener) {
+            this.listener = listener;
+        }
+
+        void complete(String response, IOException error) {
+            this.response = response;
+            this.error = error;
+            latch.countDown();
+            if (listener != null) {
+                if (error != null) {
+                    listener.onFailure(error);
+                } else {
+                    listener.onResponse(response);
+                }
+            }
+        }
+    }
+}
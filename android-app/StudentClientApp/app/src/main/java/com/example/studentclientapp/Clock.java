@@ -0,0 +1,31 @@
+package com.example.studentclientapp;
+
+import android.os.SystemClock;
+
+/**
+ * SystemClock behind an interface, so the back-off, debounce and yield logic can be
+ * unit tested on a clock the test moves by hand.
+ */
+interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void sleep(long ms) {
+            SystemClock.sleep(ms);
+        }
+    };
+
+    /**
+     * Milliseconds since boot, including deep sleep.
+     */
+    long elapsedRealtime();
+
+    /**
+     * Wait the given milliseconds, ignoring interrupts like SystemClock.sleep().
+     */
+    void sleep(long ms);
+}
@@ -0,0 +1,307 @@
+package com.example.studentclientapp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compact binary encoding for command envelopes and payloads, negotiated in HELLO.
+ *
+ * Layout: marker 0x02, schema version, then one tagged value. Object keys that appear in
+ * FIELDS are sent as a one-byte tag instead of the key text; anything else falls back to
+ * tag 0 plus the literal key. Must stay in sync with server/codec.py.
+ *
+ * Encoding writes straight into a per-thread buffer (UTF-8 included) and copies out once;
+ * decoding walks the array in place and reuses the interned FIELDS strings for keys.
+ */
+final class CompactCodec {
+    static final byte BINARY_MARKER = 0x02;
+    static final byte SCHEMA_VERSION = 1;
+
+    // Append-only: tag = index + 1
+    static final String[] FIELDS = {
+            "command", "params", "status", "message", "data", "timestamp",
+            "username", "password", "email", "user_id", "student_id", "full_name",
+            "department", "semester", "gpa", "attendance_percentage", "requests",
+            "id", "type", "title", "description", "created_at", "request_type",
+            "request_id", "compression", "min_size", "encoding", "version",
+            "if_version", "event_id", "since", "updated_at", "username_available",
+            "email_available", "retry_after_ms", "trace", "session_token"
+    };
+
+    private static final int T_NULL = 0;
+    private static final int T_FALSE = 1;
+    private static final int T_TRUE = 2;
+    private static final int T_INT = 3;
+    private static final int T_DOUBLE = 4;
+    private static final int T_STRING = 5;
+    private static final int T_OBJECT = 6;
+    private static final int T_ARRAY = 7;
+
+    private static final Map<String, Integer> FIELD_TAGS = new HashMap<>();
+    static {
+        for (int i = 0; i < FIELDS.length; i++) {
+            FIELD_TAGS.put(FIELDS[i], i + 1);
+        }
+    }
+
+    private static final ThreadLocal<Writer> WRITERS = new ThreadLocal<Writer>() {
+        @Override
+        protected Writer initialValue() {
+            return new Writer();
+        }
+    };
+
+    private CompactCodec() {}
+
+    static boolean isBinary(byte[] plaintext) {
+        return plaintext.length > 0 && plaintext[0] == BINARY_MARKER;
+    }
+
+    static byte[] encode(JSONObject value) throws JSONException {
+        Writer writer = WRITERS.get();
+        writer.reset();
+        writer.writeByte(BINARY_MARKER);
+        writer.writeByte(SCHEMA_VERSION);
+        writer.writeValue(value);
+        return writer.toByteArray();
+    }
+
+    static JSONObject decode(byte[] data) throws IOException {
+        if (data.length < 2 || data[0] != BINARY_MARKER) {
+            throw new IOException("Not a binary payload");
+        }
+        if (data[1] != SCHEMA_VERSION) {
+            throw new IOException("Unsupported schema version " + data[1]);
+        }
+        try {
+            Reader reader = new Reader(data, 2);
+            Object value = reader.readValue();
+            if (!(value instanceof JSONObject) || reader.position != data.length) {
+                throw new IOException("Malformed binary payload");
+            }
+            return (JSONObject) value;
+        } catch (JSONException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed binary payload: " + e.getMessage());
+        }
+    }
+
+    private static final class Writer {
+        private byte[] buffer = new byte[1024];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeString(String text) {
+            int length = text.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+
+            writeVarint(utf8Length);
+            ensure(utf8Length);
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    buffer[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[size++] = (byte) (0xC0 | (c >> 6));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[size++] = (byte) (0xE0 | (c >> 12));
+                    buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void writeValue(Object value) throws JSONException {
+            if (value == null || value == JSONObject.NULL) {
+                writeByte(T_NULL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? T_TRUE : T_FALSE);
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                long number = ((Number) value).longValue();
+                writeByte(T_INT);
+                writeVarint((number << 1) ^ (number >> 63));
+            } else if (value instanceof Number) {
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                writeByte(T_DOUBLE);
+                ensure(8);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    buffer[size++] = (byte) (bits >>> shift);
+                }
+            } else if (value instanceof JSONObject) {
+                JSONObject object = (JSONObject) value;
+                writeByte(T_OBJECT);
+                writeVarint(object.length());
+                Iterator<String> keys = object.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    Integer tag = FIELD_TAGS.get(key);
+                    if (tag != null) {
+                        writeVarint(tag);
+                    } else {
+                        writeVarint(0);
+                        writeString(key);
+                    }
+                    writeValue(object.get(key));
+                }
+            } else if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                writeByte(T_ARRAY);
+                writeVarint(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    writeValue(array.get(i));
+                }
+            } else {
+                writeByte(T_STRING);
+                writeString(value.toString());
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        long readVarint() throws IOException {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                int b = data[position++] & 0xFF;
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+                if (shift > 63) {
+                    throw new IOException("Varint too long");
+                }
+            }
+        }
+
+        String readString() throws IOException {
+            int length = (int) readVarint();
+            if (length < 0 || position + length > data.length) {
+                throw new IOException("String runs past end of payload");
+            }
+            String text = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return text;
+        }
+
+        Object readValue() throws IOException, JSONException {
+            int type = data[position++];
+            switch (type) {
+                case T_NULL:
+                    return JSONObject.NULL;
+                case T_TRUE:
+                    return Boolean.TRUE;
+                case T_FALSE:
+                    return Boolean.FALSE;
+                case T_INT: {
+                    long raw = readVarint();
+                    long number = (raw >>> 1) ^ -(raw & 1);
+                    if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+                        return (int) number;
+                    }
+                    return number;
+                }
+                case T_DOUBLE: {
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (data[position++] & 0xFF);
+                    }
+                    return Double.longBitsToDouble(bits);
+                }
+                case T_STRING:
+                    return readString();
+                case T_OBJECT: {
+                    int count = (int) readVarint();
+                    JSONObject object = new JSONObject();
+                    for (int i = 0; i < count; i++) {
+                        int tag = (int) readVarint();
+                        String key;
+                        if (tag == 0) {
+                            key = readString();
+                        } else if (tag <= FIELDS.length) {
+                            key = FIELDS[tag - 1];
+                        } else {
+                            throw new IOException("Unknown field tag " + tag);
+                        }
+                        object.put(key, readValue());
+                    }
+                    return object;
+                }
+                case T_ARRAY: {
+                    int count = (int) readVarint();
+                    JSONArray array = new JSONArray();
+                    for (int i = 0; i < count; i++) {
+                        array.put(readValue());
+                    }
+                    return array;
+                }
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+    }
+}
@@ -12,8 +12,11 @@ import android.content.Intent;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.view.animation.DecelerateInterpolator;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -21,17 +24,38 @@ import android.widget.Toast;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.List;
+
 public class DashboardActivity extends AppCompatActivity {
 
     private TextView tvWelcome, tvResponse, tvGPA, tvAttendance, tvConnectionStatus, tvUserInfo;
     private CardView cardViewData, cardSubmitRequest, cardViewRequests;
     private CardView cardGPA, cardAttendance;
     private View connectionLight;
+    private EditText etRequestSearch;
     private TextView btnLogout;
     private SocketClient socketClient;
     private int userId;
     private String username;
 
+    // Version tag and text of the student record currently rendered
+    private String renderedDataVersion;
+    private String renderedDataText;
+
+    // True while tvResponse shows the request list, so pushed changes can refresh it
+    private boolean showingRequests;
+
+    private final SocketClient.RequestEventListener requestEventListener = new SocketClient.RequestEventListener() {
+        @Override
+        public void onRequestStatusChanged(int requestId, String status) {
+            Toast.makeText(DashboardActivity.this, "📬 Request #" + requestId + " is now " + status, Toast.LENGTH_SHORT).show();
+            if (showingRequests) {
+                // Answered from the patched cache, no download
+                viewRequests();
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -51,6 +75,7 @@ public class DashboardActivity extends AppCompatActivity {
         tvUserInfo = findViewById(R.id.tvUserInfo);
         connectionLight = findViewById(R.id.connectionLight);
         btnLogout = findViewById(R.id.btnLogout);
+        etRequestSearch = findViewById(R.id.etRequestSearch);
 
         cardViewData = findViewById(R.id.cardViewData);
         cardSubmitRequest = findViewById(R.id.cardSubmitRequest);
@@ -64,6 +89,7 @@ public class DashboardActivity extends AppCompatActivity {
         // Get socket client and set username
         socketClient = SocketClient.getInstance();
         socketClient.setUserInfo(username, userId);
+        socketClient.subscribeRequestEvents(requestEventListener);
 
         // Update connection status
         updateConnectionStatus();
@@ -71,6 +97,24 @@ public class DashboardActivity extends AppCompatActivity {
         // Set click listeners
         setupCardAnimations();
 
+        // Filter the request list locally as the user types
+        etRequestSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (showingRequests) {
+                    showRequestSearch(s.toString());
+                }
+            }
+        });
+
         // Setup logout button
         btnLogout.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -88,6 +132,12 @@ public class DashboardActivity extends AppCompatActivity {
         }, 500);
     }
 
+    @Override
+    protected void onDestroy() {
+        socketClient.unsubscribeRequestEvents(requestEventListener);
+        super.onDestroy();
+    }
+
     private void setupCardAnimations() {
         CardView[] cards = {cardViewData, cardSubmitRequest, cardViewRequests};
 
@@ -154,7 +204,8 @@ public class DashboardActivity extends AppCompatActivity {
     }
 
     private void updateConnectionStatus() {
-        socketClient.testConnection(new SocketClient.SocketCallback() {
+        // Status probe is housekeeping; it must not hold up the data the user asked for
+        socketClient.testConnection(RequestDispatcher.Priority.BACKGROUND, new SocketClient.SocketCallback() {
             @Override
             public void onResponse(final String response) {
                 runOnUiThread(new Runnable() {
@@ -217,6 +268,8 @@ public class DashboardActivity extends AppCompatActivity {
     }
 
     private void viewStudentData() {
+        showingRequests = false;
+        etRequestSearch.setVisibility(View.GONE);
         tvResponse.setText("🔄 Fetching data...");
         tvResponse.setTextColor(Color.BLUE);
 
@@ -224,15 +277,21 @@ public class DashboardActivity extends AppCompatActivity {
             JSONObject params = new JSONObject();
             params.put("username", username);
 
-            socketClient.sendRequest("GET_DATA", params, new SocketClient.SocketCallback() {
+            socketClient.sendRequest("GET_DATA", params, RequestDispatcher.Priority.INTERACTIVE, new SocketClient.ResponseCallback() {
                 @Override
-                public void onResponse(final String response) {
+                public void onResponse(final JSONObject jsonResponse) {
                     runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
                             try {
-                                JSONObject jsonResponse = new JSONObject(response);
-                                if (jsonResponse.getString("status").equals("success")) {
+                                String version = jsonResponse.optString("version", null);
+                                if (jsonResponse.optBoolean("not_modified") && version != null
+                                        && version.equals(renderedDataVersion)) {
+                                    // Same record already on screen; just bring the summary back
+                                    tvResponse.setText(renderedDataText);
+                                    tvResponse.setTextColor(Color.GREEN);
+
+                                } else if (jsonResponse.getString("status").equals("success")) {
                                     JSONObject data = jsonResponse.getJSONObject("data");
 
                                     // Animate numbers
@@ -253,6 +312,8 @@ public class DashboardActivity extends AppCompatActivity {
 
                                     tvResponse.setText(sb.toString());
                                     tvResponse.setTextColor(Color.GREEN);
+                                    renderedDataVersion = version;
+                                    renderedDataText = sb.toString();
 
                                     Toast.makeText(DashboardActivity.this, "✅ Data loaded successfully!", Toast.LENGTH_SHORT).show();
 
@@ -261,7 +322,7 @@ public class DashboardActivity extends AppCompatActivity {
                                     tvResponse.setTextColor(Color.RED);
                                 }
                             } catch (Exception e) {
-                                tvResponse.setText("⚠️ Error: " + e.getMessage() + "\n\nResponse: " + response);
+                                tvResponse.setText("⚠️ Error: " + e.getMessage() + "\n\nResponse: " + jsonResponse);
                                 tvResponse.setTextColor(Color.YELLOW);
                             }
                         }
@@ -316,15 +377,21 @@ public class DashboardActivity extends AppCompatActivity {
             params.put("username", username);
             params.put("user_id", userId);
 
-            socketClient.sendRequest("GET_REQUESTS", params, new SocketClient.SocketCallback() {
+            socketClient.sendRequest("GET_REQUESTS", params, RequestDispatcher.Priority.INTERACTIVE, new SocketClient.ResponseCallback() {
                 @Override
-                public void onResponse(final String response) {
+                public void onResponse(final JSONObject jsonResponse) {
                     runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
                             try {
-                                JSONObject jsonResponse = new JSONObject(response);
                                 if (jsonResponse.getString("status").equals("success")) {
+                                    showingRequests = true;
+                                    etRequestSearch.setVisibility(View.VISIBLE);
+                                    String query = etRequestSearch.getText().toString();
+                                    if (!query.trim().isEmpty()) {
+                                        showRequestSearch(query);
+                                        return;
+                                    }
                                     String formatted = formatRequests(jsonResponse.getJSONArray("requests"));
                                     tvResponse.setText(formatted);
                                     tvResponse.setTextColor(Color.GREEN);
@@ -333,7 +400,7 @@ public class DashboardActivity extends AppCompatActivity {
                                     tvResponse.setTextColor(Color.YELLOW);
                                 }
                             } catch (Exception e) {
-                                tvResponse.setText("📄 Response: " + response);
+                                tvResponse.setText("📄 Response: " + jsonResponse);
                                 tvResponse.setTextColor(Color.YELLOW);
                             }
                         }
@@ -358,6 +425,23 @@ public class DashboardActivity extends AppCompatActivity {
         }
     }
 
+    private void showRequestSearch(String query) {
+        if (query.trim().isEmpty()) {
+            // Back to the full list, answered from cache while subscribed
+            viewRequests();
+            return;
+        }
+        List<JSONObject> matches = socketClient.searchRequests(query);
+        JSONArray results = new JSONArray();
+        for (JSONObject request : matches) {
+            results.put(request);
+        }
+        String formatted = formatRequests(results);
+        tvResponse.setText("🔍 " + matches.size() + " of " + socketClient.getIndexedRequestCount()
+                + " requests match\n\n" + formatted);
+        tvResponse.setTextColor(matches.isEmpty() ? Color.YELLOW : Color.GREEN);
+    }
+
     private String formatRequests(JSONArray requests) {
         StringBuilder sb = new StringBuilder();
         sb.append("📋 Your Requests:\n\n");
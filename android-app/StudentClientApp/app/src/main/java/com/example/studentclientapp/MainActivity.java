@@ -35,6 +35,7 @@ public class MainActivity extends AppCompatActivity {
 
         // Get socket client instance
         socketClient = SocketClient.getInstance();
+        socketClient.watchNetwork(this);
 
         // Pre-fill for testing
         etUsername.setText("john123");
@@ -0,0 +1,156 @@
+package com.example.studentclientapp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+/**
+ * Follows the device's default network and reports when it becomes usable or stops being so.
+ *
+ * A socket stays on the network it was opened on, so after a Wi-Fi to mobile handover the
+ * shared connection is dead even though nothing has failed on it yet; the next request
+ * would only find out when it timed out. Airplane mode is the same, minus the new network.
+ *
+ * A network behind a captive portal is not usable until the portal is passed. Validation is
+ * not required: the server often sits on the local network, and Android does not validate a
+ * Wi-Fi network without internet access.
+ */
+class NetworkMonitor {
+    private static final String TAG = "NetworkMonitor";
+
+    interface Listener {
+        /**
+         * A usable default network appeared: the first one, a different one after a
+         * handover, or the same one once its captive portal was passed.
+         */
+        void onNetworkAvailable(Network network);
+
+        /**
+         * No usable default network any more (lost, airplane mode, captive portal).
+         */
+        void onNetworkUnavailable();
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final Listener listener;
+    private final DefaultNetwork<Network> state = new DefaultNetwork<>();
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            update(network, connectivityManager.getNetworkCapabilities(network));
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            update(network, capabilities);
+        }
+
+        @Override
+        public void onLost(Network network) {
+            report(null, state.lost(network));
+        }
+    };
+
+    NetworkMonitor(Context context, Listener listener) {
+        this.connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    /**
+     * Start following the default network. Returns whether it is usable right now; the
+     * listener only hears about changes from there on.
+     */
+    boolean start() {
+        Network network = connectivityManager.getActiveNetwork();
+        boolean usable = network != null && isUsable(connectivityManager.getNetworkCapabilities(network));
+        state.reset(network, usable);
+        // Calls back with the current default straight away, which changes nothing
+        connectivityManager.registerDefaultNetworkCallback(callback);
+        Log.d(TAG, "Default network " + network + (usable ? " is usable" : " is not usable"));
+        return usable;
+    }
+
+    boolean isOnline() {
+        return state.isUsable();
+    }
+
+    private void update(Network network, NetworkCapabilities capabilities) {
+        report(network, state.update(network, network != null && isUsable(capabilities)));
+    }
+
+    private void report(Network network, Change change) {
+        // Outside the state's lock: listeners close sockets and queue work
+        if (change == Change.AVAILABLE) {
+            Log.d(TAG, "Network " + network + " is usable");
+            listener.onNetworkAvailable(network);
+        } else if (change == Change.UNAVAILABLE) {
+            Log.d(TAG, network == null ? "No network" : "Network " + network + " is not usable");
+            listener.onNetworkUnavailable();
+        }
+    }
+
+    private static boolean isUsable(NetworkCapabilities capabilities) {
+        // Capabilities can lag onAvailable on older releases; onCapabilitiesChanged follows
+        if (capabilities == null) {
+            return true;
+        }
+        return capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                && !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL);
+    }
+
+    enum Change {
+        NONE,
+        AVAILABLE,
+        UNAVAILABLE
+    }
+
+    /**
+     * The default network as last reported and whether it was usable, and which reports
+     * the listener hears about. Generic so it can be tested without ConnectivityManager.
+     */
+    static final class DefaultNetwork<N> {
+        private N current;
+        private boolean usable;
+
+        synchronized void reset(N network, boolean usable) {
+            this.current = network;
+            this.usable = usable;
+        }
+
+        synchronized boolean isUsable() {
+            return usable;
+        }
+
+        /**
+         * A new report for the default network (null if there is none).
+         */
+        synchronized Change update(N network, boolean nowUsable) {
+            nowUsable = network != null && nowUsable;
+            boolean changed = network == null ? current != null : !network.equals(current);
+            Change change = Change.NONE;
+            if (nowUsable && (changed || !usable)) {
+                change = Change.AVAILABLE;
+            } else if (!nowUsable && usable) {
+                change = Change.UNAVAILABLE;
+            }
+            current = network;
+            usable = nowUsable;
+            return change;
+        }
+
+        /**
+         * A network was lost; only matters if it is still the default.
+         */
+        synchronized Change lost(N network) {
+            if (!network.equals(current)) {
+                // The default already moved on to another network
+                return Change.NONE;
+            }
+            return update(null, false);
+        }
+    }
+}
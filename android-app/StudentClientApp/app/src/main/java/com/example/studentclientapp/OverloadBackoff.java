@@ -0,0 +1,81 @@
+package com.example.studentclientapp;
+
+import android.util.Log;
+import org.json.JSONObject;
+
+/**
+ * Back-off for "overloaded" replies.
+ *
+ * When the server sheds a request it names how long to back off. The request is sent
+ * again after that wait (it never ran, so this is safe even for SUBMIT_REQUEST), at most
+ * MAX_RETRIES times, and requests from every lane hold back until the wait is over
+ * instead of adding to the pile.
+ */
+class OverloadBackoff {
+    private static final String TAG = "OverloadBackoff";
+
+    // How often to retry, and the longest wait worth making the user sit through; past
+    // that the request fails with a busy message
+    static final int MAX_RETRIES = 2;
+    static final long MAX_WAIT_MS = 3000;
+    static final long DEFAULT_RETRY_AFTER_MS = 500;
+
+    interface Attempt {
+        /**
+         * Send the request once; returns the reply as JSON text or a JSONObject.
+         */
+        Object send();
+    }
+
+    private final Clock clock;
+    // Set from the server's retry_after_ms hint; no request is sent before this time
+    private volatile long busyUntil;
+
+    OverloadBackoff(Clock clock) {
+        this.clock = clock;
+    }
+
+    Object run(String command, Attempt attempt) {
+        for (int retry = 0; ; retry++) {
+            long busyFor = busyUntil - clock.elapsedRealtime();
+            if (busyFor > 0) {
+                Log.d(TAG, "Server asked us to back off, waiting " + busyFor + "ms before " + command);
+                clock.sleep(busyFor);
+            }
+
+            Object result = attempt.send();
+            long retryAfter = retryAfter(result);
+            if (retryAfter < 0) {
+                return result;
+            }
+            busyUntil = clock.elapsedRealtime() + retryAfter;
+            if (retry >= MAX_RETRIES || retryAfter > MAX_WAIT_MS) {
+                Log.w(TAG, "⚠️ Server overloaded, giving up on " + command);
+                return "{\"status\":\"error\",\"message\":\"Server is busy, please try again in "
+                        + Math.max(1, (retryAfter + 999) / 1000) + " s\"}";
+            }
+            Log.w(TAG, "⚠️ Server overloaded, retrying " + command + " in " + retryAfter + "ms");
+        }
+    }
+
+    /**
+     * The retry_after_ms of an "overloaded" reply, or -1 for any other result.
+     */
+    static long retryAfter(Object result) {
+        JSONObject reply = null;
+        if (result instanceof JSONObject) {
+            reply = (JSONObject) result;
+        } else if (result != null && result.toString().contains("overloaded")) {
+            try {
+                reply = new JSONObject(result.toString());
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+        if (reply == null || !"overloaded".equals(reply.optString("status"))) {
+            return -1;
+        }
+        JSONObject data = reply.optJSONObject("data");
+        return Math.max(1, data != null ? data.optLong("retry_after_ms", DEFAULT_RETRY_AFTER_MS) : DEFAULT_RETRY_AFTER_MS);
+    }
+}
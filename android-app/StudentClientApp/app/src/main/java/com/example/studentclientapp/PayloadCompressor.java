@@ -0,0 +1,160 @@
+package com.example.studentclientapp;
+
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compress-then-encrypt support for payloads above the negotiated size threshold.
+ *
+ * A compressed plaintext is the marker byte 0x01 followed by a zlib stream (the same
+ * format Python's zlib.compress produces). Deflater/Inflater hold native buffers, so
+ * instances are pooled and reset instead of being created per request.
+ */
+class PayloadCompressor {
+    private static final String TAG = "PayloadCompressor";
+
+    static final byte COMPRESSED_MARKER = 0x01;
+    static final int DEFAULT_MIN_SIZE = 512;
+
+    private static final int POOL_SIZE = 4;
+    private static final int COMPRESSION_LEVEL = 6;
+    private static final int MAX_INFLATED_SIZE = 4 * 1024 * 1024;
+
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final Map<String, CommandStats> stats = new TreeMap<>();
+
+    static boolean isCompressed(byte[] plaintext) {
+        return plaintext.length > 0 && plaintext[0] == COMPRESSED_MARKER;
+    }
+
+    /**
+     * Deflate raw bytes into a marked payload, or return null if it would not be smaller.
+     */
+    byte[] compress(byte[] raw) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(COMPRESSION_LEVEL);
+        }
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(raw.length / 2 + 16);
+            output.write(COMPRESSED_MARKER);
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                output.write(chunk, 0, count);
+            }
+            return output.size() < raw.length ? output.toByteArray() : null;
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Inflate a marked payload produced by compress() or by the server.
+     */
+    byte[] decompress(byte[] framed) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(framed, 1, framed.length - 1);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(framed.length * 3);
+            byte[] chunk = new byte[2048];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed payload");
+                }
+                output.write(chunk, 0, count);
+                if (output.size() > MAX_INFLATED_SIZE) {
+                    throw new IOException("Compressed payload too large");
+                }
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload: " + e.getMessage());
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Record one payload's size before and after compression (equal when sent as-is).
+     */
+    void record(String command, int rawBytes, int wireBytes) {
+        CommandStats commandStats;
+        synchronized (stats) {
+            commandStats = stats.get(command);
+            if (commandStats == null) {
+                commandStats = new CommandStats();
+                stats.put(command, commandStats);
+            }
+        }
+        commandStats.add(rawBytes, wireBytes);
+        if (rawBytes != wireBytes) {
+            Log.d(TAG, command + " payload " + rawBytes + " -> " + wireBytes + " bytes");
+        }
+    }
+
+    /**
+     * Wire bytes divided by raw bytes for one command (1.0 means no savings).
+     */
+    double getRatio(String command) {
+        synchronized (stats) {
+            CommandStats commandStats = stats.get(command);
+            return commandStats == null ? 1.0 : commandStats.ratio();
+        }
+    }
+
+    String describe() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (stats) {
+            for (Map.Entry<String, CommandStats> entry : stats.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class CommandStats {
+        private long payloads;
+        private long rawBytes;
+        private long wireBytes;
+
+        synchronized void add(int raw, int wire) {
+            payloads++;
+            rawBytes += raw;
+            wireBytes += wire;
+        }
+
+        synchronized double ratio() {
+            return rawBytes == 0 ? 1.0 : (double) wireBytes / rawBytes;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return payloads + " payloads, " + rawBytes + " -> " + wireBytes + " bytes (ratio "
+                    + String.format("%.2f", ratio()) + ")";
+        }
+    }
+}
@@ -4,6 +4,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import android.content.Intent;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -17,6 +19,24 @@ public class RegisterActivity extends AppCompatActivity {
     private Button btnRegister, btnBackToLogin;
     private TextView tvStatus;
     private SocketClient socketClient;
+    private AvailabilityChecker availabilityChecker;
+
+    // Shows "taken" on the field if the answer is still about what is typed there
+    private final AvailabilityChecker.Listener availabilityListener = new AvailabilityChecker.Listener() {
+        @Override
+        public void onAvailability(String field, String value, boolean available) {
+            EditText input = field.equals(AvailabilityChecker.FIELD_USERNAME) ? etRegUsername : etRegEmail;
+            if (!value.equals(input.getText().toString().trim())) {
+                return;
+            }
+            if (!available) {
+                input.setError(field.equals(AvailabilityChecker.FIELD_USERNAME)
+                        ? "Username already taken" : "Email already registered");
+            } else {
+                input.setError(null);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -38,6 +58,11 @@ public class RegisterActivity extends AppCompatActivity {
 
         // Get socket client instance
         socketClient = SocketClient.getInstance();
+        availabilityChecker = AvailabilityChecker.getInstance();
+
+        // Check availability while typing (debounced) instead of only on submit
+        watchAvailability(etRegUsername, AvailabilityChecker.FIELD_USERNAME);
+        watchAvailability(etRegEmail, AvailabilityChecker.FIELD_EMAIL);
 
         // Set click listeners
         btnRegister.setOnClickListener(new View.OnClickListener() {
@@ -57,6 +82,23 @@ public class RegisterActivity extends AppCompatActivity {
         });
     }
 
+    private void watchAvailability(final EditText input, final String field) {
+        input.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                availabilityChecker.check(field, s.toString().trim(), availabilityListener);
+            }
+        });
+    }
+
     private void registerUser() {
         String username = etRegUsername.getText().toString().trim();
         String password = etRegPassword.getText().toString().trim();
@@ -78,6 +120,18 @@ public class RegisterActivity extends AppCompatActivity {
             return;
         }
 
+        // Known-taken values fail locally; no point sending the registration
+        if (Boolean.FALSE.equals(availabilityChecker.getCached(AvailabilityChecker.FIELD_USERNAME, username))) {
+            etRegUsername.setError("Username already taken");
+            Toast.makeText(this, "Username already exists", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (Boolean.FALSE.equals(availabilityChecker.getCached(AvailabilityChecker.FIELD_EMAIL, email))) {
+            etRegEmail.setError("Email already registered");
+            Toast.makeText(this, "Email already registered", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         tvStatus.setText("🔄 Registering...");
         tvStatus.setTextColor(Color.BLUE);
 
@@ -94,7 +148,8 @@ public class RegisterActivity extends AppCompatActivity {
             if (!semesterStr.isEmpty()) params.put("semester", Integer.parseInt(semesterStr));
             if (!gpaStr.isEmpty()) params.put("gpa", Double.parseDouble(gpaStr));
 
-            socketClient.sendRequest("REGISTER", params, new SocketClient.SocketCallback() {
+            // Registers and signs in with one request; the reply has the LOGIN shape
+            socketClient.sendRequest("REGISTER_AND_LOGIN", params, new SocketClient.SocketCallback() {
                 @Override
                 public void onResponse(String response) {
                     runOnUiThread(new Runnable() {
@@ -107,59 +162,22 @@ public class RegisterActivity extends AppCompatActivity {
                                 if (status.equals("success")) {
                                     tvStatus.setText("✅ Registration successful!");
                                     tvStatus.setTextColor(Color.GREEN);
-
-                                    // Auto-login after registration
-                                    JSONObject loginParams = new JSONObject();
-                                    loginParams.put("username", username);
-                                    loginParams.put("password", password);
-
-                                    socketClient.sendRequest("LOGIN", loginParams, new SocketClient.SocketCallback() {
-                                        @Override
-                                        public void onResponse(String loginResponse) {
-                                            runOnUiThread(new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    try {
-                                                        JSONObject loginJson = new JSONObject(loginResponse);
-                                                        if (loginJson.getString("status").equals("success")) {
-                                                            JSONObject data = loginJson.getJSONObject("data");
-                                                            int userId = data.getInt("user_id");
-                                                            String username = data.getString("username");
-
-                                                            // Go to dashboard
-                                                            Intent intent = new Intent(RegisterActivity.this, DashboardActivity.class);
-                                                            intent.putExtra("user_id", userId);
-                                                            intent.putExtra("username", username);
-                                                            startActivity(intent);
-                                                            finish();
-                                                        }
-                                                    } catch (Exception e) {
-                                                        // Go to login screen anyway
-                                                        Intent intent = new Intent(RegisterActivity.this, MainActivity.class);
-                                                        startActivity(intent);
-                                                        finish();
-                                                    }
-                                                }
-                                            });
-                                        }
-
-                                        @Override
-                                        public void onError(String error) {
-                                            runOnUiThread(new Runnable() {
-                                                @Override
-                                                public void run() {
-                                                    // Registration successful but auto-login failed
-                                                    Toast.makeText(RegisterActivity.this,
-                                                            "Registered! Please login manually",
-                                                            Toast.LENGTH_LONG).show();
-                                                    Intent intent = new Intent(RegisterActivity.this, MainActivity.class);
-                                                    startActivity(intent);
-                                                    finish();
-                                                }
-                                            });
-                                        }
-                                    });
+                                    availabilityChecker.record(AvailabilityChecker.FIELD_USERNAME, username, false);
+                                    availabilityChecker.record(AvailabilityChecker.FIELD_EMAIL, email, false);
+
+                                    JSONObject data = jsonResponse.getJSONObject("data");
+                                    int userId = data.getInt("user_id");
+                                    String username = data.getString("username");
+
+                                    // Go to dashboard
+                                    Intent intent = new Intent(RegisterActivity.this, DashboardActivity.class);
+                                    intent.putExtra("user_id", userId);
+                                    intent.putExtra("username", username);
+                                    startActivity(intent);
+                                    finish();
                                 } else {
+                                    availabilityChecker.recordRegistrationError(username, email,
+                                            jsonResponse.optString("message"));
                                     tvStatus.setText("❌ " + jsonResponse.getString("message"));
                                     tvStatus.setTextColor(Color.RED);
                                     Toast.makeText(RegisterActivity.this,
@@ -0,0 +1,259 @@
+package com.example.studentclientapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs SocketClient work on two priority lanes.
+ *
+ * INTERACTIVE is for anything the user is waiting on (login, submit, tapping a card).
+ * BACKGROUND is for refreshes, heartbeats and prefetches. Background work has its own
+ * small thread budget and holds back while interactive work is queued or running, so a
+ * sync can never sit in front of a "Submit" tap. While the device is offline the
+ * background lane is paused altogether; its tasks stay queued until it resumes.
+ */
+public class RequestDispatcher {
+    private static final String TAG = "RequestDispatcher";
+
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    public interface ResultHandler<T> {
+        void onResult(T result);
+    }
+
+    private static final int INTERACTIVE_THREADS = 3;
+    private static final int BACKGROUND_BUDGET = 1;
+    // Upper bound on how long a background task yields, so it cannot starve forever
+    private static final long MAX_YIELD_MS = 3000;
+
+    private final ThreadPoolExecutor interactiveExecutor;
+    private final ThreadPoolExecutor backgroundExecutor;
+    // Where results are delivered; the main thread outside tests
+    private final Executor resultExecutor;
+    private final Clock clock;
+    private final long maxYieldMs;
+
+    // Interactive tasks that are queued or running
+    private final AtomicInteger interactiveOutstanding = new AtomicInteger();
+    private final Object yieldLock = new Object();
+    // Guarded by yieldLock
+    private boolean backgroundPaused;
+
+    private final LaneStats interactiveStats = new LaneStats(Priority.INTERACTIVE);
+    private final LaneStats backgroundStats = new LaneStats(Priority.BACKGROUND);
+
+    public RequestDispatcher() {
+        this(new Executor() {
+            private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        }, Clock.SYSTEM, MAX_YIELD_MS);
+    }
+
+    RequestDispatcher(Executor resultExecutor, Clock clock, long maxYieldMs) {
+        this.resultExecutor = resultExecutor;
+        this.clock = clock;
+        this.maxYieldMs = maxYieldMs;
+
+        interactiveExecutor = new ThreadPoolExecutor(
+                INTERACTIVE_THREADS, INTERACTIVE_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new LaneThreadFactory("interactive", Thread.NORM_PRIORITY));
+        interactiveExecutor.allowCoreThreadTimeOut(true);
+
+        backgroundExecutor = new ThreadPoolExecutor(
+                BACKGROUND_BUDGET, BACKGROUND_BUDGET, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new LaneThreadFactory("background", Thread.MIN_PRIORITY));
+        backgroundExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue work on a lane. The result is delivered on the main thread, like
+     * AsyncTask.onPostExecute used to.
+     */
+    public <T> void submit(final Priority priority, final Callable<T> work, final ResultHandler<T> handler) {
+        final long enqueuedAt = clock.elapsedRealtime();
+
+        if (priority == Priority.INTERACTIVE) {
+            interactiveOutstanding.incrementAndGet();
+            interactiveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    interactiveStats.recordWait(clock.elapsedRealtime() - enqueuedAt);
+                    T result;
+                    try {
+                        result = runWork(work);
+                    } finally {
+                        if (interactiveOutstanding.decrementAndGet() == 0) {
+                            synchronized (yieldLock) {
+                                yieldLock.notifyAll();
+                            }
+                        }
+                    }
+                    deliver(handler, result);
+                }
+            });
+        } else {
+            backgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    awaitBackgroundResumed();
+                    awaitInteractiveIdle();
+                    backgroundStats.recordWait(clock.elapsedRealtime() - enqueuedAt);
+                    deliver(handler, runWork(work));
+                }
+            });
+        }
+    }
+
+    public LaneStats getStats(Priority priority) {
+        return priority == Priority.INTERACTIVE ? interactiveStats : backgroundStats;
+    }
+
+    public boolean hasInteractiveWork() {
+        return interactiveOutstanding.get() > 0;
+    }
+
+    /**
+     * Hold background tasks (not the ones already running) until resumed.
+     */
+    public void setBackgroundPaused(boolean paused) {
+        synchronized (yieldLock) {
+            if (backgroundPaused != paused) {
+                Log.d(TAG, paused ? "Background lane paused" : "Background lane resumed");
+            }
+            backgroundPaused = paused;
+            yieldLock.notifyAll();
+        }
+    }
+
+    private void awaitBackgroundResumed() {
+        synchronized (yieldLock) {
+            while (backgroundPaused) {
+                try {
+                    yieldLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void awaitInteractiveIdle() {
+        long deadline = clock.elapsedRealtime() + maxYieldMs;
+        synchronized (yieldLock) {
+            while (interactiveOutstanding.get() > 0) {
+                long remaining = deadline - clock.elapsedRealtime();
+                if (remaining <= 0) {
+                    Log.w(TAG, "Background task stopped yielding after " + maxYieldMs + "ms");
+                    return;
+                }
+                try {
+                    yieldLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private <T> T runWork(Callable<T> work) {
+        try {
+            return work.call();
+        } catch (Exception e) {
+            // Work items report their own errors; this only catches bugs
+            Log.e(TAG, "Dispatched task failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private <T> void deliver(final ResultHandler<T> handler, final T result) {
+        resultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handler.onResult(result);
+            }
+        });
+    }
+
+    /**
+     * Queue wait time for one lane (time from submit() until a worker picked the task up).
+     */
+    public static class LaneStats {
+        private final Priority priority;
+        private long count;
+        private long totalWaitMs;
+        private long maxWaitMs;
+        private long lastWaitMs;
+
+        LaneStats(Priority priority) {
+            this.priority = priority;
+        }
+
+        synchronized void recordWait(long waitMs) {
+            count++;
+            totalWaitMs += waitMs;
+            lastWaitMs = waitMs;
+            if (waitMs > maxWaitMs) {
+                maxWaitMs = waitMs;
+            }
+            Log.d(TAG, priority + " lane wait: " + waitMs + "ms");
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getAverageWaitMs() {
+            return count == 0 ? 0 : totalWaitMs / count;
+        }
+
+        public synchronized long getMaxWaitMs() {
+            return maxWaitMs;
+        }
+
+        public synchronized long getLastWaitMs() {
+            return lastWaitMs;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return priority + ": " + count + " requests, avg wait " + getAverageWaitMs()
+                    + "ms, max wait " + maxWaitMs + "ms";
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final String lane;
+        private final int threadPriority;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        LaneThreadFactory(String lane, int threadPriority) {
+            this.lane = lane;
+            this.threadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "socket-" + lane + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.studentclientapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * In-memory index over the cached request history, for instant search on the dashboard.
+ *
+ * Each field keeps postings (request id sets) in a sorted map keyed by type, status,
+ * created_at or title/description token, so date ranges and prefixes are a subMap()
+ * away. A query intersects the postings of its terms, starting from the smallest set,
+ * so it never rescans every record. Records are added, replaced or re-statused one at a
+ * time as lists and pushed events arrive.
+ */
+class RequestIndex {
+    private static final int MIN_TOKEN_LENGTH = 2;
+
+    private final Map<Integer, JSONObject> records = new HashMap<>();
+    private final TreeMap<String, Set<Integer>> byType = new TreeMap<>();
+    private final TreeMap<String, Set<Integer>> byStatus = new TreeMap<>();
+    private final TreeMap<String, Set<Integer>> byDate = new TreeMap<>();
+    private final TreeMap<String, Set<Integer>> byToken = new TreeMap<>();
+
+    /**
+     * Parsed search box text. Plain words are token prefixes; "type:" and "status:"
+     * filter by prefix, "from:" and "to:" by date (yyyy-mm-dd). All terms must match.
+     */
+    static class Query {
+        String type;
+        String status;
+        String from;
+        String to;
+        final List<String> prefixes = new ArrayList<>();
+
+        static Query parse(String text) {
+            Query query = new Query();
+            for (String part : text.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+                if (part.isEmpty()) {
+                    continue;
+                }
+                if (part.startsWith("type:")) {
+                    query.type = part.substring(5);
+                } else if (part.startsWith("status:")) {
+                    query.status = part.substring(7);
+                } else if (part.startsWith("from:")) {
+                    query.from = part.substring(5);
+                } else if (part.startsWith("to:")) {
+                    query.to = part.substring(3);
+                } else {
+                    query.prefixes.addAll(tokenize(part, 1));
+                }
+            }
+            return query;
+        }
+
+        boolean isEmpty() {
+            return type == null && status == null && from == null && to == null && prefixes.isEmpty();
+        }
+    }
+
+    synchronized int size() {
+        return records.size();
+    }
+
+    synchronized void clear() {
+        records.clear();
+        byType.clear();
+        byStatus.clear();
+        byDate.clear();
+        byToken.clear();
+    }
+
+    /**
+     * Bring the index in line with a full GET_REQUESTS list: new and changed records are
+     * (re)indexed, records no longer listed are dropped, unchanged ones are left alone.
+     */
+    synchronized void sync(JSONArray list) {
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject request = list.optJSONObject(i);
+            if (request == null || !request.has("id")) {
+                continue;
+            }
+            int id = request.optInt("id");
+            seen.add(id);
+            JSONObject existing = records.get(id);
+            if (existing == null || !existing.toString().equals(request.toString())) {
+                put(request);
+            }
+        }
+        for (Integer id : new ArrayList<>(records.keySet())) {
+            if (!seen.contains(id)) {
+                remove(id);
+            }
+        }
+    }
+
+    /**
+     * Add or replace one record. The index keeps its own copy, so later edits to the
+     * caller's object cannot drift from the postings.
+     */
+    synchronized void put(JSONObject request) {
+        int id = request.optInt("id");
+        remove(id);
+        try {
+            request = new JSONObject(request.toString());
+        } catch (Exception e) {
+            return;
+        }
+        records.put(id, request);
+
+        addPosting(byType, normalize(request.optString("type")), id);
+        addPosting(byStatus, normalize(request.optString("status")), id);
+        addPosting(byDate, request.optString("created_at"), id);
+        for (String token : tokenize(request.optString("title") + " " + request.optString("description"), MIN_TOKEN_LENGTH)) {
+            addPosting(byToken, token, id);
+        }
+    }
+
+    synchronized void updateStatus(int id, String status) {
+        JSONObject request = records.get(id);
+        if (request == null) {
+            return;
+        }
+        removePosting(byStatus, normalize(request.optString("status")), id);
+        try {
+            request.put("status", status);
+        } catch (Exception e) {
+            return;
+        }
+        addPosting(byStatus, normalize(status), id);
+    }
+
+    synchronized void remove(int id) {
+        JSONObject request = records.remove(id);
+        if (request == null) {
+            return;
+        }
+        removePosting(byType, normalize(request.optString("type")), id);
+        removePosting(byStatus, normalize(request.optString("status")), id);
+        removePosting(byDate, request.optString("created_at"), id);
+        for (String token : tokenize(request.optString("title") + " " + request.optString("description"), MIN_TOKEN_LENGTH)) {
+            removePosting(byToken, token, id);
+        }
+    }
+
+    /**
+     * Matching records, newest first.
+     */
+    synchronized List<JSONObject> search(Query query) {
+        List<Set<Integer>> postings = new ArrayList<>();
+        if (query.type != null) {
+            postings.add(prefixMatches(byType, query.type));
+        }
+        if (query.status != null) {
+            postings.add(prefixMatches(byStatus, query.status));
+        }
+        if (query.from != null || query.to != null) {
+            // created_at is "yyyy-mm-dd hh:mm:ss", so string order is time order
+            String from = query.from != null ? query.from : "";
+            String to = query.to != null ? query.to + "\uFFFF" : "\uFFFF";
+            postings.add(union(byDate.subMap(from, true, to, true)));
+        }
+        for (String prefix : query.prefixes) {
+            postings.add(prefixMatches(byToken, prefix));
+        }
+
+        Set<Integer> matches;
+        if (postings.isEmpty()) {
+            matches = records.keySet();
+        } else {
+            Collections.sort(postings, new Comparator<Set<Integer>>() {
+                @Override
+                public int compare(Set<Integer> a, Set<Integer> b) {
+                    return Integer.compare(a.size(), b.size());
+                }
+            });
+            matches = new HashSet<>(postings.get(0));
+            for (int i = 1; i < postings.size() && !matches.isEmpty(); i++) {
+                matches.retainAll(postings.get(i));
+            }
+        }
+
+        List<JSONObject> results = new ArrayList<>(matches.size());
+        for (Integer id : matches) {
+            results.add(records.get(id));
+        }
+        Collections.sort(results, new Comparator<JSONObject>() {
+            @Override
+            public int compare(JSONObject a, JSONObject b) {
+                int byCreated = b.optString("created_at").compareTo(a.optString("created_at"));
+                return byCreated != 0 ? byCreated : Integer.compare(b.optInt("id"), a.optInt("id"));
+            }
+        });
+        return results;
+    }
+
+    private static Set<Integer> prefixMatches(TreeMap<String, Set<Integer>> index, String prefix) {
+        return union(index.subMap(prefix, true, prefix + "\uFFFF", false));
+    }
+
+    private static Set<Integer> union(NavigableMap<String, Set<Integer>> range) {
+        if (range.isEmpty()) {
+            return Collections.emptySet();
+        }
+        if (range.size() == 1) {
+            return range.firstEntry().getValue();
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Set<Integer> postings : range.values()) {
+            ids.addAll(postings);
+        }
+        return ids;
+    }
+
+    private static void addPosting(Map<String, Set<Integer>> index, String key, int id) {
+        Set<Integer> ids = index.get(key);
+        if (ids == null) {
+            ids = new TreeSet<>();
+            index.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void removePosting(Map<String, Set<Integer>> index, String key, int id) {
+        Set<Integer> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> tokenize(String text, int minLength) {
+        Set<String> tokens = new HashSet<>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (token.length() >= minLength) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+}
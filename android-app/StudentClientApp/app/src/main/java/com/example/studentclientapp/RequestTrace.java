@@ -0,0 +1,112 @@
+package com.example.studentclientapp;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Locale;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Where the time of one request went, on both sides of the connection.
+ *
+ * The id travels in the request envelope ("trace") with the client's timestamps; the
+ * server times its stages (queue, decrypt, dispatch, database) against it and returns
+ * them in the reply's "trace" object. Whatever the round trip spent outside the server
+ * is network, plus the server encrypting and sending the reply.
+ *
+ * Those last two stages cannot be in the reply they produce. The server only logs them
+ * for this request, and returns the previous reply's on the same connection instead
+ * ("previous_reply_ms"), which is usually a fair estimate. A not_modified reply carries
+ * no trace at all, so revalidations show no server timings.
+ */
+class RequestTrace {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    final String id;
+    final String command;
+    // Client phases, in nanoseconds
+    final long queuedNanos;
+    long prepareNanos;
+    long sealNanos;
+    long roundTripNanos;
+    long openNanos;
+    // The server's "trace" object, or null if it sent none
+    JSONObject server;
+
+    RequestTrace(String command, long queuedNanos) {
+        this.id = Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE);
+        this.command = command;
+        this.queuedNanos = queuedNanos;
+    }
+
+    /**
+     * The "trace" object for the request envelope.
+     */
+    JSONObject envelope() throws JSONException {
+        JSONObject envelope = new JSONObject();
+        envelope.put("id", id);
+        envelope.put("queued_ms", round(queuedNanos / 1e6));
+        envelope.put("sent_at", System.currentTimeMillis());
+        return envelope;
+    }
+
+    /**
+     * Take the server's timings out of a reply, so callers and caches never see them.
+     */
+    void takeServerTimings(JSONObject reply) {
+        Object timings = reply.remove("trace");
+        if (timings instanceof JSONObject && id.equals(((JSONObject) timings).optString("id"))) {
+            server = (JSONObject) timings;
+        }
+    }
+
+    double serverMs() {
+        return server != null ? server.optDouble("total_ms", 0) : 0;
+    }
+
+    /**
+     * Round trip minus time inside the server: network both ways, plus the server's
+     * encryption and send of this reply (see {@link #previousReplyMs}).
+     */
+    double networkMs() {
+        return Math.max(0, roundTripNanos / 1e6 - serverMs());
+    }
+
+    /**
+     * The server's encrypt or send time for the reply before this one on the connection,
+     * in milliseconds, or -1 if it sent none.
+     */
+    double previousReplyMs(String stage) {
+        JSONObject previous = server != null ? server.optJSONObject("previous_reply_ms") : null;
+        return previous != null ? previous.optDouble(stage, -1) : -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(String.format(Locale.US,
+                "%s %s: queue %.1fms, prepare %.1fms, seal %.1fms, round trip %.1fms, open %.1fms",
+                command, id, queuedNanos / 1e6, prepareNanos / 1e6, sealNanos / 1e6,
+                roundTripNanos / 1e6, openNanos / 1e6));
+        if (server != null) {
+            out.append(String.format(Locale.US, " (server %.1fms:", serverMs()));
+            JSONObject stages = server.optJSONObject("server_ms");
+            if (stages != null) {
+                Iterator<String> names = stages.keys();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    out.append(String.format(Locale.US, " %s %.2f", name, stages.optDouble(name)));
+                }
+            }
+            if (previousReplyMs("encrypt") >= 0) {
+                out.append(String.format(Locale.US, "; last reply encrypt %.2f send %.2f",
+                        previousReplyMs("encrypt"), previousReplyMs("send")));
+            }
+            out.append(String.format(Locale.US, "; network ~%.1fms)", networkMs()));
+        }
+        return out.toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
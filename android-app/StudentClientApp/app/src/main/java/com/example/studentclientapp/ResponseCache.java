@@ -0,0 +1,138 @@
+package com.example.studentclientapp;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Last known responses for the signed-in user, used for conditional revalidation.
+ *
+ * GET_DATA replies carry a version tag; the client echoes it as "if_version" and the
+ * server answers "not_modified" when the record is unchanged, so only the cached copy
+ * needs to be handed back.
+ *
+ * The GET_REQUESTS list is kept current by pushed status events instead, and is only
+ * trusted while the connection is subscribed to them. Every request seen is also kept in
+ * a RequestIndex for local search.
+ */
+class ResponseCache {
+    private String owner;
+    private JSONObject studentData;
+    private String studentDataVersion;
+    private JSONObject requests;
+    private final RequestIndex requestIndex = new RequestIndex();
+
+    synchronized String getStudentDataVersion(String username) {
+        return isOwner(username) ? studentDataVersion : null;
+    }
+
+    synchronized void putStudentData(String username, JSONObject response) {
+        String version = response.optString("version", null);
+        if (version == null) {
+            return;
+        }
+        claim(username);
+        studentData = response;
+        studentDataVersion = version;
+    }
+
+    /**
+     * Cached GET_DATA response marked with "not_modified": true, or null if there is none.
+     */
+    synchronized JSONObject revalidatedStudentData(String username) throws JSONException {
+        if (!isOwner(username) || studentData == null) {
+            return null;
+        }
+        // Shallow copy so the flag never leaks into the cached entry
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = studentData.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            copy.put(key, studentData.get(key));
+        }
+        copy.put("not_modified", true);
+        return copy;
+    }
+
+    synchronized void putRequests(String username, JSONObject response) {
+        if (!"success".equals(response.optString("status")) || response.optJSONArray("requests") == null) {
+            return;
+        }
+        claim(username);
+        requests = response;
+        requestIndex.sync(response.optJSONArray("requests"));
+    }
+
+    /**
+     * Copy of the cached GET_REQUESTS response, or null if there is none.
+     */
+    synchronized JSONObject getRequests(String username) throws JSONException {
+        if (!isOwner(username) || requests == null) {
+            return null;
+        }
+        // Deep copy: callers may hold on to it while events patch the cached list
+        return new JSONObject(requests.toString());
+    }
+
+    /**
+     * Apply a pushed status change to the cached list. Returns false if the request is
+     * not in the list (for example a new one), in which case the list is dropped.
+     */
+    synchronized boolean patchRequestStatus(int requestId, String status) throws JSONException {
+        requestIndex.updateStatus(requestId, status);
+        if (requests == null) {
+            return false;
+        }
+        JSONArray list = requests.getJSONArray("requests");
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject request = list.getJSONObject(i);
+            if (request.optInt("id") == requestId) {
+                request.put("status", status);
+                return true;
+            }
+        }
+        requests = null;
+        return false;
+    }
+
+    /**
+     * Indexed requests matching the query, newest first. Works offline and after the
+     * list itself has been invalidated; the next GET_REQUESTS brings it up to date.
+     */
+    synchronized List<JSONObject> searchRequests(String username, RequestIndex.Query query) {
+        if (!isOwner(username)) {
+            return Collections.emptyList();
+        }
+        return requestIndex.search(query);
+    }
+
+    synchronized int getIndexedRequestCount(String username) {
+        return isOwner(username) ? requestIndex.size() : 0;
+    }
+
+    synchronized void invalidateRequests() {
+        requests = null;
+    }
+
+    synchronized void clear() {
+        owner = null;
+        studentData = null;
+        studentDataVersion = null;
+        requests = null;
+        requestIndex.clear();
+    }
+
+    private boolean isOwner(String username) {
+        return owner != null && owner.equals(username);
+    }
+
+    private void claim(String username) {
+        if (!isOwner(username)) {
+            clear();
+            owner = username;
+        }
+    }
+}
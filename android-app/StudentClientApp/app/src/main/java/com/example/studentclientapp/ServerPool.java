@@ -0,0 +1,230 @@
+package com.example.studentclientapp;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The server instances the client may connect to, with passive health tracking.
+ *
+ * A new connection goes to the better of two randomly chosen healthy endpoints (power of
+ * two choices), scored by requests in flight and smoothed latency. An endpoint that fails
+ * FAILURE_THRESHOLD times in a row is taken out for a back-off period, then gets a single
+ * trial connection before it is trusted again. While a user is signed in the pool is
+ * sticky: the endpoint holding the session is preferred for as long as it stays healthy.
+ */
+class ServerPool {
+    private static final String TAG = "ServerPool";
+
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long BASE_BACKOFF_MS = 5000;
+    private static final long MAX_BACKOFF_MS = 60000;
+    // Weight of the newest sample in the latency average
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private final List<Endpoint> endpoints;
+    private final Clock clock;
+    private final Random random = new Random();
+    private volatile Endpoint sticky;
+
+    private ServerPool(List<Endpoint> endpoints, Clock clock) {
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.clock = clock;
+    }
+
+    /**
+     * Build a pool from "host:port" strings.
+     */
+    static ServerPool of(String... addresses) {
+        return of(Clock.SYSTEM, addresses);
+    }
+
+    static ServerPool of(Clock clock, String... addresses) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String address : addresses) {
+            int separator = address.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected host:port, got " + address);
+            }
+            endpoints.add(new Endpoint(address.substring(0, separator),
+                    Integer.parseInt(address.substring(separator + 1)), clock));
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one server endpoint is required");
+        }
+        return new ServerPool(endpoints, clock);
+    }
+
+    int size() {
+        return endpoints.size();
+    }
+
+    Endpoint get(int index) {
+        return endpoints.get(index);
+    }
+
+    /**
+     * Endpoint for the next connection, avoiding the given one (the endpoint that just
+     * failed) when there is any alternative.
+     */
+    Endpoint pick(Endpoint avoid) {
+        long now = clock.elapsedRealtime();
+
+        Endpoint preferred = sticky;
+        if (preferred != null && preferred != avoid && preferred.isAvailable(now)) {
+            return preferred;
+        }
+
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != avoid && endpoint.isAvailable(now)) {
+                candidates.add(endpoint);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            // Everything is backing off: try whichever comes back soonest
+            Endpoint soonest = null;
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint == avoid && endpoints.size() > 1) {
+                    continue;
+                }
+                if (soonest == null || endpoint.getDownUntil() < soonest.getDownUntil()) {
+                    soonest = endpoint;
+                }
+            }
+            return soonest;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = candidates.get(first);
+        Endpoint b = candidates.get(second);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    /**
+     * Prefer this endpoint from now on (it holds the signed-in session).
+     */
+    void stick(Endpoint endpoint) {
+        if (sticky != endpoint) {
+            Log.d(TAG, "Session pinned to " + endpoint);
+        }
+        sticky = endpoint;
+    }
+
+    void unstick() {
+        sticky = null;
+    }
+
+    boolean isSticky() {
+        return sticky != null;
+    }
+
+    /**
+     * Forget recorded failures, e.g. once the device is back online: failures while the
+     * network was going away say nothing about the endpoints.
+     */
+    void resetHealth() {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.resetFailures();
+        }
+    }
+
+    String describe() {
+        long now = clock.elapsedRealtime();
+        StringBuilder sb = new StringBuilder();
+        for (Endpoint endpoint : endpoints) {
+            sb.append(endpoint).append(": ").append(endpoint.describe(now));
+            if (endpoint == sticky) {
+                sb.append(", sticky");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static final class Endpoint {
+        final String host;
+        final int port;
+        private final Clock clock;
+
+        // Requests sent to this endpoint that have not been answered yet
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        private double latencyMs;
+        private int consecutiveFailures;
+        private long downUntil;
+
+        Endpoint(String host, int port, Clock clock) {
+            this.host = host;
+            this.port = port;
+            this.clock = clock;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return downUntil <= now;
+        }
+
+        synchronized long getDownUntil() {
+            return downUntil;
+        }
+
+        synchronized void recordSuccess(long elapsedMs) {
+            if (consecutiveFailures >= FAILURE_THRESHOLD) {
+                Log.d(TAG, this + " is healthy again");
+            }
+            consecutiveFailures = 0;
+            downUntil = 0;
+            latencyMs = latencyMs == 0 ? elapsedMs
+                    : LATENCY_SMOOTHING * elapsedMs + (1 - LATENCY_SMOOTHING) * latencyMs;
+        }
+
+        synchronized void resetFailures() {
+            consecutiveFailures = 0;
+            downUntil = 0;
+        }
+
+        /**
+         * Returns true if this failure took the endpoint out of rotation.
+         */
+        synchronized boolean recordFailure() {
+            consecutiveFailures++;
+            if (consecutiveFailures < FAILURE_THRESHOLD) {
+                return false;
+            }
+            // Doubles with every failed trial after the endpoint went down
+            int shift = Math.min(consecutiveFailures - FAILURE_THRESHOLD, 4);
+            long backoff = Math.min(BASE_BACKOFF_MS << shift, MAX_BACKOFF_MS);
+            downUntil = clock.elapsedRealtime() + backoff;
+            Log.w(TAG, this + " marked down for " + backoff + "ms after "
+                    + consecutiveFailures + " failures");
+            return true;
+        }
+
+        synchronized double score() {
+            // Unmeasured endpoints score as fast so they get tried
+            return (outstanding.get() + 1) * Math.max(latencyMs, 1);
+        }
+
+        synchronized String describe(long now) {
+            String state = downUntil > now ? "down for " + (downUntil - now) + "ms" : "up";
+            return state + ", " + outstanding.get() + " in flight, latency "
+                    + String.format("%.0f", latencyMs) + "ms, " + consecutiveFailures + " failures";
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
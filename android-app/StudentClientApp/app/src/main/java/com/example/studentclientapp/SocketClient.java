@@ -1,10 +1,16 @@
 package com.example.studentclientapp;
 
-import android.os.AsyncTask;
+import android.content.Context;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Base64;
 import android.util.Log;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
@@ -13,26 +19,49 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 public class SocketClient {
     private static final String TAG = "SocketClient";
     private static SocketClient instance;
     private static final String ENCRYPTION_KEY = "0123456789abcdef0123456789abcdef"; // 32 bytes for AES-256
-    private static final String ENCRYPTION_ALGORITHM = "AES/CBC/PKCS5Padding";
+    private static final String ENCRYPTION_ALGORITHM = "AES/GCM/NoPadding";
 
-    // Computer's IP 
-    private String serverIp = "192.168.29.126";
-    private int serverPort = 12345;
+    // Computer's IP; more instances can be added with setServerEndpoints
+    private volatile ServerPool serverPool = ServerPool.of("192.168.29.126:12345");
 
     // Add these fields
     private String currentUsername = "";
     private int currentUserId = -1;
 
+    // Token from the last LOGIN and the user it signs in; a new connection sends it in a
+    // RESUME, since the server only acts for the user signed in on the connection
+    private volatile String sessionToken;
+    private volatile String sessionUser;
+
     public void setUserInfo(String username, int userId) {
+        if (username == null || !username.equals(currentUsername)) {
+            responseCache.clear();
+            lastEventId = 0;
+            if (username == null || !username.equals(sessionUser)) {
+                sessionToken = null;
+                sessionUser = null;
+            }
+            // The server would keep answering as whoever signed in on the old connection
+            synchronized (connectionLock) {
+                if (connection != null && connection.authenticatedUser != null
+                        && !connection.authenticatedUser.equals(username)) {
+                    closeConnection();
+                }
+            }
+        }
         this.currentUsername = username;
         this.currentUserId = userId;
         Log.d(TAG, "User info set: " + username + " (ID: " + userId + ")");
@@ -51,6 +80,48 @@ public class SocketClient {
         void onError(String error);
     }
 
+    /**
+     * Receives the response already parsed, skipping the JSON text round trip when the
+     * connection uses the binary encoding.
+     */
+    public interface ResponseCallback {
+        void onResponse(JSONObject response);
+        void onError(String error);
+    }
+
+    /**
+     * Server-pushed change to one of the signed-in user's requests. Called on the main thread.
+     */
+    public interface RequestEventListener {
+        void onRequestStatusChanged(int requestId, String status);
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final long RESPONSE_TIMEOUT_MS = 10000;
+
+    // Traces of the last requests, newest last, for getRecentTraces()
+    private static final int MAX_RECENT_TRACES = 50;
+    private final ArrayDeque<RequestTrace> recentTraces = new ArrayDeque<>();
+
+    private final RequestDispatcher dispatcher = new RequestDispatcher();
+    private final PayloadCompressor compressor = new PayloadCompressor();
+    private final ResponseCache responseCache = new ResponseCache();
+    private volatile boolean binaryEncodingEnabled = true;
+
+    private final CopyOnWriteArrayList<RequestEventListener> requestEventListeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Newest request event applied; sent as "since" so a reconnect replays what was missed
+    private volatile long lastEventId;
+    // Shared by every lane, so one "overloaded" reply holds them all back
+    private final OverloadBackoff overloadBackoff = new OverloadBackoff(Clock.SYSTEM);
+
+    // Persistent connection shared by all requests; reopened lazily when it drops
+    private final Object connectionLock = new Object();
+    private ClientConnection connection;
+
+    // Set by watchNetwork(); without it the network is assumed to be there
+    private volatile NetworkMonitor networkMonitor;
+
     private SocketClient() {}
 
     public static synchronized SocketClient getInstance() {
@@ -60,26 +131,32 @@ public class SocketClient {
         return instance;
     }
 
+    /*
+     * Frame: Base64 of a version byte, a 12-byte nonce, and the AES-256-GCM ciphertext
+     * with its 16-byte tag. The version byte is authenticated along with the payload;
+     * the server's security.py uses the same layout.
+     */
+    private static final byte FRAME_VERSION = 1;
+    private static final int FRAME_NONCE_SIZE = 12;
+    private static final int FRAME_TAG_SIZE = 16;
+    private final SecureRandom nonceSource = new SecureRandom();
+
     // AES Encryption method
     private String encryptAES(String plainText) {
-        try {
-            byte[] keyBytes = ENCRYPTION_KEY.getBytes(StandardCharsets.UTF_8);
-            byte[] ivBytes = new byte[16];
-            SecureRandom random = new SecureRandom();
-            random.nextBytes(ivBytes);
-
-            SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-            IvParameterSpec ivSpec = new IvParameterSpec(ivBytes);
-
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+        return encryptAES(plainText.getBytes(StandardCharsets.UTF_8));
+    }
 
-            byte[] encrypted = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+    private String encryptAES(byte[] plainBytes) {
+        try {
+            byte[] nonce = new byte[FRAME_NONCE_SIZE];
+            nonceSource.nextBytes(nonce);
+            byte[] sealed = frameCipher(Cipher.ENCRYPT_MODE, nonce).doFinal(plainBytes);
 
-            // Combine IV + encrypted data
-            byte[] combined = new byte[ivBytes.length + encrypted.length];
-            System.arraycopy(ivBytes, 0, combined, 0, ivBytes.length);
-            System.arraycopy(encrypted, 0, combined, ivBytes.length, encrypted.length);
+            // Combine version + nonce + ciphertext and tag
+            byte[] combined = new byte[1 + FRAME_NONCE_SIZE + sealed.length];
+            combined[0] = FRAME_VERSION;
+            System.arraycopy(nonce, 0, combined, 1, FRAME_NONCE_SIZE);
+            System.arraycopy(sealed, 0, combined, 1 + FRAME_NONCE_SIZE, sealed.length);
 
             return Base64.encodeToString(combined, Base64.NO_WRAP);
 
@@ -91,26 +168,25 @@ public class SocketClient {
 
     // AES Decryption method
     private String decryptAES(String encryptedBase64) {
+        byte[] decrypted = decryptAESBytes(encryptedBase64);
+        return decrypted != null ? new String(decrypted, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Open a frame; null if it is malformed, of another version, or fails the tag check.
+     */
+    private byte[] decryptAESBytes(String encryptedBase64) {
         try {
             byte[] combined = Base64.decode(encryptedBase64, Base64.NO_WRAP);
+            if (combined.length < 1 + FRAME_NONCE_SIZE + FRAME_TAG_SIZE || combined[0] != FRAME_VERSION) {
+                Log.e(TAG, "AES Decryption error: not a version " + FRAME_VERSION + " frame");
+                return null;
+            }
+            byte[] nonce = new byte[FRAME_NONCE_SIZE];
+            System.arraycopy(combined, 1, nonce, 0, FRAME_NONCE_SIZE);
 
-            // Extract IV (first 16 bytes)
-            byte[] ivBytes = new byte[16];
-            System.arraycopy(combined, 0, ivBytes, 0, ivBytes.length);
-
-            // Extract encrypted data
-            byte[] encryptedBytes = new byte[combined.length - 16];
-            System.arraycopy(combined, 16, encryptedBytes, 0, encryptedBytes.length);
-
-            byte[] keyBytes = ENCRYPTION_KEY.getBytes(StandardCharsets.UTF_8);
-            SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-            IvParameterSpec ivSpec = new IvParameterSpec(ivBytes);
-
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);
-
-            byte[] decrypted = cipher.doFinal(encryptedBytes);
-            return new String(decrypted, StandardCharsets.UTF_8);
+            return frameCipher(Cipher.DECRYPT_MODE, nonce).doFinal(
+                    combined, 1 + FRAME_NONCE_SIZE, combined.length - 1 - FRAME_NONCE_SIZE);
 
         } catch (Exception e) {
             Log.e(TAG, "AES Decryption error: " + e.getMessage());
@@ -118,6 +194,14 @@ public class SocketClient {
         }
     }
 
+    private static Cipher frameCipher(int mode, byte[] nonce) throws Exception {
+        byte[] keyBytes = ENCRYPTION_KEY.getBytes(StandardCharsets.UTF_8);
+        Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+        cipher.init(mode, new SecretKeySpec(keyBytes, "AES"), new GCMParameterSpec(FRAME_TAG_SIZE * 8, nonce));
+        cipher.updateAAD(new byte[] {FRAME_VERSION});
+        return cipher;
+    }
+
     // Password hashing method
     String hashPassword(String password) {
         try {
@@ -138,263 +222,953 @@ public class SocketClient {
     }
 
     public void testConnection(final SocketCallback callback) {
-        new AsyncTask<Void, Void, String>() {
+        testConnection(RequestDispatcher.Priority.INTERACTIVE, callback);
+    }
+
+    public void testConnection(RequestDispatcher.Priority priority, final SocketCallback callback) {
+        dispatcher.submit(priority, new Callable<String>() {
             @Override
-            protected String doInBackground(Void... voids) {
-                Socket socket = null;
-                PrintWriter out = null;
-                BufferedReader in = null;
+            public String call() {
+                return executeTestConnection();
+            }
+        }, new RequestDispatcher.ResultHandler<String>() {
+            @Override
+            public void onResult(String result) {
+                if (result != null && result.startsWith("SUCCESS")) {
+                    callback.onResponse(result);
+                } else {
+                    callback.onError(result);
+                }
+            }
+        });
+    }
 
+    /**
+     * Probe endpoints until one answers. Doubles as the active health check: each result
+     * is fed back into the pool, so a dead instance is skipped by the next connection.
+     */
+    private String executeTestConnection() {
+        ServerPool pool = serverPool;
+        ServerPool.Endpoint endpoint = null;
+        String result = null;
+        for (int attempt = 0; attempt < pool.size(); attempt++) {
+            endpoint = pool.pick(endpoint);
+            long started = SystemClock.elapsedRealtime();
+            result = probe(endpoint);
+            if (result.startsWith("SUCCESS")) {
+                endpoint.recordSuccess(SystemClock.elapsedRealtime() - started);
+                return result;
+            }
+            endpoint.recordFailure();
+        }
+        return result;
+    }
+
+    private String probe(ServerPool.Endpoint endpoint) {
+        Socket socket = null;
+        PrintWriter out = null;
+        BufferedReader in = null;
+
+        try {
+            Log.d(TAG, "Testing connection to " + endpoint);
+
+            // Create socket with timeout
+            socket = new Socket();
+            InetSocketAddress address = new InetSocketAddress(endpoint.host, endpoint.port);
+            socket.connect(address, 5000);
+            socket.setSoTimeout(3000); // Reduced timeout for test
+
+            out = new PrintWriter(socket.getOutputStream(), true);
+
+            InputStreamReader streamReader = new InputStreamReader(socket.getInputStream());
+            StringBuilder responseBuilder = new StringBuilder();
+            char[] buffer = new char[1024];
+
+            Log.d(TAG, "Sending test connection message: TEST");
+            out.println("TEST");
+            out.flush();
+
+            // Read response character by character with timeout
+            int bytesRead;
+            long startTime = System.currentTimeMillis();
+            long timeout = 3000; // 3 seconds
+
+            while ((bytesRead = streamReader.read(buffer)) != -1) {
+                responseBuilder.append(buffer, 0, bytesRead);
+
+                // Check if we have a complete response
+                String currentResponse = responseBuilder.toString();
+                if (currentResponse.contains("\n") ||
+                        currentResponse.length() >= 200 || // Expected max response size
+                        (System.currentTimeMillis() - startTime) > timeout) {
+                    break;
+                }
+
+                // Small delay to avoid CPU spinning
                 try {
-                    Log.d(TAG, "Testing connection to " + serverIp + ":" + serverPort);
-
-                    // Create socket with timeout
-                    socket = new Socket();
-                    InetSocketAddress address = new InetSocketAddress(serverIp, serverPort);
-                    socket.connect(address, 5000);
-                    socket.setSoTimeout(3000); // Reduced timeout for test
-
-                    out = new PrintWriter(socket.getOutputStream(), true);
-
-                    InputStreamReader streamReader = new InputStreamReader(socket.getInputStream());
-                    StringBuilder responseBuilder = new StringBuilder();
-                    char[] buffer = new char[1024];
-
-                    Log.d(TAG, "Sending test connection message: TEST");
-                    out.println("TEST");
-                    out.flush();
-
-                    // Read response character by character with timeout
-                    int bytesRead;
-                    long startTime = System.currentTimeMillis();
-                    long timeout = 3000; // 3 seconds
-
-                    while ((bytesRead = streamReader.read(buffer)) != -1) {
-                        responseBuilder.append(buffer, 0, bytesRead);
-
-                        // Check if we have a complete response
-                        String currentResponse = responseBuilder.toString();
-                        if (currentResponse.contains("\n") ||
-                                currentResponse.length() >= 200 || // Expected max response size
-                                (System.currentTimeMillis() - startTime) > timeout) {
-                            break;
-                        }
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
 
-                        // Small delay to avoid CPU spinning
-                        try {
-                            Thread.sleep(10);
-                        } catch (InterruptedException e) {
-                            break;
-                        }
-                    }
+            String response = responseBuilder.toString().trim();
 
-                    String response = responseBuilder.toString().trim();
+            if (response.isEmpty()) {
+                Log.w(TAG, "Empty response received");
+                return "ERROR: Empty response from server";
+            }
 
-                    if (response.isEmpty()) {
-                        Log.w(TAG, "Empty response received");
-                        return "ERROR: Empty response from server";
-                    }
+            Log.d(TAG, "Raw response received (length: " + response.length() + "): " +
+                    response.substring(0, Math.min(50, response.length())) + "...");
 
-                    Log.d(TAG, "Raw response received (length: " + response.length() + "): " +
-                            response.substring(0, Math.min(50, response.length())) + "...");
-
-                    // Try to decrypt if it's encrypted
-                    if (response.length() > 50) { 
-                        String decrypted = decryptAES(response.trim());
-                        if (decrypted != null) {
-                            Log.d(TAG, "Decrypted response: " + decrypted);
-                            try {
-                                JSONObject jsonResponse = new JSONObject(decrypted);
-                                String status = jsonResponse.getString("status");
-                                String message = jsonResponse.getString("message");
-                                return "SUCCESS: " + message + " (Encrypted)";
-                            } catch (Exception e) {
-                                return "SUCCESS: Connection successful - " +
-                                        decrypted.substring(0, Math.min(100, decrypted.length()));
-                            }
-                        }
-                    }
+            String decrypted = decryptAES(response.trim());
+            if (decrypted == null) {
+                return "ERROR: Server reply could not be authenticated (wrong key or protocol version)";
+            }
+            Log.d(TAG, "Decrypted response: " + decrypted);
+            try {
+                JSONObject jsonResponse = new JSONObject(decrypted);
+                String message = jsonResponse.getString("message");
+                return "SUCCESS: " + message + " (Encrypted)";
+            } catch (Exception e) {
+                return "SUCCESS: Connection successful - " +
+                        decrypted.substring(0, Math.min(100, decrypted.length()));
+            }
 
-                    // If not encrypted or decryption failed
-                    return "SUCCESS: " + response.substring(0, Math.min(100, response.length()));
+        } catch (SocketTimeoutException e) {
+            Log.e(TAG, "Socket timeout: " + e.getMessage());
+            return "ERROR: Connection timeout - server may be busy";
+        } catch (java.net.ConnectException e) {
+            Log.e(TAG, "Connection refused: " + e.getMessage());
+            return "ERROR: Connection refused. Check if server is running";
+        } catch (Exception e) {
+            Log.e(TAG, "Connection test failed: " + e.getMessage(), e);
+            return "ERROR: " + e.getMessage();
+        } finally {
+            try {
+                if (out != null) out.close();
+                if (in != null) in.close();
+                if (socket != null) socket.close();
+                Log.d(TAG, "Test connection resources cleaned up");
+            } catch (Exception e) {
+                Log.e(TAG, "Error closing resources: " + e.getMessage());
+            }
+        }
+    }
 
-                } catch (SocketTimeoutException e) {
-                    Log.e(TAG, "Socket timeout: " + e.getMessage());
-                    return "ERROR: Connection timeout - server may be busy";
-                } catch (java.net.ConnectException e) {
-                    Log.e(TAG, "Connection refused: " + e.getMessage());
-                    return "ERROR: Connection refused. Check if server is running";
-                } catch (Exception e) {
-                    Log.e(TAG, "Connection test failed: " + e.getMessage());
-                    e.printStackTrace();
-                    return "ERROR: " + e.getMessage();
-                } finally {
-                    try {
-                        if (out != null) out.close();
-                        if (in != null) in.close();
-                        if (socket != null) socket.close();
-                        Log.d(TAG, "Test connection resources cleaned up");
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error closing resources: " + e.getMessage());
-                    }
+    public void sendRequest(final String command, final JSONObject params, final SocketCallback callback) {
+        sendRequest(command, params, RequestDispatcher.Priority.INTERACTIVE, callback);
+    }
+
+    public void sendRequest(final String command, final JSONObject params,
+                            RequestDispatcher.Priority priority, final SocketCallback callback) {
+        final long submitted = System.nanoTime();
+        dispatcher.submit(priority, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return executeRequest(command, params, submitted);
+            }
+        }, new RequestDispatcher.ResultHandler<Object>() {
+            @Override
+            public void onResult(Object result) {
+                if (result == null) {
+                    callback.onError("Request failed");
+                } else {
+                    callback.onResponse(result.toString());
                 }
             }
+        });
+    }
 
+    public void sendRequest(final String command, final JSONObject params,
+                            RequestDispatcher.Priority priority, final ResponseCallback callback) {
+        final long submitted = System.nanoTime();
+        dispatcher.submit(priority, new Callable<Object>() {
             @Override
-            protected void onPostExecute(String result) {
-                if (result.startsWith("SUCCESS")) {
-                    callback.onResponse(result);
-                } else {
-                    callback.onError(result);
+            public Object call() {
+                return executeRequest(command, params, submitted);
+            }
+        }, new RequestDispatcher.ResultHandler<Object>() {
+            @Override
+            public void onResult(Object result) {
+                if (result == null) {
+                    callback.onError("Request failed");
+                    return;
+                }
+                try {
+                    callback.onResponse(result instanceof JSONObject
+                            ? (JSONObject) result : new JSONObject(result.toString()));
+                } catch (Exception e) {
+                    callback.onError("Invalid response: " + e.getMessage());
                 }
             }
-        }.execute();
+        });
     }
 
-    public void sendRequest(final String command, final JSONObject params, final SocketCallback callback) {
-        new AsyncTask<Void, Void, String>() {
+    /**
+     * Use the compact binary encoding on new connections (default). Turn off to keep
+     * traffic as JSON text while debugging.
+     */
+    public void setBinaryEncoding(boolean enabled) {
+        if (binaryEncodingEnabled != enabled) {
+            binaryEncodingEnabled = enabled;
+            closeConnection();
+        }
+    }
+
+    /**
+     * Follow the device's network, so a handover or outage is handled when it happens
+     * rather than when a request times out. Call once, from the first activity.
+     *
+     * When the network goes away or changes, the shared connection is dropped: requests
+     * waiting on it fail straight away, and reads are retried on a new connection. While
+     * there is no usable network, interactive requests fail immediately and the background
+     * lane is paused. As soon as a usable network appears, a connection is opened ahead of
+     * the next request.
+     */
+    public synchronized void watchNetwork(Context context) {
+        if (networkMonitor != null) {
+            return;
+        }
+        NetworkMonitor monitor = new NetworkMonitor(context, new NetworkMonitor.Listener() {
             @Override
-            protected String doInBackground(Void... voids) {
-                Socket socket = null;
-                PrintWriter out = null;
-                BufferedReader in = null;
+            public void onNetworkAvailable(Network network) {
+                // Anything open now was opened on the old network, or behind a captive portal
+                boolean dropped = dropConnection();
+                // Failures while the network was going away were not the servers' fault
+                serverPool.resetHealth();
+                dispatcher.setBackgroundPaused(false);
+                if (dropped || (currentUsername != null && !currentUsername.isEmpty())) {
+                    prewarmConnection();
+                }
+            }
 
+            @Override
+            public void onNetworkUnavailable() {
+                dispatcher.setBackgroundPaused(true);
+                dropConnection();
+            }
+        });
+        dispatcher.setBackgroundPaused(!monitor.start());
+        networkMonitor = monitor;
+    }
+
+    private boolean isNetworkAvailable() {
+        NetworkMonitor monitor = networkMonitor;
+        return monitor == null || monitor.isOnline();
+    }
+
+    /**
+     * Open the shared connection (with its HELLO and SUBSCRIBE) before anyone needs it, so
+     * the first request on a new network skips the connect and negotiation round trips.
+     */
+    private void prewarmConnection() {
+        dispatcher.submit(RequestDispatcher.Priority.BACKGROUND, new Callable<Void>() {
+            @Override
+            public Void call() {
                 try {
-                    Log.d(TAG, "=== NEW REQUEST ===");
-                    Log.d(TAG, "Command: " + command);
-                    Log.d(TAG, "Original params: " + (params != null ? params.toString() : "null"));
-
-                    // Create new socket for each request
-                    socket = new Socket();
-                    InetSocketAddress address = new InetSocketAddress(serverIp, serverPort);
-                    socket.connect(address, 5000);
-
-                    out = new PrintWriter(socket.getOutputStream(), true);
-                    in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                    // Create request JSON
-                    JSONObject request = new JSONObject();
-                    request.put("command", command);
-
-                    // Start with provided params
-                    JSONObject finalParams = new JSONObject();
-                    if (params != null) {
-                        // Copy all params
-                        java.util.Iterator<String> keys = params.keys();
-                        while (keys.hasNext()) {
-                            String key = keys.next();
-                            // Hash password for both LOGIN and REGISTER commands
-                            if (key.equals("password") && (command.equals("LOGIN") || command.equals("REGISTER"))) {
-                                // Hash password before sending
-                                finalParams.put(key, hashPassword(params.getString(key)));
-                                Log.d(TAG, "✓ Password hashed for " + command);
-                            } else {
-                                finalParams.put(key, params.get(key));
-                            }
-                        }
-                    }
+                    obtainConnection();
+                    Log.d(TAG, "🔌 Connection pre-warmed");
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not pre-warm a connection: " + e.getMessage());
+                }
+                return null;
+            }
+        }, new RequestDispatcher.ResultHandler<Void>() {
+            @Override
+            public void onResult(Void result) {
+            }
+        });
+    }
 
-                    // AUTOMATICALLY ADD AUTHENTICATION PARAMETERS FOR COMMANDS THAT NEED THEM
-                    if (command.equals("GET_DATA") || command.equals("SUBMIT_REQUEST") || command.equals("GET_REQUESTS")) {
-                        // Add username if we have it and not already in params
-                        if (currentUsername != null && !currentUsername.isEmpty() && !finalParams.has("username")) {
-                            finalParams.put("username", currentUsername);
-                            Log.d(TAG, "✓ Added username to " + command + ": " + currentUsername);
-                        }
+    public RequestDispatcher.LaneStats getLaneStats(RequestDispatcher.Priority priority) {
+        return dispatcher.getStats(priority);
+    }
 
-                        // Add user_id if we have it and not already in params
-                        if (currentUserId != -1 && !finalParams.has("user_id")) {
-                            finalParams.put("user_id", currentUserId);
-                            Log.d(TAG, "✓ Added user_id to " + command + ": " + currentUserId);
-                        }
+    /**
+     * Runs one command on the shared connection. Returns the response as JSON text, or
+     * as an already-decoded JSONObject when it arrived in the binary encoding.
+     *
+     * A request the server sheds as overloaded is retried as OverloadBackoff allows.
+     */
+    private Object executeRequest(final String command, final JSONObject params, final long submitted) {
+        final long[] waitingSince = {submitted};
+        return overloadBackoff.run(command, new OverloadBackoff.Attempt() {
+            @Override
+            public Object send() {
+                Object result = executeOnce(command, params,
+                        new RequestTrace(command, System.nanoTime() - waitingSince[0]));
+                waitingSince[0] = System.nanoTime();
+                return result;
+            }
+        });
+    }
+
+    private Object executeOnce(final String command, final JSONObject params, RequestTrace trace) {
+        long phaseStarted = System.nanoTime();
+        try {
+            Log.d(TAG, "=== NEW REQUEST ===");
+            Log.d(TAG, "Command: " + command);
+            Log.d(TAG, "Original params: " + (params != null ? params.toString() : "null"));
+
+            // Start with provided params
+            JSONObject finalParams = new JSONObject();
+            if (params != null) {
+                // Copy all params
+                java.util.Iterator<String> keys = params.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    // Hash password for LOGIN, REGISTER and REGISTER_AND_LOGIN
+                    if (key.equals("password") && (command.equals("LOGIN") || command.startsWith("REGISTER"))) {
+                        // Hash password before sending
+                        finalParams.put(key, hashPassword(params.getString(key)));
+                        Log.d(TAG, "✓ Password hashed for " + command);
+                    } else {
+                        finalParams.put(key, params.get(key));
                     }
+                }
+            }
+
+            // Sign the token out on the server too
+            if (command.equals("EXIT") && sessionToken != null && !finalParams.has("session_token")) {
+                finalParams.put("session_token", sessionToken);
+            }
 
-                    // Add authentication for EXIT command too
-                    if (command.equals("EXIT")) {
-                        if (currentUsername != null && !currentUsername.isEmpty() && !finalParams.has("username")) {
-                            finalParams.put("username", currentUsername);
-                            Log.d(TAG, "✓ Added username to EXIT: " + currentUsername);
+            // Revalidate the cached record instead of downloading it again
+            if (command.equals("GET_DATA") && !finalParams.has("if_version")) {
+                String cachedVersion = responseCache.getStudentDataVersion(currentUsername);
+                if (cachedVersion != null) {
+                    finalParams.put("if_version", cachedVersion);
+                }
+            }
+
+            ClientConnection connection = obtainConnection();
+            boolean reused = connection.wasUsed;
+
+            // While subscribed, pushed events keep the cached list current
+            if (command.equals("GET_REQUESTS") && connection.subscribed) {
+                JSONObject cached = responseCache.getRequests(currentUsername);
+                if (cached != null) {
+                    Log.d(TAG, "✅ GET_REQUESTS served from event-patched cache");
+                    return cached;
+                }
+            }
+
+            trace.prepareNanos = System.nanoTime() - phaseStarted;
+            phaseStarted = System.nanoTime();
+            String encryptedRequest = sealRequest(connection, command, finalParams, trace);
+            trace.sealNanos = System.nanoTime() - phaseStarted;
+            if (encryptedRequest == null) {
+                Log.e(TAG, "❌ Encryption failed!");
+                return "{\"status\":\"error\",\"message\":\"Encryption failed\"}";
+            }
+
+            Log.d(TAG, "Encrypted size: " + encryptedRequest.length() + " chars");
+
+            // Send on the shared connection; other requests may be in flight on it too
+            String response;
+            phaseStarted = System.nanoTime();
+            try {
+                response = callTracked(connection, encryptedRequest);
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                // A reused connection may have been closed by the server while idle, or
+                // the instance may have died. Reads are safe to replay once on a fresh
+                // connection (another instance if this one is failing); writes are not.
+                if (!isIdempotent(command)) {
+                    throw e;
+                }
+                Log.w(TAG, (reused ? "Stale" : "Failed") + " connection, retrying " + command + " on a new one");
+                connection = obtainConnection(connection);
+                // Sealed again for the options the new connection negotiated
+                encryptedRequest = sealRequest(connection, command, finalParams, trace);
+                if (encryptedRequest == null) {
+                    return "{\"status\":\"error\",\"message\":\"Encryption failed\"}";
+                }
+                response = callTracked(connection, encryptedRequest);
+            }
+            trace.roundTripNanos = System.nanoTime() - phaseStarted;
+            phaseStarted = System.nanoTime();
+
+            if (command.equals("EXIT")) {
+                // Server closes its side after EXIT
+                sessionToken = null;
+                sessionUser = null;
+                closeConnection();
+                responseCache.clear();
+                serverPool.unstick();
+            } else if (command.equals("SUBMIT_REQUEST")) {
+                responseCache.invalidateRequests();
+            }
+
+            Log.d(TAG, "Raw response received, length: " + (response != null ? response.length() : 0));
+
+            if (response == null || response.isEmpty()) {
+                Log.e(TAG, "❌ No response from server");
+                return "{\"status\":\"error\",\"message\":\"No response from server\"}";
+            }
+
+            // Try to decrypt with AES, then inflate if the server compressed the body
+            byte[] plainBytes = openPayload(command, response);
+            if (plainBytes != null) {
+                JSONObject reply = parsePayload(plainBytes);
+                trace.takeServerTimings(reply);
+                trace.openNanos = System.nanoTime() - phaseStarted;
+                recordTrace(trace);
+                if (CompactCodec.isBinary(plainBytes)) {
+                    Log.d(TAG, "✅ Binary response decoded (" + plainBytes.length + " bytes)");
+                }
+
+                if (command.equals("GET_DATA")) {
+                    return applyStudentDataCache(reply);
+                }
+                if (command.equals("LOGIN") || command.equals("REGISTER_AND_LOGIN")) {
+                    if ("success".equals(reply.optString("status"))) {
+                        // The server keeps login state per connection; keep using this instance
+                        // and stop sending username/user_id on it
+                        JSONObject data = reply.getJSONObject("data");
+                        connection.authenticatedUser = data.optString("username");
+                        sessionUser = connection.authenticatedUser;
+                        sessionToken = data.optString("session_token", null);
+                        serverPool.stick(connection.endpoint);
+                        synchronized (connectionLock) {
+                            subscribeIfWanted(connection);
                         }
                     }
+                    return reply;
+                }
+                if (command.equals("GET_REQUESTS")) {
+                    responseCache.putRequests(currentUsername, reply);
+                    return reply;
+                }
+                Log.d(TAG, "✅ Response decrypted successfully");
+                return reply;
+            } else {
+                // Not sealed with our key and frame version, so nothing in it can be trusted,
+                // and later replies on this connection would not be either
+                Log.e(TAG, "❌ Response failed authentication, dropping connection");
+                synchronized (connectionLock) {
+                    if (this.connection == connection) {
+                        closeConnection();
+                    }
+                }
+                return "{\"status\":\"error\",\"message\":\"Could not authenticate server response\"}";
+            }
 
-                    request.put("params", finalParams);
+        } catch (SocketTimeoutException e) {
+            Log.e(TAG, "❌ Socket timeout: " + e.getMessage());
+            return "{\"status\":\"error\",\"message\":\"Connection timeout\"}";
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Request error: " + e.getMessage(), e);
+            return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
 
-                    String requestStr = request.toString();
-                    Log.d(TAG, "Full request JSON: " + requestStr);
-                    Log.d(TAG, "Request size: " + requestStr.length() + " chars");
+        } finally {
+            Log.d(TAG, "=== REQUEST COMPLETE ===");
+        }
+    }
 
-                    // Encrypt with AES
-                    String encryptedRequest = encryptAES(requestStr);
-                    if (encryptedRequest == null) {
-                        Log.e(TAG, "❌ Encryption failed!");
-                        return "{\"status\":\"error\",\"message\":\"Encryption failed\"}";
-                    }
+    /**
+     * Encode, compress and encrypt a request for one connection. Returns null if
+     * encryption fails.
+     *
+     * No username/user_id is added: the server acts for the user signed in on the
+     * connection, by the LOGIN or the RESUME sent when it was opened.
+     */
+    private String sealRequest(ClientConnection connection, String command, JSONObject finalParams,
+                               RequestTrace trace) throws Exception {
+        JSONObject request = new JSONObject();
+        request.put("command", command);
+        request.put("params", finalParams);
+        request.put("trace", trace.envelope());
+
+        byte[] requestBytes;
+        if (connection.binaryEncoding) {
+            requestBytes = CompactCodec.encode(request);
+            Log.d(TAG, "Request size: " + requestBytes.length + " bytes (binary)");
+        } else {
+            String requestStr = request.toString();
+            Log.d(TAG, "Full request JSON: " + requestStr);
+            Log.d(TAG, "Request size: " + requestStr.length() + " chars");
+            requestBytes = requestStr.getBytes(StandardCharsets.UTF_8);
+        }
 
-                    Log.d(TAG, "Encrypted size: " + encryptedRequest.length() + " chars");
+        // Compress before encrypting once the server has agreed to it
+        int minSize = connection.compressMinSize;
+        if (minSize >= 0 && requestBytes.length >= minSize) {
+            byte[] compressed = compressor.compress(requestBytes);
+            if (compressed != null) {
+                Log.d(TAG, "Request compressed " + requestBytes.length + " -> " + compressed.length + " bytes");
+                requestBytes = compressed;
+            }
+        }
 
-                    // Send encrypted request with newline
-                    out.println(encryptedRequest);
-                    out.flush();
+        // Encrypt with AES
+        return encryptAES(requestBytes);
+    }
 
-                    Log.d(TAG, "Request sent, waiting for response...");
+    /**
+     * Remember versioned GET_DATA replies and expand "not_modified" into the cached copy.
+     */
+    private JSONObject applyStudentDataCache(JSONObject reply) throws Exception {
+        String status = reply.optString("status");
+
+        if (status.equals("success")) {
+            responseCache.putStudentData(currentUsername, reply);
+        } else if (status.equals("not_modified")) {
+            JSONObject cached = responseCache.revalidatedStudentData(currentUsername);
+            if (cached != null) {
+                Log.d(TAG, "✅ GET_DATA not modified, using cached record");
+                return cached;
+            }
+            // Cache was cleared in the meantime; drop the tag and fetch in full
+            JSONObject params = new JSONObject();
+            params.put("if_version", "");
+            Object full = executeRequest("GET_DATA", params, System.nanoTime());
+            return full instanceof JSONObject ? (JSONObject) full : new JSONObject(full.toString());
+        }
+        return reply;
+    }
 
-                    // Read response with timeout
-                    socket.setSoTimeout(10000); // 10 second timeout
-                    String response = in.readLine();
+    private static JSONObject parsePayload(byte[] plainBytes) throws Exception {
+        return CompactCodec.isBinary(plainBytes)
+                ? CompactCodec.decode(plainBytes)
+                : new JSONObject(new String(plainBytes, StandardCharsets.UTF_8));
+    }
 
-                    Log.d(TAG, "Raw response received, length: " + (response != null ? response.length() : 0));
+    /**
+     * Decrypt a response frame and undo compression. Returns null if decryption fails.
+     */
+    private byte[] openPayload(String command, String frame) throws IOException {
+        byte[] plainBytes = decryptAESBytes(frame);
+        if (plainBytes == null) {
+            return null;
+        }
+        int wireSize = plainBytes.length;
+        if (PayloadCompressor.isCompressed(plainBytes)) {
+            plainBytes = compressor.decompress(plainBytes);
+        }
+        compressor.record(command, plainBytes.length, wireSize);
+        return plainBytes;
+    }
 
-                    if (response == null || response.isEmpty()) {
-                        Log.e(TAG, "❌ No response from server");
-                        return "{\"status\":\"error\",\"message\":\"No response from server\"}";
+    /**
+     * Send one request and feed the outcome into the endpoint's health and load figures.
+     */
+    private String callTracked(ClientConnection connection, String encryptedRequest) throws IOException {
+        ServerPool.Endpoint endpoint = connection.endpoint;
+        long started = SystemClock.elapsedRealtime();
+        endpoint.outstanding.incrementAndGet();
+        try {
+            String response = connection.call(encryptedRequest, RESPONSE_TIMEOUT_MS);
+            endpoint.recordSuccess(SystemClock.elapsedRealtime() - started);
+            return response;
+        } catch (IOException e) {
+            if (!connection.networkChanged && endpoint.recordFailure()) {
+                // Out of rotation: move later requests to another instance
+                synchronized (connectionLock) {
+                    if (this.connection == connection) {
+                        closeConnection();
                     }
+                }
+            }
+            throw e;
+        } finally {
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
 
-                    // Try to decrypt with AES
-                    String decrypted = decryptAES(response);
-                    if (decrypted != null) {
-                        Log.d(TAG, "✅ Response decrypted successfully");
-                        Log.d(TAG, "Decrypted response: " + decrypted);
-                        return decrypted;
-                    } else {
-                        Log.e(TAG, "❌ AES decryption failed, trying as plain text");
-                        // Check if it might be JSON already
-                        if (response.trim().startsWith("{")) {
-                            return response;
-                        } else {
-                            return "{\"status\":\"error\",\"message\":\"Failed to decrypt response: " + response.substring(0, Math.min(50, response.length())) + "...\"}";
+    private ClientConnection obtainConnection() throws IOException {
+        return obtainConnection(null);
+    }
+
+    /**
+     * Shared connection, opening one if needed. A new connection tries each endpoint the
+     * pool offers until one accepts, starting away from the endpoint of the failed one.
+     */
+    private ClientConnection obtainConnection(ClientConnection failed) throws IOException {
+        synchronized (connectionLock) {
+            if (connection != null && connection.isOpen() && connection != failed) {
+                connection.wasUsed = true;
+                subscribeIfWanted(connection);
+                return connection;
+            }
+            closeConnection();
+            if (!isNetworkAvailable()) {
+                throw new IOException("No network connection");
+            }
+
+            ServerPool pool = serverPool;
+            ServerPool.Endpoint endpoint = failed != null ? failed.endpoint : null;
+            IOException lastError = null;
+            for (int attempt = 0; attempt < pool.size() && connection == null; attempt++) {
+                endpoint = pool.pick(endpoint);
+                Log.d(TAG, "Opening connection to " + endpoint);
+                try {
+                    connection = ClientConnection.open(endpoint.host, endpoint.port, CONNECT_TIMEOUT_MS);
+                    connection.endpoint = endpoint;
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not connect to " + endpoint + ": " + e.getMessage());
+                    endpoint.recordFailure();
+                    lastError = e;
+                }
+            }
+            if (connection == null) {
+                throw lastError;
+            }
+            if (pool.isSticky()) {
+                // Failed over while signed in; the new instance now holds the session
+                pool.stick(endpoint);
+            }
+            connection.setEventListener(new ClientConnection.EventListener() {
+                @Override
+                public void onEvent(String payload) {
+                    handleEvent(payload);
+                }
+            });
+            negotiate(connection);
+            resume(connection);
+            subscribeIfWanted(connection);
+            return connection;
+        }
+    }
+
+    /**
+     * Offer compression and the binary encoding on a fresh connection. The HELLO is
+     * pipelined ahead of the first real request, so negotiation costs no extra round
+     * trip; requests switch format once the reply arrives, while responses are
+     * self-describing.
+     */
+    private void negotiate(final ClientConnection connection) {
+        try {
+            JSONObject params = new JSONObject();
+            params.put("compression", new JSONArray().put("deflate"));
+            params.put("min_size", PayloadCompressor.DEFAULT_MIN_SIZE);
+            if (binaryEncodingEnabled) {
+                params.put("encoding", new JSONArray().put("binary"));
+            }
+            JSONObject hello = new JSONObject();
+            hello.put("command", "HELLO");
+            hello.put("params", params);
+
+            String encrypted = encryptAES(hello.toString());
+            if (encrypted == null) {
+                return;
+            }
+            connection.send(encrypted, new ClientConnection.ResponseListener() {
+                @Override
+                public void onResponse(String payload) {
+                    try {
+                        byte[] plainBytes = openPayload("HELLO", payload);
+                        if (plainBytes == null) {
+                            return;
+                        }
+                        JSONObject data = parsePayload(plainBytes).optJSONObject("data");
+                        if (data == null) {
+                            return;
                         }
+                        if ("deflate".equals(data.optString("compression"))) {
+                            connection.compressMinSize = data.optInt("min_size", PayloadCompressor.DEFAULT_MIN_SIZE);
+                            Log.d(TAG, "Compression negotiated, min size " + connection.compressMinSize);
+                        }
+                        if ("binary".equals(data.optString("encoding"))) {
+                            connection.binaryEncoding = true;
+                            Log.d(TAG, "Binary encoding negotiated");
+                        }
+                    } catch (Exception e) {
+                        Log.w(TAG, "Ignoring bad HELLO reply: " + e.getMessage());
                     }
+                }
 
-                } catch (SocketTimeoutException e) {
-                    Log.e(TAG, "❌ Socket timeout: " + e.getMessage());
-                    return "{\"status\":\"error\",\"message\":\"Connection timeout\"}";
-                } catch (Exception e) {
-                    Log.e(TAG, "❌ Request error: " + e.getMessage());
-                    e.printStackTrace();
-                    return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
+                @Override
+                public void onFailure(IOException error) {
+                    Log.w(TAG, "HELLO failed: " + error.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not negotiate connection options: " + e.getMessage());
+        }
+    }
 
-                } finally {
+    /**
+     * Sign a fresh connection in as the current user with the token from LOGIN. Pipelined
+     * like the HELLO; the server handles a connection's frames in order, so the requests
+     * behind it already run signed in. Called with connectionLock held.
+     */
+    private void resume(final ClientConnection connection) {
+        final String token = sessionToken;
+        final String user = sessionUser;
+        if (token == null || user == null || !user.equals(currentUsername)) {
+            return;
+        }
+        try {
+            JSONObject params = new JSONObject();
+            params.put("session_token", token);
+            JSONObject request = new JSONObject();
+            request.put("command", "RESUME");
+            request.put("params", params);
+
+            String encrypted = encryptAES(request.toString());
+            if (encrypted == null) {
+                return;
+            }
+            connection.authenticatedUser = user;
+            connection.send(encrypted, new ClientConnection.ResponseListener() {
+                @Override
+                public void onResponse(String payload) {
                     try {
-                        if (out != null) out.close();
-                        if (in != null) in.close();
-                        if (socket != null) socket.close();
-                        Log.d(TAG, "=== REQUEST COMPLETE ===");
+                        byte[] plainBytes = openPayload("RESUME", payload);
+                        JSONObject reply = plainBytes != null ? parsePayload(plainBytes) : null;
+                        if (reply != null && "success".equals(reply.optString("status"))) {
+                            Log.d(TAG, "Session resumed as " + user);
+                            return;
+                        }
+                        Log.w(TAG, "RESUME rejected, sign in again");
+                        connection.authenticatedUser = null;
+                        if (token.equals(sessionToken)) {
+                            sessionToken = null;
+                        }
                     } catch (Exception e) {
-                        Log.e(TAG, "Error closing resources: " + e.getMessage());
+                        Log.w(TAG, "Ignoring bad RESUME reply: " + e.getMessage());
                     }
                 }
-            }
 
+                @Override
+                public void onFailure(IOException error) {
+                    Log.w(TAG, "RESUME failed: " + error.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not resume session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receive pushed request status changes instead of polling GET_REQUESTS. The cached
+     * request list is patched in place, so GET_REQUESTS is answered locally while the
+     * subscription holds.
+     */
+    public void subscribeRequestEvents(RequestEventListener listener) {
+        requestEventListeners.addIfAbsent(listener);
+        dispatcher.submit(RequestDispatcher.Priority.BACKGROUND, new Callable<Void>() {
             @Override
-            protected void onPostExecute(String result) {
-                callback.onResponse(result);
+            public Void call() throws IOException {
+                // Opening (or reusing) the connection sends SUBSCRIBE if needed
+                obtainConnection();
+                return null;
+            }
+        }, new RequestDispatcher.ResultHandler<Void>() {
+            @Override
+            public void onResult(Void result) {
+            }
+        });
+    }
+
+    public void unsubscribeRequestEvents(RequestEventListener listener) {
+        requestEventListeners.remove(listener);
+    }
+
+    /**
+     * Pipeline a SUBSCRIBE on the connection once someone is listening. Called with
+     * connectionLock held.
+     *
+     * The server only subscribes the user signed in on the connection, so a connection
+     * that has not logged in or resumed as the current user waits for its LOGIN; until
+     * then GET_REQUESTS goes to the server as usual.
+     */
+    private void subscribeIfWanted(final ClientConnection connection) {
+        if (connection.subscribeSent || requestEventListeners.isEmpty()
+                || currentUsername == null || currentUsername.isEmpty()
+                || !currentUsername.equals(connection.authenticatedUser)) {
+            return;
+        }
+        try {
+            JSONObject params = new JSONObject();
+            final long since = lastEventId;
+            if (since > 0) {
+                params.put("since", since);
+            }
+            JSONObject subscribe = new JSONObject();
+            subscribe.put("command", "SUBSCRIBE");
+            subscribe.put("params", params);
+
+            String encrypted = encryptAES(subscribe.toString());
+            if (encrypted == null) {
+                return;
+            }
+            connection.subscribeSent = true;
+            connection.send(encrypted, new ClientConnection.ResponseListener() {
+                @Override
+                public void onResponse(String payload) {
+                    try {
+                        byte[] plainBytes = openPayload("SUBSCRIBE", payload);
+                        JSONObject reply = plainBytes != null ? parsePayload(plainBytes) : null;
+                        if (reply != null && "overloaded".equals(reply.optString("status"))) {
+                            // Shed, not refused; the next request on this connection tries again
+                            connection.subscribeSent = false;
+                            return;
+                        }
+                        if (reply == null || !"success".equals(reply.optString("status"))) {
+                            Log.w(TAG, "SUBSCRIBE rejected");
+                            return;
+                        }
+                        if (since <= 0) {
+                            // No replay to catch up with; the cached list may predate the baseline
+                            responseCache.invalidateRequests();
+                        }
+                        long latest = reply.getJSONObject("data").optLong("event_id");
+                        if (latest > lastEventId) {
+                            lastEventId = latest;
+                        }
+                        connection.subscribed = true;
+                        Log.d(TAG, "Subscribed to request events (event id " + lastEventId + ")");
+                    } catch (Exception e) {
+                        Log.w(TAG, "Ignoring bad SUBSCRIBE reply: " + e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onFailure(IOException error) {
+                    Log.w(TAG, "SUBSCRIBE failed: " + error.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Could not subscribe to request events: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs on the connection's reader thread for every pushed frame.
+     */
+    private void handleEvent(String payload) {
+        try {
+            byte[] plainBytes = openPayload("EVENT", payload);
+            if (plainBytes == null) {
+                return;
+            }
+            JSONObject event = parsePayload(plainBytes);
+            if (!"request_status".equals(event.optString("type"))) {
+                Log.d(TAG, "Ignoring event of type " + event.optString("type"));
+                return;
+            }
+            JSONObject data = event.getJSONObject("data");
+            long eventId = data.getLong("event_id");
+            if (eventId <= lastEventId) {
+                return;
             }
-        }.execute();
+            lastEventId = eventId;
+
+            final int requestId = data.getInt("request_id");
+            final String status = data.getString("status");
+            boolean patched = responseCache.patchRequestStatus(requestId, status);
+            Log.d(TAG, "Request " + requestId + " is now " + status + (patched ? " (cache patched)" : ""));
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (RequestEventListener listener : requestEventListeners) {
+                        listener.onRequestStatusChanged(requestId, status);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            Log.w(TAG, "Ignoring bad event: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Search the signed-in user's request history locally, e.g. "heater status:pending
+     * from:2024-01-01". Cheap enough to call on every keystroke from the main thread.
+     */
+    public List<JSONObject> searchRequests(String text) {
+        return responseCache.searchRequests(currentUsername, RequestIndex.Query.parse(text));
+    }
+
+    public int getIndexedRequestCount() {
+        return responseCache.getIndexedRequestCount(currentUsername);
+    }
+
+    /**
+     * Per-command compression ratios observed on responses.
+     */
+    public String getCompressionStats() {
+        return compressor.describe();
+    }
+
+    private void closeConnection() {
+        synchronized (connectionLock) {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Close the shared connection because of a network change. Returns false if there was none.
+     */
+    private boolean dropConnection() {
+        synchronized (connectionLock) {
+            if (connection == null) {
+                return false;
+            }
+            Log.d(TAG, "📶 Network changed, dropping connection to " + connection.endpoint);
+            connection.networkChanged = true;
+            closeConnection();
+            return true;
+        }
+    }
+
+    private static boolean isIdempotent(String command) {
+        return command.equals("GET_DATA") || command.equals("GET_REQUESTS") || command.equals("HELP");
     }
 
     public void setServerAddress(String ip, int port) {
-        this.serverIp = ip;
-        this.serverPort = port;
-        Log.d(TAG, "Server address set to: " + ip + ":" + port);
+        setServerEndpoints(ip + ":" + port);
+    }
+
+    /**
+     * Spread connections over several server instances, given as "host:port".
+     */
+    public void setServerEndpoints(String... endpoints) {
+        ServerPool pool = ServerPool.of(endpoints);
+        synchronized (connectionLock) {
+            closeConnection();
+            serverPool = pool;
+        }
+        Log.d(TAG, "Server endpoints set to: " + java.util.Arrays.toString(endpoints));
+    }
+
+    /**
+     * Health, load and latency of each server endpoint.
+     */
+    public String getEndpointStats() {
+        return serverPool.describe();
+    }
+
+    private void recordTrace(RequestTrace trace) {
+        Log.d(TAG, "⏱ " + trace);
+        synchronized (recentTraces) {
+            recentTraces.addLast(trace);
+            if (recentTraces.size() > MAX_RECENT_TRACES) {
+                recentTraces.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Time breakdown of the most recent requests, one line each, newest last: client
+     * phases, the server's stages, and what the network took. For "the dashboard is
+     * slow" reports.
+     */
+    public String getRecentTraces() {
+        StringBuilder out = new StringBuilder();
+        synchronized (recentTraces) {
+            for (RequestTrace trace : recentTraces) {
+                out.append(trace).append('\n');
+            }
+        }
+        return out.toString();
     }
 }
\ No newline at end of file
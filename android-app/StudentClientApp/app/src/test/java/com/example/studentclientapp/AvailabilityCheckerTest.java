@@ -0,0 +1,160 @@
+package com.example.studentclientapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Debounce and answer cache, with the Handler, the clock and the server replaced.
+ */
+public class AvailabilityCheckerTest {
+    private FakeClock clock;
+    private FakeScheduler scheduler;
+    private AvailabilityChecker checker;
+    // "field=value" of every check that went to the server
+    private final List<String> sent = new ArrayList<>();
+    // "field=value:available" of every answer given to the listener
+    private final List<String> answers = new ArrayList<>();
+    private final AvailabilityChecker.Listener listener = new AvailabilityChecker.Listener() {
+        @Override
+        public void onAvailability(String field, String value, boolean available) {
+            answers.add(field + "=" + value + ":" + available);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        scheduler = new FakeScheduler();
+        checker = new AvailabilityChecker(scheduler, clock) {
+            @Override
+            void send(String field, String value, Listener listener) {
+                sent.add(field + "=" + value);
+            }
+        };
+    }
+
+    @Test
+    public void onlyTheLastValueTypedIsSent() {
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "a", listener);
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "al", listener);
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "ali", listener);
+        assertEquals(1, scheduler.pending.size());
+        assertEquals(Long.valueOf(AvailabilityChecker.DEBOUNCE_MS), scheduler.pending.values().iterator().next());
+
+        scheduler.runPending();
+        assertEquals(Arrays.asList("username=ali"), sent);
+    }
+
+    @Test
+    public void fieldsAreDebouncedSeparately() {
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "alice", listener);
+        checker.check(AvailabilityChecker.FIELD_EMAIL, "a@example.com", listener);
+        scheduler.runPending();
+        assertEquals(Arrays.asList("username=alice", "email=a@example.com"), sent);
+    }
+
+    @Test
+    public void clearingTheFieldCancelsItsCheck() {
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "alice", listener);
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "", listener);
+        assertTrue(scheduler.pending.isEmpty());
+        scheduler.runPending();
+        assertEquals(Arrays.asList(), sent);
+    }
+
+    @Test
+    public void cachedAnswersComeBackWithoutAServerCheck() {
+        checker.record(AvailabilityChecker.FIELD_USERNAME, "alice", false);
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "alice", listener);
+        assertEquals(Arrays.asList("username=alice:false"), answers);
+        assertTrue(scheduler.pending.isEmpty());
+        assertEquals(Arrays.asList(), sent);
+    }
+
+    @Test
+    public void freeAnswersExpireBeforeTakenOnes() {
+        checker.record(AvailabilityChecker.FIELD_USERNAME, "free", true);
+        checker.record(AvailabilityChecker.FIELD_USERNAME, "taken", false);
+
+        clock.advance(AvailabilityChecker.FREE_TTL_MS - 1);
+        assertEquals(Boolean.TRUE, checker.getCached(AvailabilityChecker.FIELD_USERNAME, "free"));
+        clock.advance(1);
+        assertNull(checker.getCached(AvailabilityChecker.FIELD_USERNAME, "free"));
+        assertEquals(Boolean.FALSE, checker.getCached(AvailabilityChecker.FIELD_USERNAME, "taken"));
+
+        clock.advance(AvailabilityChecker.TAKEN_TTL_MS - AvailabilityChecker.FREE_TTL_MS);
+        assertNull(checker.getCached(AvailabilityChecker.FIELD_USERNAME, "taken"));
+
+        // Expired: asked again
+        checker.check(AvailabilityChecker.FIELD_USERNAME, "taken", listener);
+        scheduler.runPending();
+        assertEquals(Arrays.asList("username=taken"), sent);
+    }
+
+    @Test
+    public void registrationErrorsMarkValuesTaken() {
+        checker.recordRegistrationError("alice", "a@example.com", "Username already exists");
+        checker.recordRegistrationError("bob", "b@example.com", "Email already registered");
+        checker.recordRegistrationError("carol", "c@example.com", "Registration error: disk full");
+        checker.recordRegistrationError("dave", "d@example.com", null);
+
+        assertEquals(Boolean.FALSE, checker.getCached(AvailabilityChecker.FIELD_USERNAME, "alice"));
+        assertNull(checker.getCached(AvailabilityChecker.FIELD_EMAIL, "a@example.com"));
+        assertEquals(Boolean.FALSE, checker.getCached(AvailabilityChecker.FIELD_EMAIL, "b@example.com"));
+        assertNull(checker.getCached(AvailabilityChecker.FIELD_USERNAME, "carol"));
+        assertNull(checker.getCached(AvailabilityChecker.FIELD_USERNAME, "dave"));
+    }
+
+    @Test
+    public void fullCacheDropsExpiredEntriesFirst() {
+        checker.record(AvailabilityChecker.FIELD_USERNAME, "taken", false);
+        for (int i = 1; i < AvailabilityChecker.MAX_ENTRIES; i++) {
+            checker.record(AvailabilityChecker.FIELD_USERNAME, "free" + i, true);
+        }
+        clock.advance(AvailabilityChecker.FREE_TTL_MS);
+        checker.record(AvailabilityChecker.FIELD_USERNAME, "new", true);
+        assertEquals(Boolean.FALSE, checker.getCached(AvailabilityChecker.FIELD_USERNAME, "taken"));
+        assertEquals(Boolean.TRUE, checker.getCached(AvailabilityChecker.FIELD_USERNAME, "new"));
+    }
+
+    @Test
+    public void fullCacheWithNothingExpiredStartsOver() {
+        for (int i = 0; i < AvailabilityChecker.MAX_ENTRIES; i++) {
+            checker.record(AvailabilityChecker.FIELD_USERNAME, "taken" + i, false);
+        }
+        checker.record(AvailabilityChecker.FIELD_USERNAME, "new", true);
+        assertNull(checker.getCached(AvailabilityChecker.FIELD_USERNAME, "taken0"));
+        assertEquals(Boolean.TRUE, checker.getCached(AvailabilityChecker.FIELD_USERNAME, "new"));
+    }
+
+    private static class FakeScheduler implements AvailabilityChecker.Scheduler {
+        // Posted task -> its delay, in posting order
+        final Map<Runnable, Long> pending = new LinkedHashMap<>();
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            pending.put(task, delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            pending.remove(task);
+        }
+
+        void runPending() {
+            List<Runnable> tasks = new ArrayList<>(pending.keySet());
+            pending.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+}
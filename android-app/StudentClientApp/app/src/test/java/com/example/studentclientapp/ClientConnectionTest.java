@@ -0,0 +1,186 @@
+package com.example.studentclientapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pipelining over a loopback socket; the test plays the server and writes raw frames.
+ */
+public class ClientConnectionTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private ServerSocket listener;
+    private ClientConnection connection;
+    private Socket server;
+    private BufferedReader serverIn;
+    private OutputStream serverOut;
+
+    @Before
+    public void setUp() throws Exception {
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        connection = ClientConnection.open(listener.getInetAddress().getHostAddress(),
+                listener.getLocalPort(), (int) TIMEOUT_MS);
+        server = listener.accept();
+        server.setSoTimeout((int) TIMEOUT_MS);
+        serverIn = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+        serverOut = server.getOutputStream();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.close();
+        server.close();
+        listener.close();
+    }
+
+    @Test
+    public void requestsAreWrittenWithoutWaitingForReplies() throws Exception {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        connection.send("first", first);
+        connection.send("second", second);
+
+        assertEquals("1:first", serverIn.readLine());
+        assertEquals("2:second", serverIn.readLine());
+
+        // Replies in the other order still reach their own caller
+        reply("2:done second");
+        reply("1:done first");
+        assertEquals("done first", first.await());
+        assertEquals("done second", second.await());
+    }
+
+    @Test
+    public void callBlocksForItsOwnReply() throws Exception {
+        final BlockingQueue<Object> result = new LinkedBlockingQueue<>();
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.add(connection.call("ping", TIMEOUT_MS));
+                } catch (IOException e) {
+                    result.add(e);
+                }
+            }
+        });
+        caller.start();
+
+        assertEquals("1:ping", serverIn.readLine());
+        // Unknown ids and untagged frames are dropped, not handed to the caller
+        reply("7:stray");
+        reply("no tag");
+        reply("1:pong");
+        assertEquals("pong", result.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        caller.join(TIMEOUT_MS);
+    }
+
+    @Test
+    public void pushFramesGoToTheEventListener() throws Exception {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        connection.setEventListener(new ClientConnection.EventListener() {
+            @Override
+            public void onEvent(String payload) {
+                events.add(payload);
+            }
+        });
+        RecordingListener call = new RecordingListener();
+        connection.send("request", call);
+        serverIn.readLine();
+
+        reply(ClientConnection.PUSH_MESSAGE_ID + ":event");
+        reply("1:reply");
+        assertEquals("event", events.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("reply", call.await());
+    }
+
+    @Test
+    public void serverClosingFailsEveryPendingCall() throws Exception {
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        connection.send("first", first);
+        connection.send("second", second);
+        serverIn.readLine();
+        serverIn.readLine();
+
+        server.close();
+        assertTrue(first.awaitResult() instanceof IOException);
+        assertTrue(second.awaitResult() instanceof IOException);
+        assertFalse(connection.isOpen());
+
+        try {
+            connection.send("late", new RecordingListener());
+            fail("Wrote to a closed connection");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void callTimesOutWhenNoReplyComes() throws Exception {
+        try {
+            connection.call("ping", 50);
+            fail("No reply, yet call returned");
+        } catch (SocketTimeoutException expected) {
+        }
+        // A reply arriving after the timeout is dropped; the connection stays usable
+        reply("1:too late");
+        RecordingListener next = new RecordingListener();
+        connection.send("again", next);
+        assertEquals("1:ping", serverIn.readLine());
+        assertEquals("2:again", serverIn.readLine());
+        reply("2:ok");
+        assertEquals("ok", next.await());
+    }
+
+    private void reply(String frame) throws IOException {
+        serverOut.write((frame + "\n").getBytes(StandardCharsets.UTF_8));
+        serverOut.flush();
+    }
+
+    private static class RecordingListener implements ClientConnection.ResponseListener {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<Object> results = new ArrayList<>();
+
+        @Override
+        public synchronized void onResponse(String payload) {
+            results.add(payload);
+            done.countDown();
+        }
+
+        @Override
+        public synchronized void onFailure(IOException error) {
+            results.add(error);
+            done.countDown();
+        }
+
+        Object awaitResult() throws InterruptedException {
+            assertTrue("No result", done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            synchronized (this) {
+                assertEquals(1, results.size());
+                return results.get(0);
+            }
+        }
+
+        String await() throws InterruptedException {
+            return (String) awaitResult();
+        }
+    }
+}
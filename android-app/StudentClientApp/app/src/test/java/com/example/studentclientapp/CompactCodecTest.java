@@ -0,0 +1,96 @@
+package com.example.studentclientapp;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * CompactCodec against codec_fixtures.json, which server/tests/test_codec.py checks
+ * server/codec.py against too, so both ends agree on every byte.
+ */
+public class CompactCodecTest {
+
+    @Test
+    public void decodesServerBytes() throws Exception {
+        JSONArray fixtures = loadFixtures();
+        for (int i = 0; i < fixtures.length(); i++) {
+            JSONObject fixture = fixtures.getJSONObject(i);
+            JSONObject decoded = CompactCodec.decode(fromHex(fixture.getString("hex")));
+            assertEquals(fixture.getString("name"), fixture.getJSONObject("value").toString(), decoded.toString());
+        }
+    }
+
+    @Test
+    public void encodesServerBytes() throws Exception {
+        // Objects keep the fixture's key order, as Android's org.json does, so the bytes
+        // must match exactly
+        JSONArray fixtures = loadFixtures();
+        for (int i = 0; i < fixtures.length(); i++) {
+            JSONObject fixture = fixtures.getJSONObject(i);
+            byte[] encoded = CompactCodec.encode(fixture.getJSONObject("value"));
+            assertEquals(fixture.getString("name"), fixture.getString("hex"), toHex(encoded));
+        }
+    }
+
+    @Test
+    public void isBinaryLooksAtTheMarkerOnly() throws Exception {
+        assertTrue(CompactCodec.isBinary(CompactCodec.encode(new JSONObject())));
+        assertFalse(CompactCodec.isBinary("{}".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(CompactCodec.isBinary(new byte[0]));
+    }
+
+    @Test
+    public void rejectsMalformedPayloads() throws Exception {
+        byte[] valid = CompactCodec.encode(new JSONObject().put("status", "success"));
+        byte[] wrongVersion = valid.clone();
+        wrongVersion[1] = 2;
+        byte[] trailing = Arrays.copyOf(valid, valid.length + 1);
+        byte[][] malformed = {
+                new byte[0],
+                "{}".getBytes(StandardCharsets.UTF_8),
+                wrongVersion,
+                trailing,
+                // Object with one field under an unknown tag
+                {CompactCodec.BINARY_MARKER, CompactCodec.SCHEMA_VERSION, 6, 1, 99, 0},
+                // String longer than the payload
+                {CompactCodec.BINARY_MARKER, CompactCodec.SCHEMA_VERSION, 6, 1, 3, 5, 40, 'a'},
+        };
+        for (byte[] data : malformed) {
+            try {
+                CompactCodec.decode(data);
+                fail("Decoded " + toHex(data));
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    private static JSONArray loadFixtures() throws Exception {
+        try (InputStream in = CompactCodecTest.class.getResourceAsStream("/codec_fixtures.json")) {
+            assertNotNull("codec_fixtures.json missing from test resources", in);
+            return new JSONArray(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.studentclientapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Clock that only moves when told to; sleep() moves it and records the wait.
+ */
+class FakeClock implements Clock {
+    final List<Long> sleeps = new ArrayList<>();
+    private long now = 1000;
+
+    @Override
+    public synchronized long elapsedRealtime() {
+        return now;
+    }
+
+    @Override
+    public synchronized void sleep(long ms) {
+        sleeps.add(ms);
+        now += ms;
+    }
+
+    synchronized void advance(long ms) {
+        now += ms;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.studentclientapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Which default-network reports reach the listener. Networks are strings here; the
+ * capability checks need the framework and are not covered.
+ */
+public class NetworkMonitorTest {
+    private NetworkMonitor.DefaultNetwork<String> state;
+
+    @Before
+    public void setUp() {
+        state = new NetworkMonitor.DefaultNetwork<>();
+        state.reset("wifi", true);
+    }
+
+    @Test
+    public void repeatedReportsChangeNothing() {
+        // registerDefaultNetworkCallback calls back with the current default at once
+        assertEquals(NetworkMonitor.Change.NONE, state.update("wifi", true));
+        assertEquals(NetworkMonitor.Change.NONE, state.update("wifi", true));
+        assertTrue(state.isUsable());
+    }
+
+    @Test
+    public void handoverIsANewNetwork() {
+        assertEquals(NetworkMonitor.Change.AVAILABLE, state.update("mobile", true));
+        assertTrue(state.isUsable());
+        // The old network going away afterwards is not news
+        assertEquals(NetworkMonitor.Change.NONE, state.lost("wifi"));
+        assertTrue(state.isUsable());
+    }
+
+    @Test
+    public void losingTheDefaultGoesOffline() {
+        assertEquals(NetworkMonitor.Change.UNAVAILABLE, state.lost("wifi"));
+        assertFalse(state.isUsable());
+        assertEquals(NetworkMonitor.Change.NONE, state.lost("wifi"));
+        assertEquals(NetworkMonitor.Change.NONE, state.update(null, false));
+
+        // Airplane mode off: the same network again is still worth reconnecting on
+        assertEquals(NetworkMonitor.Change.AVAILABLE, state.update("wifi", true));
+    }
+
+    @Test
+    public void captivePortalComesAndGoes() {
+        assertEquals(NetworkMonitor.Change.UNAVAILABLE, state.update("wifi", false));
+        assertFalse(state.isUsable());
+        assertEquals(NetworkMonitor.Change.NONE, state.update("wifi", false));
+        assertEquals(NetworkMonitor.Change.AVAILABLE, state.update("wifi", true));
+    }
+
+    @Test
+    public void unusableNewNetworkIsNotAnnouncedUntilUsable() {
+        state.reset(null, false);
+        assertEquals(NetworkMonitor.Change.NONE, state.update("hotel-wifi", false));
+        assertEquals(NetworkMonitor.Change.AVAILABLE, state.update("hotel-wifi", true));
+    }
+
+    @Test
+    public void movingToAnUnusableNetworkGoesOffline() {
+        assertEquals(NetworkMonitor.Change.UNAVAILABLE, state.update("hotel-wifi", false));
+        // The previous default is gone already
+        assertEquals(NetworkMonitor.Change.NONE, state.lost("wifi"));
+        assertFalse(state.isUsable());
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.studentclientapp;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static org.junit.Assert.*;
+
+public class OverloadBackoffTest {
+    private static final String SUCCESS = "{\"status\":\"success\"}";
+
+    private FakeClock clock;
+    private OverloadBackoff backoff;
+    // Replies the fake server gives, in order; the last one repeats
+    private Deque<Object> replies;
+    private int attempts;
+
+    private final OverloadBackoff.Attempt attempt = new OverloadBackoff.Attempt() {
+        @Override
+        public Object send() {
+            attempts++;
+            return replies.size() > 1 ? replies.poll() : replies.peek();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        backoff = new OverloadBackoff(clock);
+        replies = new ArrayDeque<>();
+        attempts = 0;
+    }
+
+    @Test
+    public void otherRepliesAreReturnedAsIs() {
+        replies.add(SUCCESS);
+        assertEquals(SUCCESS, backoff.run("GET_DATA", attempt));
+        assertEquals(1, attempts);
+        assertEquals(Arrays.asList(), clock.sleeps);
+    }
+
+    @Test
+    public void retriesAfterTheServersHint() throws Exception {
+        replies.add(overloaded(200));
+        replies.add(SUCCESS);
+        assertEquals(SUCCESS, backoff.run("SUBMIT_REQUEST", attempt));
+        assertEquals(2, attempts);
+        assertEquals(Arrays.asList(200L), clock.sleeps);
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        replies.add(overloaded(100).toString());
+        String result = backoff.run("GET_DATA", attempt).toString();
+        assertEquals(OverloadBackoff.MAX_RETRIES + 1, attempts);
+        assertEquals(Arrays.asList(100L, 100L), clock.sleeps);
+        assertEquals("error", new JSONObject(result).getString("status"));
+        assertTrue(result, result.contains("try again in 1 s"));
+    }
+
+    @Test
+    public void longHintsAreNotWaitedOut() throws Exception {
+        replies.add(overloaded(OverloadBackoff.MAX_WAIT_MS + 2000));
+        String result = backoff.run("GET_DATA", attempt).toString();
+        assertEquals(1, attempts);
+        assertEquals(Arrays.asList(), clock.sleeps);
+        assertTrue(result, result.contains("try again in 5 s"));
+    }
+
+    @Test
+    public void laterRequestsHoldBackUntilTheHintPasses() throws Exception {
+        replies.add(overloaded(5000));
+        backoff.run("GET_DATA", attempt);
+
+        clock.advance(1000);
+        replies.clear();
+        replies.add(SUCCESS);
+        assertEquals(SUCCESS, backoff.run("GET_REQUESTS", attempt));
+        assertEquals(Arrays.asList(4000L), clock.sleeps);
+
+        // Once it is over nobody waits
+        assertEquals(SUCCESS, backoff.run("GET_REQUESTS", attempt));
+        assertEquals(Arrays.asList(4000L), clock.sleeps);
+    }
+
+    @Test
+    public void retryAfterReadsOnlyOverloadedReplies() throws Exception {
+        assertEquals(250, OverloadBackoff.retryAfter(overloaded(250)));
+        assertEquals(250, OverloadBackoff.retryAfter(overloaded(250).toString()));
+        assertEquals(OverloadBackoff.DEFAULT_RETRY_AFTER_MS,
+                OverloadBackoff.retryAfter(new JSONObject().put("status", "overloaded")));
+        assertEquals(1, OverloadBackoff.retryAfter(overloaded(0)));
+
+        assertEquals(-1, OverloadBackoff.retryAfter(null));
+        assertEquals(-1, OverloadBackoff.retryAfter(SUCCESS));
+        assertEquals(-1, OverloadBackoff.retryAfter("overloaded, but not JSON"));
+        assertEquals(-1, OverloadBackoff.retryAfter(
+                new JSONObject().put("status", "error").put("message", "overloaded")));
+    }
+
+    private static JSONObject overloaded(long retryAfterMs) throws Exception {
+        return new JSONObject()
+                .put("status", "overloaded")
+                .put("data", new JSONObject().put("retry_after_ms", retryAfterMs));
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.studentclientapp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lane ordering on real threads. Results are delivered on the calling worker instead of
+ * the main thread, and the yield cap is shortened so the tests stay quick.
+ */
+public class RequestDispatcherTest {
+    // Long enough that no test hits it unless it means to
+    private static final long NO_CAP_MS = 10000;
+    private static final long SHORT_CAP_MS = 200;
+    // How long to watch for something that must not happen
+    private static final long QUIET_MS = 200;
+
+    private static final Clock REAL_TIME = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1000000;
+        }
+
+        @Override
+        public void sleep(long ms) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private final CountDownLatch releaseInteractive = new CountDownLatch(1);
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        releaseInteractive.countDown();
+    }
+
+    @Test
+    public void backgroundWaitsForInteractiveWork() throws Exception {
+        RequestDispatcher dispatcher = dispatcher(NO_CAP_MS);
+        CountDownLatch interactiveStarted = new CountDownLatch(1);
+        dispatcher.submit(RequestDispatcher.Priority.INTERACTIVE, () -> {
+            interactiveStarted.countDown();
+            releaseInteractive.await();
+            order.add("interactive");
+            return null;
+        }, result -> {});
+        assertTrue(interactiveStarted.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch backgroundDone = new CountDownLatch(1);
+        dispatcher.submit(RequestDispatcher.Priority.BACKGROUND, () -> {
+            order.add("background");
+            return null;
+        }, result -> backgroundDone.countDown());
+
+        assertTrue(dispatcher.hasInteractiveWork());
+        assertFalse(backgroundDone.await(QUIET_MS, TimeUnit.MILLISECONDS));
+        releaseInteractive.countDown();
+        assertTrue(backgroundDone.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("interactive", "background"), order);
+        assertFalse(dispatcher.hasInteractiveWork());
+    }
+
+    @Test
+    public void yieldingStopsAtTheCap() throws Exception {
+        RequestDispatcher dispatcher = dispatcher(SHORT_CAP_MS);
+        dispatcher.submit(RequestDispatcher.Priority.INTERACTIVE, () -> {
+            releaseInteractive.await();
+            return null;
+        }, result -> {});
+
+        CountDownLatch backgroundDone = new CountDownLatch(1);
+        dispatcher.submit(RequestDispatcher.Priority.BACKGROUND, () -> "synced", result -> {
+            order.add(result);
+            backgroundDone.countDown();
+        });
+
+        // Ran although the interactive task never finished
+        assertTrue(backgroundDone.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.hasInteractiveWork());
+        assertEquals(Arrays.asList("synced"), order);
+        RequestDispatcher.LaneStats stats = dispatcher.getStats(RequestDispatcher.Priority.BACKGROUND);
+        assertEquals(1, stats.getCount());
+        assertTrue("waited " + stats.getLastWaitMs() + "ms", stats.getLastWaitMs() >= SHORT_CAP_MS);
+    }
+
+    @Test
+    public void pausedBackgroundLaneHoldsItsTasks() throws Exception {
+        RequestDispatcher dispatcher = dispatcher(NO_CAP_MS);
+        dispatcher.setBackgroundPaused(true);
+
+        CountDownLatch backgroundDone = new CountDownLatch(1);
+        dispatcher.submit(RequestDispatcher.Priority.BACKGROUND, () -> "refresh", result -> backgroundDone.countDown());
+        // Interactive work is not paused with it
+        CountDownLatch interactiveDone = new CountDownLatch(1);
+        dispatcher.submit(RequestDispatcher.Priority.INTERACTIVE, () -> "login", result -> interactiveDone.countDown());
+
+        assertTrue(interactiveDone.await(5, TimeUnit.SECONDS));
+        assertFalse(backgroundDone.await(QUIET_MS, TimeUnit.MILLISECONDS));
+        dispatcher.setBackgroundPaused(false);
+        assertTrue(backgroundDone.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedWorkDeliversNull() throws Exception {
+        RequestDispatcher dispatcher = dispatcher(NO_CAP_MS);
+        CountDownLatch delivered = new CountDownLatch(2);
+        for (RequestDispatcher.Priority priority : RequestDispatcher.Priority.values()) {
+            dispatcher.submit(priority, () -> {
+                throw new IllegalStateException("bug");
+            }, result -> {
+                order.add(String.valueOf(result));
+                delivered.countDown();
+            });
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("null", "null"), order);
+    }
+
+    private static RequestDispatcher dispatcher(long maxYieldMs) {
+        return new RequestDispatcher(Runnable::run, REAL_TIME, maxYieldMs);
+    }
+}
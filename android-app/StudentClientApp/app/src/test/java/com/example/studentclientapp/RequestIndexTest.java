@@ -0,0 +1,167 @@
+package com.example.studentclientapp;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RequestIndexTest {
+    private RequestIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new RequestIndex();
+        index.put(request(1, "Leave", "Medical leave", "Flu, back Monday", "pending", "2026-09-30 08:00:00"));
+        index.put(request(2, "Transcript", "Transcript copy", "Needed for a scholarship", "approved", "2026-10-01 09:30:00"));
+        index.put(request(3, "Other", "Lab-report extension", "Leave the lab open late", "rejected", "2026-10-02 17:45:00"));
+        index.put(request(4, "Leave", "Family leave", "Two days", "approved", "2026-10-02 17:45:00"));
+    }
+
+    @Test
+    public void parseSplitsFiltersFromWords() {
+        RequestIndex.Query query = RequestIndex.Query.parse("  Type:LEA  status:app from:2026-10-01 to:2026-10-02 Lab-Report x ");
+        assertEquals("lea", query.type);
+        assertEquals("app", query.status);
+        assertEquals("2026-10-01", query.from);
+        assertEquals("2026-10-02", query.to);
+        List<String> prefixes = new ArrayList<>(query.prefixes);
+        prefixes.sort(null);
+        assertEquals(Arrays.asList("lab", "report", "x"), prefixes);
+        assertFalse(query.isEmpty());
+        assertTrue(RequestIndex.Query.parse("   ").isEmpty());
+    }
+
+    @Test
+    public void emptyQueryListsEverythingNewestFirst() {
+        // Same created_at: the higher id is newer
+        assertEquals(Arrays.asList(4, 3, 2, 1), ids(search("")));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void wordsMatchTitleAndDescriptionTokensByPrefix() {
+        assertEquals(Arrays.asList(4, 3, 1), ids(search("leave")));
+        assertEquals(Arrays.asList(2), ids(search("SCHOLAR")));
+        assertEquals(Arrays.asList(3), ids(search("report")));
+        // Every word must match
+        assertEquals(Arrays.asList(3), ids(search("lea lab")));
+        assertEquals(Arrays.asList(), ids(search("leave transcript")));
+        // The "a" in request 2 is too short to index, and no longer word starts with it
+        assertEquals(Arrays.asList(), ids(search("a")));
+    }
+
+    @Test
+    public void typeAndStatusFilterByPrefix() {
+        assertEquals(Arrays.asList(4, 1), ids(search("type:leave")));
+        assertEquals(Arrays.asList(4, 2), ids(search("status:appr")));
+        assertEquals(Arrays.asList(4), ids(search("type:lea status:approved")));
+        assertEquals(Arrays.asList(3), ids(search("type:other leave")));
+        assertEquals(Arrays.asList(), ids(search("status:cancelled")));
+    }
+
+    @Test
+    public void dateRangeCoversWholeDays() {
+        assertEquals(Arrays.asList(4, 3, 2), ids(search("from:2026-10-01")));
+        assertEquals(Arrays.asList(2, 1), ids(search("to:2026-10-01")));
+        assertEquals(Arrays.asList(4, 3), ids(search("from:2026-10-02 to:2026-10-02")));
+        assertEquals(Arrays.asList(4), ids(search("from:2026-10-02 family")));
+    }
+
+    @Test
+    public void putReplacesTheOldPostings() throws Exception {
+        index.put(request(1, "Other", "Medical certificate", "Dentist", "approved", "2026-09-30 08:00:00"));
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList(4, 3), ids(search("leave")));
+        assertEquals(Arrays.asList(3, 1), ids(search("type:other")));
+        assertEquals(Arrays.asList(1), ids(search("dentist")));
+        assertEquals(Arrays.asList(), ids(search("flu")));
+    }
+
+    @Test
+    public void putKeepsItsOwnCopy() throws Exception {
+        JSONObject request = request(5, "Other", "Parking permit", "", "pending", "2026-10-03 10:00:00");
+        index.put(request);
+        request.put("title", "Changed");
+        request.put("status", "approved");
+        List<JSONObject> results = search("parking");
+        assertEquals(1, results.size());
+        assertEquals("Parking permit", results.get(0).optString("title"));
+        assertEquals(Arrays.asList(5), ids(search("status:pending parking")));
+    }
+
+    @Test
+    public void updateStatusMovesTheRecordBetweenStatuses() {
+        index.updateStatus(1, "approved");
+        assertEquals(Arrays.asList(4, 2, 1), ids(search("status:approved")));
+        assertEquals(Arrays.asList(), ids(search("status:pending")));
+        assertEquals("approved", search("medical").get(0).optString("status"));
+        // Unknown ids are ignored
+        index.updateStatus(99, "approved");
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void removeDropsTheRecordFromEveryField() {
+        index.remove(4);
+        index.remove(99);
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList(1), ids(search("type:leave")));
+        assertEquals(Arrays.asList(2), ids(search("status:approved")));
+        assertEquals(Arrays.asList(3), ids(search("from:2026-10-02")));
+        assertEquals(Arrays.asList(), ids(search("family")));
+    }
+
+    @Test
+    public void syncAddsChangesAndDrops() throws Exception {
+        JSONArray list = new JSONArray();
+        list.put(request(1, "Leave", "Medical leave", "Flu, back Monday", "approved", "2026-09-30 08:00:00"));
+        list.put(request(2, "Transcript", "Transcript copy", "Needed for a scholarship", "approved", "2026-10-01 09:30:00"));
+        list.put(request(6, "Other", "Locker key", "Lost it", "pending", "2026-10-04 12:00:00"));
+        // Entries without an id are skipped
+        list.put(new JSONObject().put("title", "No id"));
+        index.sync(list);
+
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList(6, 2, 1), ids(search("")));
+        assertEquals(Arrays.asList(2, 1), ids(search("status:approved")));
+        assertEquals(Arrays.asList(6), ids(search("locker")));
+        assertEquals(Arrays.asList(), ids(search("family")));
+        assertEquals(Arrays.asList(), ids(search("id")));
+    }
+
+    @Test
+    public void clearEmptiesTheIndex() {
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(Arrays.asList(), ids(search("leave")));
+    }
+
+    private List<JSONObject> search(String text) {
+        return index.search(RequestIndex.Query.parse(text));
+    }
+
+    private static List<Integer> ids(List<JSONObject> results) {
+        List<Integer> ids = new ArrayList<>();
+        for (JSONObject request : results) {
+            ids.add(request.optInt("id"));
+        }
+        return ids;
+    }
+
+    private static JSONObject request(int id, String type, String title, String description,
+                                      String status, String createdAt) throws Exception {
+        return new JSONObject()
+                .put("id", id)
+                .put("type", type)
+                .put("title", title)
+                .put("description", description)
+                .put("status", status)
+                .put("created_at", createdAt);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.studentclientapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ServerPoolTest {
+    private FakeClock clock;
+    private ServerPool pool;
+    private ServerPool.Endpoint a;
+    private ServerPool.Endpoint b;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        pool = ServerPool.of(clock, "10.0.0.1:12345", "10.0.0.2:12345");
+        a = pool.get(0);
+        b = pool.get(1);
+    }
+
+    @Test
+    public void ofParsesHostAndPort() {
+        assertEquals(2, pool.size());
+        assertEquals("10.0.0.1", a.host);
+        assertEquals(12345, a.port);
+        for (String bad : new String[] {"nohost", ":123"}) {
+            try {
+                ServerPool.of(clock, bad);
+                fail("Accepted " + bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void oneFailureKeepsTheEndpointInRotation() {
+        assertFalse(a.recordFailure());
+        assertTrue(a.isAvailable(clock.elapsedRealtime()));
+    }
+
+    @Test
+    public void backOffDoublesUntilTheCap() {
+        assertFalse(a.recordFailure());
+        assertTrue(a.recordFailure());
+        assertDownFor(a, 5000);
+
+        // Back for one trial connection; each failed trial doubles the wait
+        clock.advance(5000);
+        assertTrue(a.isAvailable(clock.elapsedRealtime()));
+        assertTrue(a.recordFailure());
+        assertDownFor(a, 10000);
+        for (int i = 0; i < 10; i++) {
+            a.recordFailure();
+        }
+        assertDownFor(a, 60000);
+
+        a.recordSuccess(20);
+        assertTrue(a.isAvailable(clock.elapsedRealtime()));
+        assertFalse(a.recordFailure());
+    }
+
+    @Test
+    public void pickSkipsEndpointsThatAreDown() {
+        takeDown(a);
+        for (int i = 0; i < 20; i++) {
+            assertSame(b, pool.pick(null));
+        }
+        clock.advance(5000);
+        a.recordSuccess(1);
+        b.recordSuccess(50);
+        // Both up: the one scoring better, here by latency
+        assertSame(a, pool.pick(null));
+    }
+
+    @Test
+    public void pickAvoidsTheEndpointThatJustFailed() {
+        a.recordSuccess(1);
+        b.recordSuccess(50);
+        assertSame(b, pool.pick(a));
+    }
+
+    @Test
+    public void whenAllAreDownTheSoonestBackIsTried() {
+        takeDown(a);
+        clock.advance(1000);
+        takeDown(b);
+        assertSame(a, pool.pick(null));
+        // Unless that is the one that just failed
+        assertSame(b, pool.pick(a));
+    }
+
+    @Test
+    public void stickyEndpointWinsWhileHealthy() {
+        a.recordSuccess(1);
+        b.recordSuccess(500);
+        pool.stick(b);
+        assertTrue(pool.isSticky());
+        for (int i = 0; i < 20; i++) {
+            assertSame(b, pool.pick(null));
+        }
+        // Not when it just failed, or while it is down
+        assertSame(a, pool.pick(b));
+        takeDown(b);
+        assertSame(a, pool.pick(null));
+
+        clock.advance(5000);
+        assertSame(b, pool.pick(null));
+        pool.unstick();
+        assertFalse(pool.isSticky());
+        assertSame(a, pool.pick(null));
+    }
+
+    @Test
+    public void resetHealthBringsEveryEndpointBack() {
+        takeDown(a);
+        takeDown(b);
+        pool.resetHealth();
+        assertTrue(a.isAvailable(clock.elapsedRealtime()));
+        assertTrue(b.isAvailable(clock.elapsedRealtime()));
+        assertFalse(a.recordFailure());
+    }
+
+    private static void takeDown(ServerPool.Endpoint endpoint) {
+        while (!endpoint.recordFailure()) {
+        }
+    }
+
+    private void assertDownFor(ServerPool.Endpoint endpoint, long ms) {
+        assertEquals(clock.elapsedRealtime() + ms, endpoint.getDownUntil());
+        assertFalse(endpoint.isAvailable(clock.elapsedRealtime() + ms - 1));
+        assertTrue(endpoint.isAvailable(clock.elapsedRealtime() + ms));
+    }
+}
@@ -0,0 +1,123 @@
+# admission.py - Token-bucket admission control for incoming frames
+import math
+import threading
+import time
+from collections import OrderedDict
+
+# Sustained frames per second for the whole process and for each connection.
+# A person tapping through the app stays far below the per-connection limit;
+# the global limit should sit near what the server can actually serve, so
+# excess load is turned away instead of queued.
+GLOBAL_RATE = 1500.0
+CLIENT_RATE = 20.0
+
+# Buckets hold this many seconds' worth of tokens, so short bursts get through
+BURST_SECONDS = 2.0
+
+# CHECK_AVAILABILITY per client address: a registration form needs a handful of
+# checks, walking a list of usernames or emails needs thousands. Reconnecting
+# does not reset it, unlike the per-connection bucket.
+AVAILABILITY_RATE = 0.2
+AVAILABILITY_BURST = 10
+# Addresses remembered; the least recently seen is forgotten first
+MAX_TRACKED_ADDRESSES = 10000
+
+
+class TokenBucket:
+    """rate tokens per second, holding at most burst"""
+
+    def __init__(self, rate, burst):
+        self.rate = rate
+        self.burst = burst
+        self.tokens = float(burst)
+        self.updated = time.monotonic()
+
+    def refill(self, now):
+        self.tokens = min(self.burst, self.tokens + (now - self.updated) * self.rate)
+        self.updated = now
+
+    def wait_ms(self):
+        """Milliseconds until one token is available (0 if one is now)"""
+        if self.tokens >= 1:
+            return 0
+        return max(1, math.ceil((1 - self.tokens) / self.rate * 1000))
+
+
+class AdmissionControl:
+    """Decides per frame whether to serve it or shed it with a retry hint
+
+    Only used from the selector thread, so nothing here is locked. A frame
+    needs a token from both its connection's bucket and the global bucket; a
+    rate of 0 turns that bucket off.
+    """
+
+    def __init__(self, global_rate=GLOBAL_RATE, client_rate=CLIENT_RATE):
+        self.global_bucket = None
+        if global_rate > 0:
+            self.global_bucket = TokenBucket(global_rate, max(1, int(global_rate * BURST_SECONDS)))
+        self.client_rate = client_rate
+        self.client_burst = max(1, int(client_rate * BURST_SECONDS))
+        self.admitted = 0
+        self.shed = 0
+
+    def new_client(self):
+        """Bucket to keep with a new connection"""
+        if self.client_rate <= 0:
+            return None
+        return TokenBucket(self.client_rate, self.client_burst)
+
+    def admit(self, client_bucket):
+        """Returns 0 if the frame may run, else how many ms the client should wait"""
+        now = time.monotonic()
+        buckets = [bucket for bucket in (client_bucket, self.global_bucket) if bucket is not None]
+        wait_ms = 0
+        for bucket in buckets:
+            bucket.refill(now)
+            wait_ms = max(wait_ms, bucket.wait_ms())
+        if wait_ms:
+            self.shed += 1
+            return wait_ms
+
+        # Only spend tokens when every bucket had one
+        for bucket in buckets:
+            bucket.tokens -= 1
+        self.admitted += 1
+        return 0
+
+    def stats(self):
+        return {"admitted": self.admitted, "shed": self.shed}
+
+
+class AddressLimiter:
+    """One token bucket per client address, for commands worth limiting across
+    connections
+
+    Called from worker threads, so it is locked. Each server process keeps its
+    own buckets: with --processes N an address gets up to N times the rate.
+    """
+
+    def __init__(self, rate=AVAILABILITY_RATE, burst=AVAILABILITY_BURST, max_addresses=MAX_TRACKED_ADDRESSES):
+        self.rate = rate
+        self.burst = burst
+        self.max_addresses = max_addresses
+        self.buckets = OrderedDict()
+        self.lock = threading.Lock()
+        self.limited = 0
+
+    def allow(self, address):
+        """True if the address may go ahead now, spending one token"""
+        now = time.monotonic()
+        with self.lock:
+            bucket = self.buckets.get(address)
+            if bucket is None:
+                bucket = self.buckets[address] = TokenBucket(self.rate, self.burst)
+                if len(self.buckets) > self.max_addresses:
+                    self.buckets.popitem(last=False)
+            else:
+                self.buckets.move_to_end(address)
+                bucket.refill(now)
+            if bucket.tokens < 1:
+                self.limited += 1
+                return False
+            bucket.tokens -= 1
+            return True
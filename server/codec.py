@@ -0,0 +1,182 @@
+# codec.py - Compact binary encoding for command envelopes and payloads
+import struct
+
+# First plaintext byte of a binary-encoded payload (JSON starts with '{',
+# compressed payloads with 0x01)
+BINARY_MARKER = 0x02
+SCHEMA_VERSION = 1
+
+# Field tags. Append-only: a key's tag is its position in this list + 1, and
+# the Android client (CompactCodec.java) carries the same table.
+FIELDS = [
+    'command', 'params', 'status', 'message', 'data', 'timestamp',
+    'username', 'password', 'email', 'user_id', 'student_id', 'full_name',
+    'department', 'semester', 'gpa', 'attendance_percentage', 'requests',
+    'id', 'type', 'title', 'description', 'created_at', 'request_type',
+    'request_id', 'compression', 'min_size', 'encoding', 'version',
+    'if_version', 'event_id', 'since', 'updated_at', 'username_available',
+    'email_available', 'retry_after_ms', 'trace', 'session_token',
+]
+FIELD_TAGS = {name: index + 1 for index, name in enumerate(FIELDS)}
+
+# Value types
+T_NULL = 0
+T_FALSE = 1
+T_TRUE = 2
+T_INT = 3
+T_DOUBLE = 4
+T_STRING = 5
+T_OBJECT = 6
+T_ARRAY = 7
+
+_DOUBLE = struct.Struct('>d')
+
+
+def encode(value):
+    """Encode a dict (or any JSON-compatible value) into the compact format"""
+    out = bytearray((BINARY_MARKER, SCHEMA_VERSION))
+    _write_value(out, value)
+    return bytes(out)
+
+
+def decode(data):
+    """Decode a payload produced by encode() (or by the Android client)"""
+    if len(data) < 2 or data[0] != BINARY_MARKER:
+        raise ValueError("Not a binary payload")
+    if data[1] != SCHEMA_VERSION:
+        raise ValueError(f"Unsupported schema version {data[1]}")
+    value, position = _read_value(data, 2)
+    if position != len(data):
+        raise ValueError("Trailing bytes after payload")
+    return value
+
+
+def append_field(data, key, value):
+    """Add one key to an encoded object without decoding the rest of it"""
+    if len(data) < 3 or data[0] != BINARY_MARKER or data[2] != T_OBJECT:
+        raise ValueError("Not a binary object payload")
+    count, position = _read_varint(data, 3)
+    out = bytearray(data[:3])
+    _write_varint(out, count + 1)
+    out += data[position:]
+    _write_field(out, key, value)
+    return bytes(out)
+
+
+def _write_varint(out, number):
+    while number > 0x7F:
+        out.append((number & 0x7F) | 0x80)
+        number >>= 7
+    out.append(number)
+
+
+def _write_string(out, text):
+    encoded = text.encode('utf-8')
+    _write_varint(out, len(encoded))
+    out += encoded
+
+
+def _write_value(out, value):
+    if value is None:
+        out.append(T_NULL)
+    elif value is True:
+        out.append(T_TRUE)
+    elif value is False:
+        out.append(T_FALSE)
+    elif isinstance(value, int):
+        out.append(T_INT)
+        # Zigzag so small negative numbers stay small
+        _write_varint(out, (value << 1) if value >= 0 else ((-value << 1) - 1))
+    elif isinstance(value, float):
+        out.append(T_DOUBLE)
+        out += _DOUBLE.pack(value)
+    elif isinstance(value, str):
+        out.append(T_STRING)
+        _write_string(out, value)
+    elif isinstance(value, dict):
+        out.append(T_OBJECT)
+        _write_varint(out, len(value))
+        for key, item in value.items():
+            _write_field(out, key, item)
+    elif isinstance(value, (list, tuple)):
+        out.append(T_ARRAY)
+        _write_varint(out, len(value))
+        for item in value:
+            _write_value(out, item)
+    else:
+        out.append(T_STRING)
+        _write_string(out, str(value))
+
+
+def _write_field(out, key, value):
+    tag = FIELD_TAGS.get(key)
+    if tag:
+        _write_varint(out, tag)
+    else:
+        # Tag 0: key not in the schema, sent literally
+        _write_varint(out, 0)
+        _write_string(out, str(key))
+    _write_value(out, value)
+
+
+def _read_varint(data, position):
+    result = 0
+    shift = 0
+    while True:
+        byte = data[position]
+        position += 1
+        result |= (byte & 0x7F) << shift
+        if not byte & 0x80:
+            return result, position
+        shift += 7
+        if shift > 63:
+            raise ValueError("Varint too long")
+
+
+def _read_string(data, position):
+    length, position = _read_varint(data, position)
+    end = position + length
+    if end > len(data):
+        raise ValueError("String runs past end of payload")
+    return data[position:end].decode('utf-8'), end
+
+
+def _read_value(data, position):
+    value_type = data[position]
+    position += 1
+
+    if value_type == T_NULL:
+        return None, position
+    if value_type == T_TRUE:
+        return True, position
+    if value_type == T_FALSE:
+        return False, position
+    if value_type == T_INT:
+        raw, position = _read_varint(data, position)
+        return (raw >> 1) ^ -(raw & 1), position
+    if value_type == T_DOUBLE:
+        return _DOUBLE.unpack_from(data, position)[0], position + 8
+    if value_type == T_STRING:
+        return _read_string(data, position)
+    if value_type == T_OBJECT:
+        count, position = _read_varint(data, position)
+        result = {}
+        for _ in range(count):
+            tag, position = _read_varint(data, position)
+            if tag == 0:
+                key, position = _read_string(data, position)
+            elif tag <= len(FIELDS):
+                key = FIELDS[tag - 1]
+            else:
+                raise ValueError(f"Unknown field tag {tag}")
+            result[key], position = _read_value(data, position)
+        return result, position
+    if value_type == T_ARRAY:
+        count, position = _read_varint(data, position)
+        result = []
+        for _ in range(count):
+            item, position = _read_value(data, position)
+            result.append(item)
+        return result, position
+
+    raise ValueError(f"Unknown value type {value_type}")
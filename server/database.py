@@ -2,172 +2,569 @@
 import sqlite3
 import hashlib
 import secrets
-from datetime import datetime
+import queue
+import threading
+import time
+from collections import OrderedDict
+from contextlib import contextmanager
+from metrics import timed
+import logs
+
+log = logs.get_logger(__name__)
+
+# Seconds a writer waits for another connection's write lock before giving up
+BUSY_TIMEOUT = 5.0
+
+# Per-connection prepared statement cache. Hot queries are fixed, parameterized
+# strings, so after the first call on a thread they skip SQL parsing entirely.
+STATEMENT_CACHE_SIZE = 64
+
+SQL_USER_ID_BY_USERNAME = "SELECT id FROM users WHERE username = ?"
+SQL_LOGIN_STATE = '''
+SELECT id, password_hash, password_salt, failed_login_attempts, account_locked_until
+FROM users WHERE username = ?
+'''
+SQL_EMAIL_EXISTS = "SELECT id FROM users WHERE email = ?"
+SQL_INSERT_REQUEST = '''
+INSERT INTO requests (user_id, request_type, title, description)
+VALUES (?, ?, ?, ?)
+'''
+SQL_STUDENT_DATA = '''
+SELECT student_id, full_name, department, semester, gpa, attendance_percentage
+FROM student_records
+WHERE user_id = ?
+'''
+SQL_USER_REQUESTS = '''
+SELECT id, request_type, title, description, status, created_at
+FROM requests
+WHERE user_id = ?
+ORDER BY created_at DESC
+LIMIT 50
+'''
+SQL_REQUEST_EVENTS = '''
+SELECT id, request_id, user_id, status, created_at
+FROM request_events
+WHERE id > ?
+ORDER BY id
+'''
+SQL_RECORD_CHANGES = "SELECT id, user_id FROM record_changes WHERE id > ? ORDER BY id"
+SQL_SESSION_USER = "SELECT user_id FROM sessions WHERE token_hash = ? AND expires_at > ?"
+SQL_USER_REQUEST_EVENTS = '''
+SELECT id, request_id, user_id, status, created_at
+FROM request_events
+WHERE id > ? AND user_id = ?
+ORDER BY id
+'''
+
+# How long a sign-in token lets a new connection resume a login
+SESSION_SECONDS = 24 * 60 * 60
+
+# Failed logins since the last successful one that lock the account
+MAX_FAILED_LOGINS = 5
+LOCKOUT_SECONDS = 15 * 60
+
+# How often buffered login bookkeeping (last_login, failure counts) is written.
+# Other server processes see a process's failures only once they are written,
+# so before a lockout an attacker gets at most MAX_FAILED_LOGINS - 1 guesses per
+# process in the first interval; after that every process counts them all.
+LOGIN_FLUSH_INTERVAL = 5.0
+
+# Group commit for SUBMIT_REQUEST: submissions arriving within the window
+# (seconds) of the first share one transaction, up to the batch size
+GROUP_COMMIT_SIZE = 64
+GROUP_COMMIT_WINDOW = 0.002
+# How long SUBMIT_REQUEST waits for its batch to commit before giving up on it
+SUBMIT_TIMEOUT = 15.0
+
+# Queries run on every request; check_query_plans() makes sure none of them
+# scans a whole table or sorts in a temp b-tree
+HOT_QUERIES = {
+    'user_id_by_username': (SQL_USER_ID_BY_USERNAME, ('username',)),
+    'login_state': (SQL_LOGIN_STATE, ('username',)),
+    'email_exists': (SQL_EMAIL_EXISTS, ('email',)),
+    'student_data': (SQL_STUDENT_DATA, (1,)),
+    'user_requests': (SQL_USER_REQUESTS, (1,)),
+    'request_events': (SQL_REQUEST_EVENTS, (0,)),
+    'user_request_events': (SQL_USER_REQUEST_EVENTS, (0, 1)),
+    'record_changes': (SQL_RECORD_CHANGES, (0,)),
+    'session_user': (SQL_SESSION_USER, ('token', '')),
+}
+
+# Schema changes made after the original tables, applied in order once per
+# database file. PRAGMA user_version counts how many have run, so append new
+# entries at the end and never edit one that has shipped.
+MIGRATIONS = [
+    # 1: indexes for the hot queries. student_records rows are small, so that
+    # index covers the whole GET_DATA read. The requests index leaves out the
+    # description text, which would double the table size; it still finds a
+    # user's newest 50 rows already in order, without a scan or a sort.
+    [
+        "CREATE INDEX IF NOT EXISTS idx_requests_user_created ON requests (user_id, created_at DESC)",
+        '''CREATE INDEX IF NOT EXISTS idx_student_records_user ON student_records
+           (user_id, student_id, full_name, department, semester, gpa, attendance_percentage)''',
+        "CREATE INDEX IF NOT EXISTS idx_users_email ON users (email)",
+    ],
+    # 2: journal of changes to student records and user identities, so cached
+    # GET_DATA responses are dropped even when the change is made outside the
+    # server (e.g. staff in the sqlite3 shell) or by another server process.
+    # Login bookkeeping updates to users are left out on purpose.
+    [
+        '''CREATE TABLE IF NOT EXISTS record_changes (
+            id INTEGER PRIMARY KEY AUTOINCREMENT,
+            user_id INTEGER NOT NULL,
+            changed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+        )''',
+        '''CREATE TRIGGER IF NOT EXISTS student_record_inserted
+           AFTER INSERT ON student_records
+           BEGIN
+               INSERT INTO record_changes (user_id) VALUES (NEW.user_id);
+           END''',
+        '''CREATE TRIGGER IF NOT EXISTS student_record_updated
+           AFTER UPDATE ON student_records
+           BEGIN
+               INSERT INTO record_changes (user_id) VALUES (NEW.user_id);
+               INSERT INTO record_changes (user_id)
+                   SELECT OLD.user_id WHERE OLD.user_id IS NOT NEW.user_id;
+           END''',
+        '''CREATE TRIGGER IF NOT EXISTS student_record_deleted
+           AFTER DELETE ON student_records
+           BEGIN
+               INSERT INTO record_changes (user_id) VALUES (OLD.user_id);
+           END''',
+        '''CREATE TRIGGER IF NOT EXISTS user_identity_changed
+           AFTER UPDATE OF id, username, email ON users
+           BEGIN
+               INSERT INTO record_changes (user_id) VALUES (OLD.id);
+           END''',
+        '''CREATE TRIGGER IF NOT EXISTS user_deleted
+           AFTER DELETE ON users
+           BEGIN
+               INSERT INTO record_changes (user_id) VALUES (OLD.id);
+           END''',
+    ],
+    # 3: sign-in tokens. LOGIN hands one out so a later connection can sign in
+    # again with RESUME instead of the password; kept in the database so every
+    # server process accepts it. Only a hash of the token is stored.
+    [
+        '''CREATE TABLE IF NOT EXISTS sessions (
+            token_hash TEXT PRIMARY KEY,
+            user_id INTEGER NOT NULL,
+            expires_at TIMESTAMP NOT NULL,
+            FOREIGN KEY (user_id) REFERENCES users (id)
+        )''',
+        "CREATE INDEX IF NOT EXISTS idx_sessions_user ON sessions (user_id, expires_at)",
+    ],
+]
+
+# username -> id pairs kept in memory (least recently used evicted first).
+# The server never renames or deletes users; if that is done by hand,
+# record_changes tells the server to forget the user's entry.
+USER_ID_CACHE_SIZE = 10000
+
+class PendingSubmission:
+    """A SUBMIT_REQUEST insert waiting for the group commit it is part of"""
+    
+    def __init__(self, params):
+        self.params = params
+        self.result = None
+        self.done = threading.Event()
+
+def utc_timestamp(offset_seconds=0):
+    """'YYYY-MM-DD HH:MM:SS' in UTC, the format CURRENT_TIMESTAMP stores"""
+    return time.strftime('%Y-%m-%d %H:%M:%S', time.gmtime(time.time() + offset_seconds))
 
 class Database:
-    def __init__(self, db_name="student_system.db"):
-        self.connection = sqlite3.connect(db_name, check_same_thread=False)
+    """SQLite access with one connection per thread
+    
+    Client threads used to share a single connection (check_same_thread=False),
+    interleaving each other's cursors and commits. Each thread now opens its own
+    connection on first use. WAL mode lets readers run alongside the single
+    writer, and writes go through transaction() so every logical change commits
+    or rolls back as a unit.
+    """
+    
+    def __init__(self, db_name="student_system.db", group_commit_size=GROUP_COMMIT_SIZE,
+                 group_commit_window=GROUP_COMMIT_WINDOW):
+        self.db_name = db_name
+        # group_commit_size <= 1 commits every SUBMIT_REQUEST on its own
+        self.group_commit_size = group_commit_size
+        self.group_commit_window = group_commit_window
+        self._local = threading.local()
+        # Every open connection, so close() can reach other threads' connections
+        self._connections = []
+        self._connections_lock = threading.Lock()
+        self._user_ids = OrderedDict()
+        self._user_ids_lock = threading.Lock()
+        # ServerMetrics to record query time in, set by the server
+        self.metrics = None
+        # Called with a user_id once a commit made here changed that user's record
+        # or identity, so caches need not wait for the record_changes poll; set by
+        # the server. Connections opened before migrations ran cannot report this.
+        self.record_listener = None
+        self._migrated = False
+        
+        # Login bookkeeping still to be written: user_id -> (last_login, reset,
+        # new failures). Failures are added to the stored count, not written
+        # over it, so processes never lose each other's.
+        self._pending_logins = {}
+        self._login_lock = threading.Lock()
+        self._flush_lock = threading.Lock()
+        
         self.create_tables()
+        self.migrate()
+        self._migrated = True
+        self._report_record_changes(self.connection)
+        
+        self._flush_stop = threading.Event()
+        self._flusher = threading.Thread(target=self._flush_logins_periodically, name='login-flusher')
+        self._flusher.daemon = True
+        self._flusher.start()
+        
+        self._submissions = queue.Queue()
+        self.commit_batches = 0
+        self.committed_submissions = 0
+        self._committer = None
+        if self.group_commit_size > 1:
+            self._committer = threading.Thread(target=self._run_group_commit, name='group-commit')
+            self._committer.daemon = True
+            self._committer.start()
     
-    def create_tables(self):
-        cursor = self.connection.cursor()
+    @property
+    def connection(self):
+        """This thread's connection, opened on first use"""
+        connection = getattr(self._local, 'connection', None)
+        if connection is None:
+            connection = self._connect()
+            if self._migrated:
+                self._report_record_changes(connection)
+            self._local.connection = connection
+            with self._connections_lock:
+                self._connections.append(connection)
+        return connection
+    
+    def _connect(self):
+        # isolation_level=None: no implicit transactions; writers use transaction()
+        connection = sqlite3.connect(self.db_name, timeout=BUSY_TIMEOUT,
+                                     isolation_level=None, check_same_thread=False,
+                                     cached_statements=STATEMENT_CACHE_SIZE)
+        connection.execute("PRAGMA journal_mode=WAL")
+        # Safe with WAL: a power loss can drop the last commits but not corrupt the file
+        connection.execute("PRAGMA synchronous=NORMAL")
+        return connection
+    
+    @contextmanager
+    def transaction(self):
+        """Run a block as one write transaction and yield a cursor for it
         
-        # Users table with password salt
-        cursor.execute('''
-        CREATE TABLE IF NOT EXISTS users (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            username TEXT UNIQUE NOT NULL,
-            password_hash TEXT NOT NULL,
-            password_salt TEXT NOT NULL,
-            email TEXT NOT NULL,
-            failed_login_attempts INTEGER DEFAULT 0,
-            account_locked_until TIMESTAMP,
-            last_login TIMESTAMP,
-            created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-        )
+        BEGIN IMMEDIATE takes the write lock up front, so a read-then-write block
+        (e.g. "does this username exist? then insert") cannot race another writer.
+        """
+        connection = self.connection
+        self._local.changed_users = None
+        connection.execute("BEGIN IMMEDIATE")
+        try:
+            yield connection.cursor()
+        except BaseException:
+            connection.execute("ROLLBACK")
+            raise
+        else:
+            connection.execute("COMMIT")
+            # Only now: a reader that cached the old row before the commit would
+            # otherwise keep it, with a generation taken after the invalidation
+            self._notify_record_changes()
+        finally:
+            self._local.changed_users = None
+    
+    def _report_record_changes(self, connection):
+        """Have this connection note every record_changes row it writes"""
+        connection.create_function('record_changed', 1, self._record_changed)
+        connection.execute('''
+        CREATE TEMP TRIGGER IF NOT EXISTS report_record_change
+        AFTER INSERT ON main.record_changes
+        BEGIN
+            SELECT record_changed(NEW.user_id);
+        END
         ''')
+    
+    def _record_changed(self, user_id):
+        # Runs inside the writing thread's transaction
+        changed = getattr(self._local, 'changed_users', None)
+        if changed is None:
+            changed = self._local.changed_users = set()
+        changed.add(user_id)
+    
+    def _notify_record_changes(self):
+        changed = getattr(self._local, 'changed_users', None)
+        listener = self.record_listener
+        if changed and listener is not None:
+            for user_id in changed:
+                try:
+                    listener(user_id)
+                except Exception as e:
+                    # Committed regardless; the record_changes poll catches up
+                    log.warning("Record change listener failed for user %s: %s", user_id, e)
+    
+    def release_connection(self):
+        """Close the calling thread's connection (before a thread that used it exits)"""
+        connection = getattr(self._local, 'connection', None)
+        if connection is not None:
+            self._local.connection = None
+            with self._connections_lock:
+                if connection in self._connections:
+                    self._connections.remove(connection)
+            connection.close()
+    
+    def create_tables(self):
+        with self.transaction() as cursor:
+            # Users table with password salt
+            cursor.execute('''
+            CREATE TABLE IF NOT EXISTS users (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                username TEXT UNIQUE NOT NULL,
+                password_hash TEXT NOT NULL,
+                password_salt TEXT NOT NULL,
+                email TEXT NOT NULL,
+                failed_login_attempts INTEGER DEFAULT 0,
+                account_locked_until TIMESTAMP,
+                last_login TIMESTAMP,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            ''')
         
-        # Student records table
-        cursor.execute('''
-        CREATE TABLE IF NOT EXISTS student_records (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            user_id INTEGER NOT NULL,
-            student_id TEXT UNIQUE NOT NULL,
-            full_name TEXT NOT NULL,
-            department TEXT NOT NULL,
-            semester INTEGER,
-            gpa REAL,
-            attendance_percentage REAL DEFAULT 0.0,
-            FOREIGN KEY (user_id) REFERENCES users (id)
-        )
-        ''')
+            # Student records table
+            cursor.execute('''
+            CREATE TABLE IF NOT EXISTS student_records (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                user_id INTEGER NOT NULL,
+                student_id TEXT UNIQUE NOT NULL,
+                full_name TEXT NOT NULL,
+                department TEXT NOT NULL,
+                semester INTEGER,
+                gpa REAL,
+                attendance_percentage REAL DEFAULT 0.0,
+                FOREIGN KEY (user_id) REFERENCES users (id)
+            )
+            ''')
         
-        # Requests/complaints table
-        cursor.execute('''
-        CREATE TABLE IF NOT EXISTS requests (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            user_id INTEGER NOT NULL,
-            request_type TEXT NOT NULL,
-            title TEXT NOT NULL,
-            description TEXT NOT NULL,
-            status TEXT DEFAULT 'pending',
-            created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-            updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-            FOREIGN KEY (user_id) REFERENCES users (id)
-        )
-        ''')
+            # Requests/complaints table
+            cursor.execute('''
+            CREATE TABLE IF NOT EXISTS requests (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                user_id INTEGER NOT NULL,
+                request_type TEXT NOT NULL,
+                title TEXT NOT NULL,
+                description TEXT NOT NULL,
+                status TEXT DEFAULT 'pending',
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                FOREIGN KEY (user_id) REFERENCES users (id)
+            )
+            ''')
         
-        self.connection.commit()
+            # Status changes (and new rows) are journaled by triggers, so updates made
+            # outside the server, e.g. by staff in the sqlite3 shell, still reach clients
+            cursor.execute('''
+            CREATE TABLE IF NOT EXISTS request_events (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                request_id INTEGER NOT NULL,
+                user_id INTEGER NOT NULL,
+                status TEXT NOT NULL,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+            ''')
+        
+            cursor.execute('''
+            CREATE TRIGGER IF NOT EXISTS request_status_changed
+            AFTER UPDATE OF status ON requests
+            WHEN OLD.status IS NOT NEW.status
+            BEGIN
+                INSERT INTO request_events (request_id, user_id, status)
+                VALUES (NEW.id, NEW.user_id, NEW.status);
+            END
+            ''')
+        
+            cursor.execute('''
+            CREATE TRIGGER IF NOT EXISTS request_created
+            AFTER INSERT ON requests
+            BEGIN
+                INSERT INTO request_events (request_id, user_id, status)
+                VALUES (NEW.id, NEW.user_id, NEW.status);
+            END
+            ''')
+    
+    def migrate(self):
+        """Apply the MIGRATIONS this database has not seen yet"""
+        # BEGIN IMMEDIATE: when several server processes start together, one
+        # migrates and the others find user_version already bumped
+        with self.transaction() as cursor:
+            version = cursor.execute("PRAGMA user_version").fetchone()[0]
+            for number, statements in enumerate(MIGRATIONS[version:], start=version + 1):
+                for statement in statements:
+                    cursor.execute(statement)
+                cursor.execute(f"PRAGMA user_version = {number}")
+        if version < len(MIGRATIONS):
+            log.info("Database schema migrated from version %s to %s", version, len(MIGRATIONS))
+    
+    def check_query_plans(self):
+        """Hot queries whose plan scans a table or sorts; {name: plan step}"""
+        problems = {}
+        for name, (sql, params) in HOT_QUERIES.items():
+            for row in self.connection.execute("EXPLAIN QUERY PLAN " + sql, params):
+                detail = row[-1]
+                if detail.startswith('SCAN') or detail.startswith('USE TEMP B-TREE'):
+                    problems[name] = detail
+                    break
+        return problems
     
-    def register_user(self, username, password, email, student_data=None):
+    @timed('database')
+    def register_user(self, username, password, email, student_data=None, login=False):
+        """Create a user; with login=True the new account is also recorded as signed in"""
         try:
-            cursor = self.connection.cursor()
-            
-            # Check if username exists
-            if self.check_username_exists(username):
-                return {"status": "error", "message": "Username already exists"}
-            
-            # Check if email exists
-            cursor.execute("SELECT id FROM users WHERE email = ?", (email,))
-            if cursor.fetchone():
-                return {"status": "error", "message": "Email already registered"}
-            
-            # Generate salt and hash password
-            salt = secrets.token_hex(16)
-            password_hash = hashlib.sha256((password + salt).encode()).hexdigest()
-            
-            # Insert user with salt
-            cursor.execute(
-                "INSERT INTO users (username, password_hash, password_salt, email) VALUES (?, ?, ?, ?)",
-                (username, password_hash, salt, email)
-            )
-            user_id = cursor.lastrowid
-            
-            # Insert student record if provided
-            if student_data:
-                cursor.execute('''
-                INSERT INTO student_records 
-                (user_id, student_id, full_name, department, semester, gpa)
-                VALUES (?, ?, ?, ?, ?, ?)
-                ''', (user_id, student_data['student_id'], student_data['full_name'],
-                    student_data['department'], student_data['semester'], student_data['gpa']))
-            
-            self.connection.commit()
-            return {"status": "success", "user_id": user_id}
-            
+            with self.transaction() as cursor:
+                # Check if username exists
+                if self.check_username_exists(username):
+                    return {"status": "error", "message": "Username already exists"}
+                
+                # Check if email exists
+                if self.check_email_exists(email):
+                    return {"status": "error", "message": "Email already registered"}
+                
+                # Generate salt and hash password
+                salt = secrets.token_hex(16)
+                password_hash = hashlib.sha256((password + salt).encode()).hexdigest()
+                
+                # Insert user with salt
+                if login:
+                    cursor.execute(
+                        "INSERT INTO users (username, password_hash, password_salt, email, last_login) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)",
+                        (username, password_hash, salt, email)
+                    )
+                else:
+                    cursor.execute(
+                        "INSERT INTO users (username, password_hash, password_salt, email) VALUES (?, ?, ?, ?)",
+                        (username, password_hash, salt, email)
+                    )
+                user_id = cursor.lastrowid
+                
+                # Insert student record if provided
+                if student_data:
+                    cursor.execute('''
+                    INSERT INTO student_records 
+                    (user_id, student_id, full_name, department, semester, gpa)
+                    VALUES (?, ?, ?, ?, ?, ?)
+                    ''', (user_id, student_data['student_id'], student_data['full_name'],
+                        student_data['department'], student_data['semester'], student_data['gpa']))
+        
         except Exception as e:
             return {"status": "error", "message": f"Registration error: {e}"}
+        
+        # Only once committed; a rolled back insert must not leave an id behind
+        self._remember_user_id(username, user_id)
+        return {"status": "success", "user_id": user_id}
     
+    @timed('database')
     def authenticate_user(self, username, password, ip_address=None):
-        """Authenticate user with password and track failed attempts"""
-        cursor = self.connection.cursor()
-        
-        # Check if account is locked
-        cursor.execute('''
-        SELECT id, password_hash, password_salt, failed_login_attempts, 
-               account_locked_until 
-        FROM users WHERE username = ?
-        ''', (username,))
+        """Authenticate user with password and track failed attempts
         
-        user = cursor.fetchone()
-        
-        if not user:
+        Only a lockout is written straight away. last_login and failure counts
+        are kept in memory and written by the flusher every LOGIN_FLUSH_INTERVAL,
+        so a normal login is a single read. The count is the stored one (which
+        includes other processes' flushed failures) plus this process's unwritten
+        ones.
+        """
+        row = self.connection.execute(SQL_LOGIN_STATE, (username,)).fetchone()
+        if not row:
             return {"status": "error", "message": "Invalid credentials"}
         
-        user_id, stored_hash, salt, failed_attempts, locked_until = user
+        user_id, stored_hash, salt, persisted_failures, locked_until = row
         
-        # Check if account is locked
-        if locked_until:
-            locked_time = datetime.strptime(locked_until, '%Y-%m-%d %H:%M:%S')
-            if datetime.now() < locked_time:
-                return {"status": "error", "message": "Account is locked. Try again later"}
+        # Check if account is locked (stored as UTC, like CURRENT_TIMESTAMP)
+        if locked_until and locked_until > utc_timestamp():
+            return {"status": "error", "message": "Account is locked. Try again later"}
         
         # Verify password
         password_hash = hashlib.sha256((password + salt).encode()).hexdigest()
+        success = secrets.compare_digest(password_hash, stored_hash)
         
-        if secrets.compare_digest(password_hash, stored_hash):
-            # Successful login - reset failed attempts and update last login
-            cursor.execute('''
-            UPDATE users SET 
-                failed_login_attempts = 0,
-                account_locked_until = NULL,
-                last_login = CURRENT_TIMESTAMP
-            WHERE id = ?
-            ''', (user_id,))
-            self.connection.commit()
-            
+        with self._login_lock:
+            if success:
+                # Until the flusher writes the reset, the stored count is stale and
+                # must not be counted again
+                self._pending_logins[user_id] = (utc_timestamp(), True, 0)
+                failed_attempts = 0
+            else:
+                last_login, reset, new_failures = self._pending_logins.get(user_id, (None, False, 0))
+                new_failures += 1
+                failed_attempts = new_failures + (0 if reset else persisted_failures or 0)
+                if failed_attempts < MAX_FAILED_LOGINS:
+                    self._pending_logins[user_id] = (last_login, reset, new_failures)
+        
+        if success:
+            self._remember_user_id(username, user_id)
             return {"status": "success", "user_id": user_id, "username": username}
-        else:
-            # Failed login - increment failed attempts
-            failed_attempts += 1
-            if failed_attempts >= 5:
-                # Lock account for 15 minutes
-                lock_time = datetime.now().strftime('%Y-%m-%d %H:%M:%S')
+        
+        if failed_attempts >= MAX_FAILED_LOGINS:
+            self._lock_account(user_id)
+            return {"status": "error",
+                    "message": "Account locked for 15 minutes due to too many failed attempts"}
+        return {"status": "error",
+                "message": f"Invalid credentials. {MAX_FAILED_LOGINS - failed_attempts} attempts remaining"}
+    
+    def _lock_account(self, user_id):
+        """Persist a lockout immediately, so it holds across restarts and processes"""
+        # Serialized with flush_logins(), so a buffered count cannot land after the lock
+        with self._flush_lock:
+            with self._login_lock:
+                self._pending_logins.pop(user_id, None)
+            with self.transaction() as cursor:
+                # The lock is the penalty; the count starts over once it expires
                 cursor.execute('''
                 UPDATE users SET 
-                    failed_login_attempts = ?,
-                    account_locked_until = datetime('now', '+15 minutes')
+                    failed_login_attempts = 0,
+                    account_locked_until = ?
                 WHERE id = ?
-                ''', (failed_attempts, user_id))
-                message = "Account locked for 15 minutes due to too many failed attempts"
-            else:
-                cursor.execute('''
-                UPDATE users SET failed_login_attempts = ? WHERE id = ?
-                ''', (failed_attempts, user_id))
-                message = f"Invalid credentials. {5 - failed_attempts} attempts remaining"
-            
-            self.connection.commit()
-            return {"status": "error", "message": message}
+                ''', (utc_timestamp(LOCKOUT_SECONDS), user_id))
+    
+    def flush_logins(self):
+        """Write buffered last_login times and failure counts in one transaction"""
+        with self._flush_lock:
+            with self._login_lock:
+                pending, self._pending_logins = self._pending_logins, {}
+            if not pending:
+                return 0
+            try:
+                with self.transaction() as cursor:
+                    cursor.executemany('''
+                    UPDATE users SET 
+                        last_login = COALESCE(?, last_login),
+                        failed_login_attempts = CASE WHEN ? THEN 0 ELSE failed_login_attempts END + ?
+                    WHERE id = ?
+                    ''', [(last_login, reset, failures, user_id)
+                          for user_id, (last_login, reset, failures) in pending.items()])
+            except Exception as e:
+                log.warning("Could not write login bookkeeping: %s", e)
+                # Keep them for the next flush, merged with entries that arrived meanwhile
+                with self._login_lock:
+                    for user_id, (last_login, reset, failures) in pending.items():
+                        newer = self._pending_logins.get(user_id)
+                        if newer is None:
+                            self._pending_logins[user_id] = (last_login, reset, failures)
+                        elif not newer[1]:
+                            # No reset since: the failed write's failures still count
+                            self._pending_logins[user_id] = (newer[0] or last_login, reset,
+                                                             failures + newer[2])
+                return 0
+            return len(pending)
     
+    def _flush_logins_periodically(self):
+        while not self._flush_stop.wait(LOGIN_FLUSH_INTERVAL):
+            self.flush_logins()
+    
+    @timed('database')
     def get_student_data(self, user_id):
         cursor = self.connection.cursor()
         
-        cursor.execute('''
-        SELECT sr.student_id, sr.full_name, sr.department, 
-               sr.semester, sr.gpa, sr.attendance_percentage
-        FROM student_records sr
-        WHERE sr.user_id = ?
-        ''', (user_id,))
+        cursor.execute(SQL_STUDENT_DATA, (user_id,))
         
         record = cursor.fetchone()
         
@@ -185,27 +582,83 @@ class Database:
             }
         return {"status": "error", "message": "No student data found"}
     
+    @timed('database')
     def submit_request(self, user_id, request_type, title, description):
-        cursor = self.connection.cursor()
+        """Insert a request; returns once its commit is durable
         
-        cursor.execute('''
-        INSERT INTO requests (user_id, request_type, title, description)
-        VALUES (?, ?, ?, ?)
-        ''', (user_id, request_type, title, description))
+        With group commit on, the insert is handed to the committer thread and
+        this call waits for the batch it lands in, up to SUBMIT_TIMEOUT.
+        """
+        submission = PendingSubmission((user_id, request_type, title, description))
+        if self.group_commit_size <= 1:
+            self._commit_submissions([submission])
+        else:
+            self._submissions.put(submission)
+            if not submission.done.wait(SUBMIT_TIMEOUT):
+                # The batch may still commit; the client sees the request in GET_REQUESTS then
+                log.warning("Request for user_id %s not committed within %ss", user_id, SUBMIT_TIMEOUT)
+                return {"status": "error",
+                        "message": "Request not confirmed in time; check your requests before resubmitting"}
+        return submission.result
+    
+    def _run_group_commit(self):
+        """Committer thread: one transaction for every submission that arrives
+        within group_commit_window of the first, up to group_commit_size"""
+        # Durable on return, even on power loss; affordable because the sync is
+        # paid once per batch instead of once per request
+        self.connection.execute("PRAGMA synchronous=FULL")
+        stopping = False
+        while not stopping:
+            submission = self._submissions.get()
+            if submission is None:
+                return
+            batch = [submission]
+            deadline = time.monotonic() + self.group_commit_window
+            while len(batch) < self.group_commit_size:
+                try:
+                    submission = self._submissions.get(timeout=max(0.0, deadline - time.monotonic()))
+                except queue.Empty:
+                    break
+                if submission is None:
+                    stopping = True
+                    break
+                batch.append(submission)
+            try:
+                self._commit_submissions(batch)
+            except Exception as e:
+                # E.g. a failed ROLLBACK; nobody may be left waiting on the batch
+                log.exception("Group commit failed: %s", e)
+                for submission in batch:
+                    if not submission.done.is_set():
+                        submission.result = {"status": "error", "message": f"Could not submit request: {e}"}
+                        submission.done.set()
+            self.commit_batches += 1
+            self.committed_submissions += len(batch)
+    
+    def _commit_submissions(self, batch):
+        try:
+            with self.transaction() as cursor:
+                request_ids = [cursor.execute(SQL_INSERT_REQUEST, submission.params).lastrowid
+                               for submission in batch]
+        except Exception as e:
+            if len(batch) > 1:
+                # Do not fail the whole batch for one bad row; retry them one by one
+                for submission in batch:
+                    self._commit_submissions([submission])
+                return
+            batch[0].result = {"status": "error", "message": f"Could not submit request: {e}"}
+            batch[0].done.set()
+            return
         
-        self.connection.commit()
-        return {"status": "success", "request_id": cursor.lastrowid}
+        for submission, request_id in zip(batch, request_ids):
+            submission.result = {"status": "success", "request_id": request_id}
+            submission.done.set()
     
+    @timed('database')
     def get_user_requests(self, user_id):
         cursor = self.connection.cursor()
         
-        cursor.execute('''
-        SELECT id, request_type, title, description, status, created_at
-        FROM requests
-        WHERE user_id = ?
-        ORDER BY created_at DESC
-        LIMIT 50
-        ''', (user_id,))
+        cursor.execute(SQL_USER_REQUESTS, (user_id,))
         
         requests = cursor.fetchall()
         result = []
@@ -221,11 +674,132 @@ class Database:
         
         return {"status": "success", "requests": result}
 
+    @timed('database')
+    def get_request_events(self, after_id, user_id=None):
+        """Journaled request changes with id > after_id, oldest first"""
+        cursor = self.connection.cursor()
+        
+        if user_id is None:
+            cursor.execute(SQL_REQUEST_EVENTS, (after_id,))
+        else:
+            cursor.execute(SQL_USER_REQUEST_EVENTS, (after_id, user_id))
+        
+        return [{
+            "event_id": row[0],
+            "request_id": row[1],
+            "user_id": row[2],
+            "status": row[3],
+            "updated_at": row[4]
+        } for row in cursor.fetchall()]
+    
+    def get_latest_request_event_id(self):
+        cursor = self.connection.cursor()
+        cursor.execute("SELECT COALESCE(MAX(id), 0) FROM request_events")
+        return cursor.fetchone()[0]
+    
+    @timed('database')
+    def get_record_changes(self, after_id):
+        """(change id, user_id) of student record/user changes with id > after_id"""
+        return self.connection.execute(SQL_RECORD_CHANGES, (after_id,)).fetchall()
+    
+    def get_latest_record_change_id(self):
+        return self.connection.execute("SELECT COALESCE(MAX(id), 0) FROM record_changes").fetchone()[0]
+    
+    @timed('database')
+    def create_session(self, user_id):
+        """New sign-in token for user_id, valid for SESSION_SECONDS"""
+        token = secrets.token_urlsafe(32)
+        with self.transaction() as cursor:
+            # The user's expired tokens go as new ones are made
+            cursor.execute("DELETE FROM sessions WHERE user_id = ? AND expires_at <= ?",
+                           (user_id, utc_timestamp()))
+            cursor.execute("INSERT INTO sessions (token_hash, user_id, expires_at) VALUES (?, ?, ?)",
+                           (self._token_hash(token), user_id, utc_timestamp(SESSION_SECONDS)))
+        return token
+    
+    @timed('database')
+    def resume_session(self, token):
+        """user_id a sign-in token belongs to, or None if unknown or expired"""
+        row = self.connection.execute(SQL_SESSION_USER, (self._token_hash(token), utc_timestamp())).fetchone()
+        return row[0] if row else None
+    
+    @timed('database')
+    def end_session(self, token, user_id):
+        """Revoke one of user_id's sign-in tokens"""
+        with self.transaction() as cursor:
+            cursor.execute("DELETE FROM sessions WHERE token_hash = ? AND user_id = ?",
+                           (self._token_hash(token), user_id))
+    
+    @staticmethod
+    def _token_hash(token):
+        return hashlib.sha256(token.encode()).hexdigest()
+    
+    def forget_user_id(self, user_id):
+        """Drop a user from the username cache after it was renamed or deleted"""
+        with self._user_ids_lock:
+            for username in [name for name, cached in self._user_ids.items() if cached == user_id]:
+                del self._user_ids[username]
+    
+    @timed('database')
+    def get_user_id(self, username):
+        """Id for a username, or None
+        
+        Served from memory after the first lookup. Misses are not cached, since
+        the name can be registered at any moment (possibly by another process).
+        """
+        with self._user_ids_lock:
+            user_id = self._user_ids.get(username)
+            if user_id is not None:
+                self._user_ids.move_to_end(username)
+                return user_id
+        
+        row = self.connection.execute(SQL_USER_ID_BY_USERNAME, (username,)).fetchone()
+        if not row:
+            return None
+        self._remember_user_id(username, row[0])
+        return row[0]
+    
+    def _remember_user_id(self, username, user_id):
+        with self._user_ids_lock:
+            self._user_ids[username] = user_id
+            self._user_ids.move_to_end(username)
+            if len(self._user_ids) > USER_ID_CACHE_SIZE:
+                self._user_ids.popitem(last=False)
+    
     def check_username_exists(self, username):
         """Check if username already exists"""
+        return self.get_user_id(username) is not None
+    
+    @timed('database')
+    def check_email_exists(self, email):
+        """Check if email is already registered"""
         cursor = self.connection.cursor()
-        cursor.execute("SELECT id FROM users WHERE username = ?", (username,))
+        cursor.execute(SQL_EMAIL_EXISTS, (email,))
         return cursor.fetchone() is not None
     
+    def stats(self):
+        """Write queue depths and group commit counters, for monitoring"""
+        with self._login_lock:
+            pending_logins = len(self._pending_logins)
+        return {
+            "submissions_queued": self._submissions.qsize(),
+            "commit_batches": self.commit_batches,
+            "committed_submissions": self.committed_submissions,
+            "logins_pending": pending_logins
+        }
+    
     def close(self):
-        self.connection.close()
\ No newline at end of file
+        # Submissions already queued are committed before the committer stops
+        if self._committer is not None and self._committer.is_alive():
+            self._submissions.put(None)
+            self._committer.join()
+        
+        # Buffered login bookkeeping is written before the connections go
+        self._flush_stop.set()
+        if self._flusher.is_alive() and self._flusher is not threading.current_thread():
+            self._flusher.join()
+        self.flush_logins()
+        with self._connections_lock:
+            connections, self._connections = self._connections, []
+        for connection in connections:
+            connection.close()
\ No newline at end of file
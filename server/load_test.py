@@ -0,0 +1,152 @@
+# load_test.py - Closed-loop load generator for the socket server
+#
+# Usage: python load_test.py [host] [port] [seconds_per_step] [client counts...]
+#   e.g. python load_test.py 127.0.0.1 12345 10 1 2 4 8 16
+#
+# Each simulated client registers its own user and logs in, then sends a
+# read-heavy mix (GET_DATA, GET_REQUESTS, SUBMIT_REQUEST) back to back on one
+# connection, from its own process.
+# Keep the server at the default --log-level INFO; DEBUG logs sampled
+# per-request detail, which costs throughput. Compare
+# --processes 1 with --processes <cores> to see multi-process scaling.
+# Each client sends far faster than a person would, so admission control sheds
+# most of its frames; start the server with --client-rate 0 (and --global-rate
+# 0 to find raw capacity). Shed requests are counted in their own column, and
+# the client waits out their retry_after_ms like the app does.
+import multiprocessing
+import socket
+import sys
+import time
+import random
+import hashlib
+from security import SecurityHandler
+
+# Share of each command in the mix; the rest is SUBMIT_REQUEST
+GET_DATA_SHARE = 0.6
+GET_REQUESTS_SHARE = 0.2
+
+
+class LoadClient:
+    def __init__(self, host, port, name):
+        self.security = SecurityHandler()
+        self.sock = socket.create_connection((host, port))
+        self.sock.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
+        self.reader = self.sock.makefile('rb')
+        self.name = name
+        self.msg_id = 0
+
+    def call(self, command, params):
+        self.msg_id += 1
+        payload = self.security.encrypt_data({"command": command, "params": params})
+        self.sock.sendall(f"{self.msg_id}:{payload}\n".encode())
+        line = self.reader.readline().decode().strip()
+        if not line:
+            raise ConnectionError("Server closed the connection")
+        response = self.security.decrypt_data(line.split(':', 1)[1])
+        if response is None:
+            raise ConnectionError("Unreadable reply from server")
+        return response
+
+    def setup(self):
+        password = hashlib.sha256(b"load-test").hexdigest()
+        self.call("REGISTER", {
+            "username": self.name, "password": password, "email": f"{self.name}@load.test",
+            "student_id": self.name, "full_name": "Load Test", "department": "CS"
+        })
+        # Everything after this acts as the user signed in on the connection
+        response = self.call("LOGIN", {"username": self.name, "password": password})
+        if not response or response.get("status") != "success":
+            raise RuntimeError(f"LOGIN failed: {response}")
+
+    def step(self):
+        roll = random.random()
+        if roll < GET_DATA_SHARE:
+            command, params = "GET_DATA", {}
+        elif roll < GET_DATA_SHARE + GET_REQUESTS_SHARE:
+            command, params = "GET_REQUESTS", {}
+        else:
+            command, params = "SUBMIT_REQUEST", {
+                "request_type": "Other",
+                "title": "Load test", "description": "Generated by load_test.py"
+            }
+        response = self.call(command, params)
+        if response and response.get("status") == "overloaded":
+            time.sleep(response["data"]["retry_after_ms"] / 1000)
+            return False
+        if not response or response.get("status") == "error":
+            raise RuntimeError(f"{command} failed: {response}")
+        return True
+
+    def close(self):
+        self.sock.close()
+
+
+def client_process(host, port, name, seconds, barrier, results):
+    client = LoadClient(host, port, name)
+    client.setup()
+    latencies = []
+    failures = 0
+    shed = 0
+    # Every client has registered once the barrier opens, so setup is not timed
+    barrier.wait()
+    deadline = time.perf_counter() + seconds
+    while time.perf_counter() < deadline:
+        began = time.perf_counter()
+        try:
+            if client.step():
+                latencies.append(time.perf_counter() - began)
+            else:
+                shed += 1
+        except Exception:
+            failures += 1
+    client.close()
+    results.put((latencies, failures, shed))
+
+
+def run_step(host, port, clients, seconds):
+    """Run `clients` concurrent clients for `seconds`; return (ops, errors, shed, latencies)
+    
+    Each client is its own process so the generator is not held back by one GIL.
+    """
+    run_id = f"{int(time.time()) % 100000}_{clients}"
+    barrier = multiprocessing.Barrier(clients)
+    results = multiprocessing.Queue()
+    processes = [
+        multiprocessing.Process(target=client_process,
+                                args=(host, port, f"load_{run_id}_{i}", seconds, barrier, results))
+        for i in range(clients)
+    ]
+    for process in processes:
+        process.start()
+    
+    latencies = []
+    errors = 0
+    shed = 0
+    for _ in processes:
+        client_latencies, failures, client_shed = results.get()
+        latencies.extend(client_latencies)
+        errors += failures
+        shed += client_shed
+    for process in processes:
+        process.join()
+    return len(latencies), errors, shed, sorted(latencies)
+
+
+def percentile(values, fraction):
+    if not values:
+        return 0.0
+    return values[min(len(values) - 1, int(len(values) * fraction))]
+
+
+if __name__ == "__main__":
+    host = sys.argv[1] if len(sys.argv) > 1 else '127.0.0.1'
+    port = int(sys.argv[2]) if len(sys.argv) > 2 else 12345
+    seconds = float(sys.argv[3]) if len(sys.argv) > 3 else 10
+    steps = [int(n) for n in sys.argv[4:]] or [1, 2, 4, 8, 16]
+
+    print(f"[*] Load test against {host}:{port}, {seconds:.0f}s per step")
+    print(f"{'clients':>8} {'ops/s':>10} {'p50 ms':>8} {'p95 ms':>8} {'p99 ms':>8} {'errors':>7} {'shed':>7}")
+    for clients in steps:
+        ops, errors, shed, latencies = run_step(host, port, clients, seconds)
+        print(f"{clients:>8} {ops / seconds:>10.1f} {percentile(latencies, 0.5) * 1000:>8.2f} "
+              f"{percentile(latencies, 0.95) * 1000:>8.2f} {percentile(latencies, 0.99) * 1000:>8.2f} {errors:>7} {shed:>7}")
@@ -0,0 +1,192 @@
+# logs.py - Leveled, structured logging written from a background thread
+#
+# Every module logs through logs.get_logger(__name__). setup_logging()
+# routes all of it through a bounded queue to one writer thread, so a worker
+# never waits on a slow terminal or pipe; records that do not fit in the queue
+# are dropped and counted, like audit events under the drop policy.
+#
+# Per-request detail is logged at DEBUG and sampled per request: a worker
+# calls begin_request() for each frame, and either all or none of that
+# frame's DEBUG lines are kept. A log.debug() call at INFO, or in a request
+# that was not sampled, costs a level check and never builds a record.
+# Arguments are passed %-style so they are only formatted when the record is
+# kept.
+import json
+import logging
+import logging.handlers
+import queue
+import random
+import re
+import sys
+import threading
+import time
+
+LOG_QUEUE_SIZE = 10000
+
+# Share of requests whose DEBUG detail is kept
+LOG_SAMPLE_RATE = 0.1
+
+# Values under these keys never reach the log, however deeply nested
+SENSITIVE_KEYS = {'password', 'password_hash', 'salt', 'token', 'stats_token', 'session_token'}
+REDACTED = '***'
+
+# The same keys in text that was formatted before it reached us, e.g. a dict
+# inside an exception message: 'password': 'x', "token": "x" or password=x
+SENSITIVE_TEXT = re.compile(
+    r"""(['"]?\b(?:%s)\b['"]?\s*[:=]\s*)(?:'[^']*'|"[^"]*"|[^\s,}'"]+)""" % '|'.join(SENSITIVE_KEYS),
+    re.IGNORECASE)
+
+# Attributes every LogRecord has; anything else was passed with extra= and is
+# written as a structured field
+RECORD_ATTRIBUTES = set(vars(logging.LogRecord('', 0, '', 0, '', (), None))) | {'message', 'asctime'}
+
+_request = threading.local()
+_sample_rate = LOG_SAMPLE_RATE
+_handler = None
+_listener = None
+
+
+def begin_request():
+    """Decide whether the calling worker logs DEBUG detail for its next frame"""
+    if _handler is not None and logging.getLogger().isEnabledFor(logging.DEBUG):
+        _request.sampled = _sample_rate >= 1 or random.random() < _sample_rate
+
+
+def redact(value):
+    """Copy of value with the values of sensitive keys masked"""
+    if isinstance(value, dict):
+        return {key: REDACTED if isinstance(key, str) and key.lower() in SENSITIVE_KEYS else redact(item)
+                for key, item in value.items()}
+    if isinstance(value, (list, tuple)):
+        return type(value)(redact(item) for item in value)
+    return value
+
+
+def redact_text(text):
+    return SENSITIVE_TEXT.sub(lambda match: match.group(1) + repr(REDACTED), text)
+
+
+class SampledLogger(logging.Logger):
+    """Logger whose DEBUG level is off for requests that were not sampled"""
+
+    def isEnabledFor(self, level):
+        if not super().isEnabledFor(level):
+            return False
+        return level > logging.DEBUG or getattr(_request, 'sampled', True)
+
+
+logging.setLoggerClass(SampledLogger)
+
+
+def get_logger(name):
+    """A module's logger; importing this module first makes it a SampledLogger"""
+    return logging.getLogger(name)
+
+
+class RedactFilter(logging.Filter):
+    """Masks credentials in a record's arguments before it is formatted"""
+
+    def filter(self, record):
+        if record.args:
+            record.args = redact(record.args)
+        return True
+
+
+class DroppingQueueHandler(logging.handlers.QueueHandler):
+    """QueueHandler that drops records instead of blocking when the queue is full"""
+
+    def __init__(self, log_queue):
+        super().__init__(log_queue)
+        self.dropped = 0
+
+    def enqueue(self, record):
+        try:
+            self.queue.put_nowait(record)
+        except queue.Full:
+            self.dropped += 1
+
+    def prepare(self, record):
+        # Formats the message in the caller's thread, while its arguments are
+        # still unchanged, then masks anything the arguments did not cover
+        record = super().prepare(record)
+        record.msg = redact_text(record.msg)
+        return record
+
+
+class TextFormatter(logging.Formatter):
+    """time level pid thread logger: message key=value ..."""
+
+    def __init__(self):
+        super().__init__("%(asctime)s %(levelname)-7s %(process)d %(threadName)s %(name)s: %(message)s")
+
+    def formatTime(self, record, datefmt=None):
+        return time.strftime('%Y-%m-%dT%H:%M:%S', time.gmtime(record.created)) + '.%03dZ' % record.msecs
+
+    def format(self, record):
+        line = super().format(record)
+        fields = ' '.join(f"{key}={value}" for key, value in vars(record).items()
+                          if key not in RECORD_ATTRIBUTES)
+        return f"{line} {fields}" if fields else line
+
+
+class JsonFormatter(logging.Formatter):
+    """One JSON object per line, for log shippers"""
+
+    def format(self, record):
+        entry = {
+            "time": time.strftime('%Y-%m-%dT%H:%M:%S', time.gmtime(record.created)) + '.%03dZ' % record.msecs,
+            "level": record.levelname,
+            "pid": record.process,
+            "thread": record.threadName,
+            "logger": record.name,
+            "message": record.getMessage()
+        }
+        # A traceback is already part of the message; see DroppingQueueHandler.prepare
+        for key, value in vars(record).items():
+            if key not in RECORD_ATTRIBUTES:
+                entry[key] = value
+        return json.dumps(entry, default=str)
+
+
+def setup_logging(level='INFO', sample_rate=LOG_SAMPLE_RATE, log_format='text', stream=None):
+    """Send every logger's records through the queue to a writer thread
+
+    Call once per process, and again in a forked child: the writer thread
+    does not survive a fork.
+    """
+    global _sample_rate, _handler, _listener
+    stop_logging()
+
+    writer = logging.StreamHandler(stream or sys.stdout)
+    writer.setFormatter(JsonFormatter() if log_format == 'json' else TextFormatter())
+
+    _sample_rate = sample_rate
+    _handler = DroppingQueueHandler(queue.Queue(LOG_QUEUE_SIZE))
+    _handler.addFilter(RedactFilter())
+
+    root = logging.getLogger()
+    for handler in list(root.handlers):
+        root.removeHandler(handler)
+    root.addHandler(_handler)
+    root.setLevel(level.upper() if isinstance(level, str) else level)
+
+    _listener = logging.handlers.QueueListener(_handler.queue, writer)
+    _listener.start()
+
+
+def stop_logging():
+    """Write what is still queued and stop the writer thread"""
+    global _handler, _listener
+    if _listener is not None:
+        _listener.stop()
+        _listener = None
+    if _handler is not None:
+        # Anything logged from here on goes to logging's default stderr handler
+        logging.getLogger().removeHandler(_handler)
+        _handler = None
+
+
+def stats():
+    if _handler is None:
+        return {"queued": 0, "dropped": 0}
+    return {"queued": _handler.queue.qsize(), "dropped": _handler.dropped}
@@ -0,0 +1,163 @@
+# metrics.py - Counters and latency histograms for the STATS command
+import bisect
+import functools
+import threading
+import time
+
+# Upper bounds (ms) of the latency buckets; one more bucket catches the rest.
+# Fixed, roughly logarithmic buckets keep recording to a bisect and an
+# increment, and let a poller subtract two snapshots to get the latencies of
+# just the interval between them.
+BUCKET_BOUNDS_MS = [0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000]
+
+
+class LatencyHistogram:
+    """Count, total, max and bucket counts of observed durations"""
+
+    def __init__(self):
+        self.buckets = [0] * (len(BUCKET_BOUNDS_MS) + 1)
+        self.count = 0
+        self.total_ms = 0.0
+        self.max_ms = 0.0
+
+    def observe(self, milliseconds):
+        self.buckets[bisect.bisect_left(BUCKET_BOUNDS_MS, milliseconds)] += 1
+        self.count += 1
+        self.total_ms += milliseconds
+        if milliseconds > self.max_ms:
+            self.max_ms = milliseconds
+
+    def percentile(self, fraction):
+        """Upper bound of the bucket holding the given fraction of observations"""
+        if not self.count:
+            return 0.0
+        rank = fraction * self.count
+        seen = 0
+        for index, bucket in enumerate(self.buckets):
+            seen += bucket
+            if seen >= rank:
+                return BUCKET_BOUNDS_MS[index] if index < len(BUCKET_BOUNDS_MS) else self.max_ms
+        return self.max_ms
+
+    def snapshot(self):
+        return {
+            "count": self.count,
+            "total_ms": round(self.total_ms, 3),
+            "mean_ms": round(self.total_ms / self.count, 3) if self.count else 0.0,
+            "p50_ms": self.percentile(0.5),
+            "p95_ms": self.percentile(0.95),
+            "p99_ms": self.percentile(0.99),
+            "max_ms": round(self.max_ms, 3),
+            "buckets": list(self.buckets)
+        }
+
+
+# Stages timed inside another stage (database calls happen during dispatch),
+# so not added again when totalling a trace
+NESTED_STAGES = {'database'}
+
+
+class RequestTrace:
+    """Stage timings of the frame a worker is handling
+
+    id is the trace id the client sent, if any; client holds the rest of what
+    it sent (its timestamps) for the log.
+    """
+
+    def __init__(self):
+        self.id = None
+        self.client = None
+        self.stages = {}
+
+    def add(self, stage, seconds):
+        self.stages[stage] = self.stages.get(stage, 0.0) + seconds
+
+    def milliseconds(self):
+        return {stage: round(seconds * 1000, 3) for stage, seconds in self.stages.items()}
+
+    def total_ms(self):
+        return round(sum(seconds for stage, seconds in self.stages.items()
+                         if stage not in NESTED_STAGES) * 1000, 3)
+
+
+_local = threading.local()
+
+
+def begin_trace():
+    """Start collecting the calling worker's stage timings for one frame"""
+    trace = _local.trace = RequestTrace()
+    return trace
+
+
+def current_trace():
+    return getattr(_local, 'trace', None)
+
+
+def end_trace():
+    _local.trace = None
+
+
+class ServerMetrics:
+    """Per-command and per-stage latencies, recorded from any thread
+
+    One lock guards everything; holding it for a bisect and a few additions
+    costs far less than the work being measured. Stage timings also go to the
+    calling thread's RequestTrace, if a frame is being traced.
+    """
+
+    def __init__(self):
+        self.started = time.time()
+        self.lock = threading.Lock()
+        self.commands = {}  # command -> LatencyHistogram
+        self.errors = {}    # command -> responses with status "error"
+        self.stages = {}    # "database", "encrypt", ... -> LatencyHistogram
+
+    def observe_command(self, command, seconds, failed=False):
+        with self.lock:
+            histogram = self.commands.get(command)
+            if histogram is None:
+                histogram = self.commands[command] = LatencyHistogram()
+                self.errors[command] = 0
+            histogram.observe(seconds * 1000)
+            if failed:
+                self.errors[command] += 1
+
+    def observe(self, stage, seconds):
+        trace = getattr(_local, 'trace', None)
+        if trace is not None:
+            trace.add(stage, seconds)
+        with self.lock:
+            histogram = self.stages.get(stage)
+            if histogram is None:
+                histogram = self.stages[stage] = LatencyHistogram()
+            histogram.observe(seconds * 1000)
+
+    def snapshot(self):
+        with self.lock:
+            commands = {}
+            for command, histogram in self.commands.items():
+                commands[command] = histogram.snapshot()
+                commands[command]["errors"] = self.errors[command]
+            return {
+                "uptime_s": round(time.time() - self.started, 1),
+                "bucket_bounds_ms": BUCKET_BOUNDS_MS,
+                "commands": commands,
+                "stages": {stage: histogram.snapshot() for stage, histogram in self.stages.items()}
+            }
+
+
+def timed(stage):
+    """Decorator: add the method's run time to self.metrics under stage, if set"""
+    def decorate(method):
+        @functools.wraps(method)
+        def wrapper(self, *args, **kwargs):
+            metrics = self.metrics
+            if metrics is None:
+                return method(self, *args, **kwargs)
+            began = time.perf_counter()
+            try:
+                return method(self, *args, **kwargs)
+            finally:
+                metrics.observe(stage, time.perf_counter() - began)
+        return wrapper
+    return decorate
@@ -0,0 +1,114 @@
+# response_cache.py - Serialized GET_DATA responses kept in memory
+import json
+import threading
+from collections import OrderedDict
+import codec
+
+# Memory budget for cached responses, counted as serialized bytes plus overhead
+RESPONSE_CACHE_BYTES = 8 * 1024 * 1024
+
+# Rough per-entry cost of the dicts and objects around the serialized bytes
+ENTRY_OVERHEAD = 256
+
+
+class CachedResponse:
+    """A response serialized once per encoding and reused for every send"""
+
+    def __init__(self, response):
+        self.response = response
+        self.version = response.get('version')
+        self.encoded = {
+            'json': json.dumps(response).encode('utf-8'),
+            'binary': codec.encode(response)
+        }
+        self.size = sum(len(payload) for payload in self.encoded.values()) + ENTRY_OVERHEAD
+
+    def encoded_with(self, encoding, key, value):
+        """The serialized response with one more top-level key, e.g. per-request trace
+        timings, spliced in without serializing the rest again"""
+        payload = self.encoded[encoding]
+        if encoding == 'binary':
+            return codec.append_field(payload, key, value)
+        extra = json.dumps({key: value}).encode('utf-8')
+        # Both are non-empty JSON objects: drop one's '}' and the other's '{'
+        return payload[:-1] + b', ' + extra[1:]
+    
+    def __repr__(self):
+        return f"CachedResponse({self.response})"
+
+
+class ResponseCache:
+    """LRU map of key -> CachedResponse, bounded by total size
+
+    Invalidation is by key. A response loaded while an invalidation was
+    happening could already be stale, so put() takes the generation read
+    before the load and refuses the entry if anything was invalidated since.
+    """
+
+    def __init__(self, max_bytes=RESPONSE_CACHE_BYTES):
+        self.max_bytes = max_bytes
+        self.entries = OrderedDict()
+        self.lock = threading.Lock()
+        self.bytes = 0
+        self.invalidation_count = 0
+        self.hits = 0
+        self.misses = 0
+        self.evictions = 0
+
+    def get(self, key):
+        with self.lock:
+            entry = self.entries.get(key)
+            if entry is None:
+                self.misses += 1
+                return None
+            self.entries.move_to_end(key)
+            self.hits += 1
+            return entry
+
+    def generation(self):
+        """Token to pass to put() for a response about to be loaded"""
+        with self.lock:
+            return self.invalidation_count
+
+    def put(self, key, entry, generation):
+        with self.lock:
+            if generation != self.invalidation_count or entry.size > self.max_bytes:
+                return False
+            self._remove(key)
+            self.entries[key] = entry
+            self.bytes += entry.size
+            while self.bytes > self.max_bytes:
+                _, evicted = self.entries.popitem(last=False)
+                self.bytes -= evicted.size
+                self.evictions += 1
+            return True
+
+    def invalidate(self, key):
+        with self.lock:
+            self.invalidation_count += 1
+            self._remove(key)
+
+    def clear(self):
+        with self.lock:
+            self.invalidation_count += 1
+            self.entries.clear()
+            self.bytes = 0
+
+    def _remove(self, key):
+        entry = self.entries.pop(key, None)
+        if entry is not None:
+            self.bytes -= entry.size
+
+    def stats(self):
+        with self.lock:
+            lookups = self.hits + self.misses
+            return {
+                "entries": len(self.entries),
+                "bytes": self.bytes,
+                "max_bytes": self.max_bytes,
+                "hits": self.hits,
+                "misses": self.misses,
+                "hit_ratio": round(self.hits / lookups, 3) if lookups else 0.0,
+                "evictions": self.evictions,
+                "invalidations": self.invalidation_count
+            }
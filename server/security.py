@@ -1,6 +1,7 @@
 # security.py - Enhanced Version
 import json
 import base64
+import binascii
 import hashlib
 import secrets
 import sqlite3
@@ -8,6 +9,35 @@ from datetime import datetime, timedelta
 from Crypto.Cipher import AES
 from Crypto.Random import get_random_bytes
 import re
+import zlib
+import queue
+import threading
+import time
+import codec
+import logs
+
+log = logs.get_logger(__name__)
+
+# First plaintext byte of a compressed payload. JSON always starts with '{',
+# so the marker cannot collide with an uncompressed body.
+COMPRESSED_MARKER = b'\x01'
+COMPRESSION_LEVEL = 6
+
+# Wire frame: base64(version | nonce | AES-256-GCM ciphertext | tag). The
+# version byte is authenticated as associated data, so a later format can
+# change everything after it; frames of any other version are rejected.
+FRAME_VERSION = 1
+FRAME_HEADER = bytes((FRAME_VERSION,))
+FRAME_NONCE_SIZE = 12
+FRAME_TAG_SIZE = 16
+FRAME_OVERHEAD = 1 + FRAME_NONCE_SIZE + FRAME_TAG_SIZE
+
+# Security audit queue: events waiting to be written, and when to write them
+AUDIT_QUEUE_SIZE = 10000
+AUDIT_BATCH_SIZE = 500
+AUDIT_FLUSH_INTERVAL = 0.5
+AUDIT_BLOCK_TIMEOUT = 1.0
+AUDIT_CLOSE_TIMEOUT = 5.0
 
 class SecurityHandler:
     def __init__(self):
@@ -15,67 +45,91 @@ class SecurityHandler:
         self.session_expiry_hours = 24
         self.salt_length = 16
         
-    def pad(self, data):
-        """Pad data to be multiple of 16 bytes"""
-        padding_length = 16 - (len(data) % 16)
-        padding = bytes([padding_length] * padding_length)
-        return data + padding
-    
-    def unpad(self, data):
-        """Remove padding"""
-        padding_length = data[-1]
-        return data[:-padding_length]
-    
-    def encrypt_data(self, data):
-        """Encrypt JSON data using AES"""
+    def encrypt_data(self, data, compress_threshold=None, stats=None, encoding='json'):
+        """Seal a response into a frame (see FRAME_VERSION); None if it cannot be serialized
+        
+        When compress_threshold is set (negotiated per connection), payloads of at
+        least that many bytes are deflated before encryption. If stats is a dict,
+        raw and wire sizes are written into it for compression-ratio metrics.
+        encoding='binary' serializes dicts with the compact codec instead of JSON;
+        bytes are sent as they are.
+        """
         try:
             if isinstance(data, dict):
-                data_str = json.dumps(data)
+                if encoding == 'binary':
+                    plaintext = codec.encode(data)
+                else:
+                    plaintext = json.dumps(data).encode('utf-8')
+            elif isinstance(data, bytes):
+                # Pre-serialized (e.g. a cached response)
+                plaintext = data
             else:
-                data_str = data
+                plaintext = data.encode('utf-8')
             
-            # Generate random IV for each encryption
-            iv = get_random_bytes(16)
-            cipher = AES.new(self.key, AES.MODE_CBC, iv)
+            raw_size = len(plaintext)
+            if compress_threshold is not None and raw_size >= compress_threshold:
+                compressed = zlib.compress(plaintext, COMPRESSION_LEVEL)
+                # Only worth it if deflate actually shrank the body
+                if len(compressed) + 1 < raw_size:
+                    plaintext = COMPRESSED_MARKER + compressed
             
-            # Pad and encrypt
-            padded_data = self.pad(data_str.encode('utf-8'))
-            encrypted = cipher.encrypt(padded_data)
+            if stats is not None:
+                stats['raw_size'] = raw_size
+                stats['wire_size'] = len(plaintext)
             
-            # Combine IV + encrypted data and encode in base64
-            combined = iv + encrypted
-            result = base64.b64encode(combined).decode('utf-8')
+            # Fresh random nonce per frame; the version byte is authenticated too
+            nonce = get_random_bytes(FRAME_NONCE_SIZE)
+            cipher = AES.new(self.key, AES.MODE_GCM, nonce=nonce, mac_len=FRAME_TAG_SIZE)
+            cipher.update(FRAME_HEADER)
+            encrypted, tag = cipher.encrypt_and_digest(plaintext)
             
-            return result
+            return base64.b64encode(FRAME_HEADER + nonce + encrypted + tag).decode('ascii')
             
         except Exception as e:
-            print(f"[SECURITY] Encryption error: {e}")
+            log.warning("Encryption error: %s", e)
             return None
     
     def decrypt_data(self, encrypted_data):
-        """Decrypt data from Base64/AES"""
+        """Open a request frame; None if it is not a valid frame under our key
+        
+        Anything malformed, of another version or failing the tag check is
+        rejected before a byte of it is decompressed or parsed.
+        """
         try:
-            # Decode base64
-            combined = base64.b64decode(encrypted_data)
-            
-            # Extract IV (first 16 bytes) and encrypted data
-            iv = combined[:16]
-            encrypted = combined[16:]
-            
-            # Decrypt
-            cipher = AES.new(self.key, AES.MODE_CBC, iv)
-            decrypted = cipher.decrypt(encrypted)
-            
-            # Remove padding and decode
-            unpadded = self.unpad(decrypted)
-            result_str = unpadded.decode('utf-8')
-            
-            # Try to parse as JSON
-            return json.loads(result_str)
-            
+            combined = base64.b64decode(encrypted_data, validate=True)
+        except (binascii.Error, ValueError):
+            return None
+        if len(combined) < FRAME_OVERHEAD or combined[:1] != FRAME_HEADER:
+            return None
+        
+        cipher = AES.new(self.key, AES.MODE_GCM, nonce=combined[1:1 + FRAME_NONCE_SIZE], mac_len=FRAME_TAG_SIZE)
+        cipher.update(FRAME_HEADER)
+        try:
+            plaintext = cipher.decrypt_and_verify(combined[1 + FRAME_NONCE_SIZE:-FRAME_TAG_SIZE],
+                                                  combined[-FRAME_TAG_SIZE:])
+        except ValueError:
+            return None
+        
+        # Authentic from here on; inflate if the client compressed it, and decode
+        try:
+            if plaintext[:1] == COMPRESSED_MARKER:
+                plaintext = self.inflate(plaintext[1:])
+            if plaintext[:1] == bytes((codec.BINARY_MARKER,)):
+                request = codec.decode(plaintext)
+            else:
+                request = json.loads(plaintext.decode('utf-8'))
         except Exception as e:
-            print(f"[SECURITY] Decryption error: {e}")
-            return {"status": "error", "message": "Decryption failed"}
+            log.warning("Undecodable request payload: %s", e)
+            return None
+        return request if isinstance(request, dict) else None
+    
+    def inflate(self, data, max_size=1024 * 1024):
+        """Decompress a client payload, refusing anything that inflates past max_size"""
+        decompressor = zlib.decompressobj()
+        result = decompressor.decompress(data, max_size)
+        if decompressor.unconsumed_tail:
+            raise ValueError("Compressed payload too large")
+        return result
     
     def hash_password_with_salt(self, password):
         """Hash password with random salt"""
@@ -211,30 +265,115 @@ class SessionManager:
 
 
 class SecurityAudit:
-    def __init__(self, db_connection):
-        self.connection = db_connection
+    """Security event log written off the request path
+    
+    log_event() only puts the event on a bounded queue. A background thread
+    writes queued events in one transaction per batch, when AUDIT_BATCH_SIZE
+    events are waiting or the oldest has waited AUDIT_FLUSH_INTERVAL seconds,
+    so a login storm costs one commit per batch instead of one per event.
+    
+    When the queue is full, overflow='drop' discards the new event and counts
+    it; overflow='block' makes the caller wait up to AUDIT_BLOCK_TIMEOUT for
+    room before dropping. CRITICAL events always wait.
+    """
+    
+    def __init__(self, db, queue_size=AUDIT_QUEUE_SIZE, overflow='drop'):
+        if overflow not in ('drop', 'block'):
+            raise ValueError(f"Unknown overflow policy: {overflow}")
+        self.db = db
+        self.overflow = overflow
+        self.queue = queue.Queue(maxsize=queue_size)
+        self.stats_lock = threading.Lock()
+        self.written = 0
+        self.dropped = 0
+        self.failed = 0
+        self.batches = 0
         self.create_audit_table()
+        
+        self.writer = threading.Thread(target=self.write_events, name='audit-writer')
+        self.writer.daemon = True
+        self.writer.start()
     
     def create_audit_table(self):
-        cursor = self.connection.cursor()
-        cursor.execute('''
-        CREATE TABLE IF NOT EXISTS security_audit (
-            id INTEGER PRIMARY KEY AUTOINCREMENT,
-            timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-            event_type TEXT NOT NULL,
-            user_id INTEGER,
-            ip_address TEXT,
-            details TEXT,
-            severity TEXT CHECK(severity IN ('LOW', 'MEDIUM', 'HIGH', 'CRITICAL'))
-        )
-        ''')
-        self.connection.commit()
+        with self.db.transaction() as cursor:
+            cursor.execute('''
+            CREATE TABLE IF NOT EXISTS security_audit (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                event_type TEXT NOT NULL,
+                user_id INTEGER,
+                ip_address TEXT,
+                details TEXT,
+                severity TEXT CHECK(severity IN ('LOW', 'MEDIUM', 'HIGH', 'CRITICAL'))
+            )
+            ''')
     
     def log_event(self, event_type, user_id=None, ip_address=None, details=None, severity='MEDIUM'):
-        """Log security event"""
-        cursor = self.connection.cursor()
-        cursor.execute('''
-        INSERT INTO security_audit (event_type, user_id, ip_address, details, severity)
-        VALUES (?, ?, ?, ?, ?)
-        ''', (event_type, user_id, ip_address, json.dumps(details) if details else None, severity))
-        self.connection.commit()
\ No newline at end of file
+        """Queue a security event; returns False if it was dropped"""
+        # Stamped now (UTC, like CURRENT_TIMESTAMP), not when the batch is written
+        event = (time.strftime('%Y-%m-%d %H:%M:%S', time.gmtime()), event_type, user_id, ip_address,
+                 json.dumps(details) if details else None, severity)
+        try:
+            if self.overflow == 'block' or severity == 'CRITICAL':
+                self.queue.put(event, timeout=AUDIT_BLOCK_TIMEOUT)
+            else:
+                self.queue.put_nowait(event)
+            return True
+        except queue.Full:
+            with self.stats_lock:
+                self.dropped += 1
+            return False
+    
+    def write_events(self):
+        """Writer thread: drain the queue in batches until close() sends None"""
+        while True:
+            event = self.queue.get()
+            if event is None:
+                return
+            batch = [event]
+            deadline = time.monotonic() + AUDIT_FLUSH_INTERVAL
+            closing = False
+            while len(batch) < AUDIT_BATCH_SIZE:
+                try:
+                    event = self.queue.get(timeout=max(0.0, deadline - time.monotonic()))
+                except queue.Empty:
+                    break
+                if event is None:
+                    closing = True
+                    break
+                batch.append(event)
+            self.write_batch(batch)
+            if closing:
+                return
+    
+    def write_batch(self, batch):
+        try:
+            with self.db.transaction() as cursor:
+                cursor.executemany('''
+                INSERT INTO security_audit (timestamp, event_type, user_id, ip_address, details, severity)
+                VALUES (?, ?, ?, ?, ?, ?)
+                ''', batch)
+            with self.stats_lock:
+                self.written += len(batch)
+                self.batches += 1
+        except Exception as e:
+            log.warning("Could not write %s audit events: %s", len(batch), e)
+            with self.stats_lock:
+                self.failed += len(batch)
+    
+    def stats(self):
+        """Queue depth and counters, for monitoring"""
+        with self.stats_lock:
+            return {
+                "queued": self.queue.qsize(),
+                "written": self.written,
+                "batches": self.batches,
+                "dropped": self.dropped,
+                "failed": self.failed
+            }
+    
+    def close(self):
+        """Write whatever is still queued and stop the writer"""
+        if self.writer.is_alive():
+            self.queue.put(None)
+            self.writer.join(AUDIT_CLOSE_TIMEOUT)
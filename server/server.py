@@ -1,25 +1,123 @@
+import argparse
+import logging
 import socket
+import selectors
+import signal
 import threading
 import json
+import hashlib
+import os
+import secrets
 import sys
+import time
+from collections import deque
+from concurrent.futures import ThreadPoolExecutor
 from datetime import datetime
-from database import Database
-from security import SecurityHandler
+from database import Database, GROUP_COMMIT_SIZE, GROUP_COMMIT_WINDOW
+from security import SecurityHandler, SecurityAudit
+from response_cache import ResponseCache, CachedResponse
+from admission import AdmissionControl, AddressLimiter, GLOBAL_RATE, CLIENT_RATE
+from metrics import ServerMetrics, begin_trace, current_trace, end_trace
+import logs
+
+log = logs.get_logger("server")
+
+# Largest request frame we will buffer before giving up on a client
+MAX_FRAME_BYTES = 64 * 1024
+
+# Smallest response body we will deflate for clients that negotiated compression
+MIN_COMPRESS_SIZE = 256
+
+# How often the request event journal is checked for changes to push
+EVENT_POLL_INTERVAL = 1.0
+
+# msg_id used for server-initiated frames; client request ids start at 1
+PUSH_MSG_ID = "0"
+
+# Pending connections the kernel may queue while the selector thread catches up
+LISTEN_BACKLOG = 128
+
+# Connections beyond this are accepted and closed straight away
+MAX_CONNECTIONS = 1000
+
+# Threads running command handlers (and holding a database connection each)
+WORKER_THREADS = 8
+
+# Frames one connection may have waiting for a worker before it is dropped
+MAX_QUEUED_FRAMES = 64
+
+# Unsubscribed connections silent for this long are closed
+IDLE_TIMEOUT = 300.0
+REAP_INTERVAL = 10.0
+
+# Longest a worker will block sending to a client that stopped reading
+SEND_TIMEOUT = 10.0
+
+SELECT_TIMEOUT = 1.0
+
+# Traced requests that spend longer than this in the server are logged at INFO
+SLOW_REQUEST_MS = 500.0
+
+# Commands answered only on a connection that has signed in
+LOGIN_REQUIRED = ('GET_DATA', 'SUBMIT_REQUEST', 'GET_REQUESTS', 'SUBSCRIBE', 'EXIT')
 
 class StudentSocketServer:
-    def __init__(self, host='0.0.0.0', port=12345):
+    def __init__(self, host='0.0.0.0', port=12345, backlog=LISTEN_BACKLOG,
+                 max_connections=MAX_CONNECTIONS, workers=WORKER_THREADS,
+                 idle_timeout=IDLE_TIMEOUT, reuse_port=False,
+                 group_commit_size=GROUP_COMMIT_SIZE, group_commit_window=GROUP_COMMIT_WINDOW,
+                 global_rate=GLOBAL_RATE, client_rate=CLIENT_RATE, stats_token=None):
         self.host = host
         self.port = port
+        # Several processes may bind the same port; see supervisor.py
+        self.reuse_port = reuse_port
+        self.backlog = backlog
+        self.max_connections = max_connections
+        self.worker_count = workers
+        self.idle_timeout = idle_timeout
         self.server_socket = None
         self.running = False
-        self.clients = []
-        self.db = Database()
+        self.selector = selectors.DefaultSelector()
+        self.workers = ThreadPoolExecutor(max_workers=workers, thread_name_prefix='worker')
+        # Frames over the rate limits are answered from here, never queued behind work
+        self.admission = AdmissionControl(global_rate, client_rate)
+        self.rejector = ThreadPoolExecutor(max_workers=1, thread_name_prefix='rejector')
+        # CHECK_AVAILABILITY answers whether an account exists, so it is limited per address
+        self.availability_limiter = AddressLimiter()
+        # Tasks submitted to each executor that no thread has picked up yet, for STATS
+        self.queued = {'workers': 0, 'rejections': 0}
+        self.queued_lock = threading.Lock()
+        # socket -> session of every open connection
+        self.connections = {}
+        self.db = Database(group_commit_size=group_commit_size,
+                           group_commit_window=group_commit_window)
         self.security = SecurityHandler()
+        self.audit = SecurityAudit(self.db)
+        
+        # Command, query and crypto timings for STATS, which needs stats_token;
+        # without one the command is turned off
+        self.metrics = ServerMetrics()
+        self.db.metrics = self.metrics
+        self.stats_token = stats_token
+        
+        # user_id -> sessions subscribed to that user's request events
+        self.subscribers = {}
+        # Serializes journal reads with SUBSCRIBE replays so pushes stay in order
+        self.events_lock = threading.Lock()
+        self.last_event_id = 0
+        
+        # Serialized GET_DATA responses by user_id, dropped on record changes
+        self.response_cache = ResponseCache()
+        self.last_record_change_id = 0
+        # Our own writes drop entries as they commit; the journal poll covers the rest
+        self.db.record_listener = self.forget_record
         
         # Command handlers
         self.commands = {
             'REGISTER': self.handle_register,
             'LOGIN': self.handle_login,
+            'REGISTER_AND_LOGIN': self.handle_register_and_login,
+            'CHECK_AVAILABILITY': self.handle_check_availability,
             'GET_DATA': self.handle_get_data,
             'SUBMIT_REQUEST': self.handle_submit_request,
             'GET_REQUESTS': self.handle_get_requests,
@@ -32,231 +130,570 @@ class StudentSocketServer:
         try:
             self.server_socket = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
             self.server_socket.setsockopt(socket.SOL_SOCKET, socket.SO_REUSEADDR, 1)
+            if self.reuse_port:
+                self.server_socket.setsockopt(socket.SOL_SOCKET, socket.SO_REUSEPORT, 1)
             self.server_socket.bind((self.host, self.port))
-            self.server_socket.listen(5)
+            self.server_socket.listen(self.backlog)
+            self.server_socket.setblocking(False)
+            self.selector.register(self.server_socket, selectors.EVENT_READ)
             
             self.running = True
-            print(f"[*] Server started on {self.host}:{self.port}")
-            print("[*] Waiting for connections...")
+            log.info("Server started on %s:%s", self.host, self.port)
+            log.info("%s workers, backlog %s, max %s connections, idle timeout %.0fs",
+                     self.worker_count, self.backlog, self.max_connections, self.idle_timeout)
+            log.info("Waiting for connections...")
+            
+            for name, detail in self.db.check_query_plans().items():
+                log.warning("Hot query %s is not using an index: %s", name, detail)
+            
+            # One watcher pushes request changes to every subscribed connection,
+            # instead of each client re-downloading its list to look for them
+            self.last_event_id = self.db.get_latest_request_event_id()
+            self.last_record_change_id = self.db.get_latest_record_change_id()
+            watcher = threading.Thread(target=self.watch_request_events)
+            watcher.daemon = True
+            watcher.start()
             
-            # Start client handler thread
+            # This thread only accepts and reads; complete frames are handed to the
+            # worker pool, so a connection costs a buffer instead of a thread
+            last_reap = time.monotonic()
             while self.running:
-                try:
-                    client_socket, client_address = self.server_socket.accept()
-                    print(f"[+] New connection from {client_address}")
-                    
-                    client_handler = threading.Thread(
-                        target=self.handle_client,
-                        args=(client_socket, client_address)
-                    )
-                    client_handler.daemon = True
-                    client_handler.start()
-                    self.clients.append((client_socket, client_address))
-                    
-                except Exception as e:
-                    if self.running:
-                        print(f"[!] Error accepting connection: {e}")
+                for key, _ in self.selector.select(timeout=SELECT_TIMEOUT):
+                    if key.fileobj is self.server_socket:
+                        self.accept_connections()
+                        continue
+                    # One connection's failure must not end the loop for everyone
+                    try:
+                        self.read_connection(key.data)
+                    except Exception as e:
+                        log.exception("Error with client %s: %s", key.data['client_id'], e)
+                        self.close_connection(key.data)
+                
+                if time.monotonic() - last_reap >= REAP_INTERVAL:
+                    self.reap_idle_connections()
+                    last_reap = time.monotonic()
         
         except Exception as e:
-            print(f"[!] Server error: {e}")
+            if self.running:
+                log.error("Server error: %s", e)
         finally:
             self.stop()
     
-    def handle_client(self, client_socket, client_address):
-        """Handle individual client connection"""
-        client_id = f"{client_address[0]}:{client_address[1]}"
-        print(f"[*] Handling client {client_id}")
+    def accept_connections(self):
+        """Accept every connection waiting in the backlog"""
+        while True:
+            try:
+                client_socket, client_address = self.server_socket.accept()
+            except BlockingIOError:
+                return
+            except OSError as e:
+                if self.running:
+                    log.error("Error accepting connection: %s", e)
+                return
+            
+            if len(self.connections) >= self.max_connections:
+                log.warning("Connection limit (%s) reached, refusing %s", self.max_connections, client_address)
+                client_socket.close()
+                continue
+            
+            log.info("New connection from %s", client_address)
+            # Blocking sends with a timeout, so a client that stops reading cannot
+            # hold a worker forever; keepalive notices peers that vanished silently
+            client_socket.settimeout(SEND_TIMEOUT)
+            client_socket.setsockopt(socket.SOL_SOCKET, socket.SO_KEEPALIVE, 1)
+            
+            # Per-connection state shared by every frame on this socket
+            session = {'user_id': None, 'compress_threshold': None, 'encoding': 'json',
+                       'socket': client_socket, 'send_lock': threading.Lock(),
+                       'subscribed_user': None,
+                       'client_id': f"{client_address[0]}:{client_address[1]}",
+                       'buffer': b'', 'frames': deque(), 'frames_lock': threading.Lock(),
+                       'scheduled': False, 'closing': False,
+                       'last_active': time.monotonic(),
+                       'bucket': self.admission.new_client(),
+                       'command': None, 'failed': False,
+                       # Set once a frame on it passed decryption; see shed_frame
+                       'verified': False,
+                       # Encrypt and send time of the last reply, for the next trace
+                       'last_reply_ms': None}
+            self.connections[client_socket] = session
+            self.selector.register(client_socket, selectors.EVENT_READ, session)
+    
+    def read_connection(self, session):
+        """Read what a client sent and queue every complete frame for the workers"""
+        client_socket = session['socket']
+        client_id = session['client_id']
+        try:
+            data = client_socket.recv(4096)
+        except ConnectionResetError:
+            log.info("Client %s disconnected abruptly", client_id)
+            data = b''
+        except OSError as e:
+            log.warning("Error with client %s: %s", client_id, e)
+            data = b''
+        
+        if not data:
+            self.close_connection(session)
+            return
+        
+        session['last_active'] = time.monotonic()
+        session['buffer'] += data
+        if len(session['buffer']) > MAX_FRAME_BYTES:
+            log.warning("Client %s exceeded max frame size, closing", client_id)
+            self.close_connection(session)
+            return
+        
+        # One recv may hold several pipelined frames, or only part of one.
+        # Queue every complete line and keep the remainder for the next recv.
+        *lines, session['buffer'] = session['buffer'].split(b'\n')
+        received = time.perf_counter()
+        frames = []
+        for line in lines:
+            try:
+                frame = line.decode('utf-8').strip()
+            except UnicodeDecodeError:
+                # Frames are base64 and digits; anything else is not our client
+                log.info("Client %s sent undecodable bytes, closing", client_id)
+                self.close_connection(session)
+                return
+            if not frame:
+                continue
+            wait_ms = self.admission.admit(session['bucket'])
+            if wait_ms:
+                self.submit('rejections', self.shed_frame, session, frame, wait_ms)
+            else:
+                frames.append((frame, received))
+        if not frames:
+            return
+        
+        with session['frames_lock']:
+            if session['closing']:
+                return
+            session['frames'].extend(frames)
+            if len(session['frames']) > MAX_QUEUED_FRAMES:
+                log.warning("Client %s has too many frames in flight, closing", client_id)
+                overloaded = True
+            else:
+                overloaded = False
+                # At most one worker per connection, so frames run in the order sent
+                schedule = not session['scheduled']
+                session['scheduled'] = True
+        
+        if overloaded:
+            self.close_connection(session)
+        elif schedule:
+            self.submit('workers', self.process_frames, session)
+    
+    def submit(self, queue, task, *args):
+        """Run a task on the workers or the rejector, counted in queued until it starts"""
+        executor = self.workers if queue == 'workers' else self.rejector
         
-        authenticated_user = None
+        def run():
+            with self.queued_lock:
+                self.queued[queue] -= 1
+            task(*args)
         
+        with self.queued_lock:
+            self.queued[queue] += 1
         try:
-            while True:
-                # Receive data
-                data = client_socket.recv(4096)
-                if not data:
-                    break
-                
-                # Try to decode
-                request_str = data.decode('utf-8').strip()
-                
-                print(f"[{client_id}] Received data (length: {len(request_str)})")
-                
-                # SPECIAL CASE: If it's "TEST" (from test connection)
-                if request_str == "TEST":
-                    print(f"[{client_id}] Test connection detected")
-                    response = self.create_response("success", "Server is running!")
-                    encrypted_response = self.security.encrypt_data(response)
-                    if encrypted_response:
-                        client_socket.send((encrypted_response + "\n").encode())
-                        print(f"[{client_id}] Sent encrypted response with newline")
-                    else:
-                        # Fallback to plain response if encryption fails
-                        client_socket.send(json.dumps(response).encode())
-                    continue
-                
-                # Try to decrypt with AES
-                request = self.security.decrypt_data(request_str)
-                
-                if request and request.get("status") != "error":
-                    # AES decryption successful
-                    print(f"[{client_id}] AES decryption successful")
-                else:
-                    # Try old Base64 method for compatibility
-                    print(f"[{client_id}] AES failed, trying Base64")
-                    try:
-                        import base64
-                        decoded = base64.b64decode(request_str)
-                        request = json.loads(decoded.decode('utf-8'))
-                        print(f"[{client_id}] Base64 fallback successful")
-                    except:
-                        # If it's not JSON either, send error
-                        print(f"[{client_id}] Invalid request format")
-                        response = self.create_response("error", "Invalid request format")
-                        encrypted_response = self.security.encrypt_data(response)
-                        if encrypted_response:
-                            client_socket.send(encrypted_response.encode())
-                        else:
-                            client_socket.send(json.dumps(response).encode())
-                        continue
-                
-                command = request.get('command', '').upper()
-                params = request.get('params', {})
-                
-                # Log the request
-                print(f"[{client_id}] Command: {command}")
-                if command in ['LOGIN', 'REGISTER']:
-                    print(f"[{client_id}] Username: {params.get('username', 'N/A')}")
-                
-                # ENHANCED AUTHENTICATION CHECK - Supports params-based auth
-                if command == 'GET_DATA':
-                    # GET_DATA can work with username/user_id params
-                    print(f"[DEBUG] GET_DATA command received")
-                    print(f"[DEBUG] Params keys: {list(params.keys())}")
-                    if 'username' in params or 'user_id' in params:
-                        print(f"[DEBUG] GET_DATA has authentication params, proceeding")
-                    else:
-                        print(f"[DEBUG] GET_DATA missing auth params, rejecting")
-                        response = self.create_response("error", "Authentication required")
-                        encrypted_response = self.security.encrypt_data(response)
-                        if encrypted_response:
-                            client_socket.send(encrypted_response.encode())
-                        else:
-                            client_socket.send(json.dumps(response).encode())
-                        continue
-                        
-                elif command == 'SUBMIT_REQUEST':
-                    # SUBMIT_REQUEST can work with username/user_id params
-                    print(f"[DEBUG] SUBMIT_REQUEST command received")
-                    print(f"[DEBUG] Params keys: {list(params.keys())}")
-                    if 'username' in params or 'user_id' in params:
-                        print(f"[DEBUG] SUBMIT_REQUEST has authentication params, proceeding")
-                    else:
-                        print(f"[DEBUG] SUBMIT_REQUEST missing auth params, rejecting")
-                        response = self.create_response("error", "Authentication required")
-                        encrypted_response = self.security.encrypt_data(response)
-                        if encrypted_response:
-                            client_socket.send(encrypted_response.encode())
-                        else:
-                            client_socket.send(json.dumps(response).encode())
-                        continue
-                        
-                elif command == 'GET_REQUESTS':
-                    # GET_REQUESTS can work with username/user_id params or session
-                    print(f"[DEBUG] GET_REQUESTS command received")
-                    print(f"[DEBUG] Params keys: {list(params.keys())}")
-                    if 'username' in params or 'user_id' in params or authenticated_user:
-                        print(f"[DEBUG] GET_REQUESTS has authentication, proceeding")
-                    else:
-                        print(f"[DEBUG] GET_REQUESTS missing auth, rejecting")
-                        response = self.create_response("error", "Authentication required")
-                        encrypted_response = self.security.encrypt_data(response)
-                        if encrypted_response:
-                            client_socket.send(encrypted_response.encode())
-                        else:
-                            client_socket.send(json.dumps(response).encode())
-                        continue
-                        
-                elif command == 'EXIT':
-                    if authenticated_user or 'username' in params or 'user_id' in params:
-                        print(f"[DEBUG] EXIT command with authentication, proceeding")
-                    else:
-                        print(f"[DEBUG] EXIT without authentication, rejecting")
-                        response = self.create_response("error", "Authentication required")
-                        encrypted_response = self.security.encrypt_data(response)
-                        if encrypted_response:
-                            client_socket.send(encrypted_response.encode())
-                        else:
-                            client_socket.send(json.dumps(response).encode())
-                        continue
-
-                # Execute command
-                if command in self.commands:
-                    if command in ['LOGIN', 'REGISTER']:
-                        result = self.commands[command](params)
-                        if result['status'] == 'success' and command == 'LOGIN':
-                            authenticated_user = result.get('data', {}).get('user_id')
-                            print(f"[DEBUG] Login successful, authenticated_user set to: {authenticated_user}")
-                    elif authenticated_user:
-                        # Use session authentication
-                        result = self.commands[command](params, authenticated_user)
-                    else:
-                        # Use params-based authentication (username/user_id in params)
-                        result = self.commands[command](params)
-                else:
-                    result = self.create_response("error", f"Unknown command: {command}")
-
-                # DEBUG: Print result before sending
-                print(f"[DEBUG] Command result type: {type(result)}")
-                print(f"[DEBUG] Command result: {result}")
-                
-                # Send response (encrypted)
+            executor.submit(run)
+        except RuntimeError:
+            # Shut down; the task will never run
+            with self.queued_lock:
+                self.queued[queue] -= 1
+            raise
+    
+    def process_frames(self, session):
+        """Worker: run a connection's queued frames in arrival order"""
+        while True:
+            with session['frames_lock']:
+                if session['closing'] or not session['frames']:
+                    session['scheduled'] = False
+                    return
+                request_str, received = session['frames'].popleft()
+            
+            # handle_frame names the command and whether it failed in the session
+            began = time.perf_counter()
+            session['command'], session['failed'] = None, True
+            logs.begin_request()
+            trace = begin_trace()
+            self.metrics.observe('queue', began - received)
+            try:
+                keep_open = self.handle_frame(session['socket'], session['client_id'], request_str, session)
+            except Exception as e:
+                log.exception("Error with client %s: %s", session['client_id'], e)
+                keep_open = False
+            self.metrics.observe_command(session['command'] or 'INVALID',
+                                         time.perf_counter() - began, session['failed'])
+            end_trace()
+            if trace.id is not None:
+                self.log_trace(trace, session)
+            session['last_active'] = time.monotonic()
+            
+            if not keep_open:
+                with session['frames_lock']:
+                    session['closing'] = True
+                    session['frames'].clear()
+                # The selector thread sees the shutdown as end of stream and cleans up
                 try:
-                    encrypted_response = self.security.encrypt_data(result)
-                    if encrypted_response:
-                        print(f"[DEBUG] Encrypted response length: {len(encrypted_response)}")
-                        print(f"[DEBUG] First 50 chars of encrypted: {encrypted_response[:50]}")
-                        
-                        # SEND THE RESPONSE WITH NEWLINE
-                        full_response = encrypted_response + "\n"
-                        bytes_sent = client_socket.send(full_response.encode())
-                        print(f"[DEBUG] Sent {bytes_sent} bytes to client (including newline)")
-                    else:
-                        # Fallback to plain JSON if encryption fails
-                        print(f"[DEBUG] Encryption failed, sending plain response")
-                        plain_response = json.dumps(result)
-                        full_response = plain_response + "\n"
-                        bytes_sent = client_socket.send(full_response.encode())
-                        print(f"[DEBUG] Sent {bytes_sent} bytes plain response")
-                        
-                except Exception as e:
-                    print(f"[DEBUG] Error sending response: {e}")
-                    import traceback
-                    traceback.print_exc()
-                    try:
-                        # Last resort: try to send error message
-                        error_response = json.dumps({"status": "error", "message": "Server error"})
-                        client_socket.send((error_response + "\n").encode())
-                    except:
-                        pass
+                    session['socket'].shutdown(socket.SHUT_RDWR)
+                except OSError:
+                    pass
+    
+    def shed_frame(self, session, request_str, wait_ms):
+        """Answer a frame over the rate limits without running it
+        
+        Only authentic frames get the retry hint; anything else is dropped
+        without a reply, as handle_frame would. A connection is checked once:
+        after one frame on it decrypts, later ones are answered unopened.
+        """
+        msg_id, payload = None, request_str
+        if ':' in request_str:
+            msg_id, payload = request_str.split(':', 1)
+            if not msg_id.isdigit():
+                return
+        if not session['verified']:
+            if self.security.decrypt_data(payload) is None:
+                log.debug("Overloaded, dropping an unauthenticated frame", extra={'client': session['client_id']})
+                return
+            session['verified'] = True
+        log.debug("Overloaded, shedding frame (retry after %s ms)", wait_ms, extra={'client': session['client_id']})
+        response = self.create_response("overloaded", f"Server overloaded, retry after {wait_ms} ms",
+                                        {"retry_after_ms": wait_ms})
+        self.send_response(session['socket'], response, msg_id, session, 'SHED')
+    
+    def reject_frame(self, client_id, reason):
+        """Drop a connection that sent something other than a sealed frame
+        
+        No reply: a client using our key and frame version never gets here, and
+        answering anything else would only give scanners work to make us do.
+        """
+        log.info("Rejected frame from %s (%s), closing", client_id, reason)
+        return False
+    
+    def close_connection(self, session):
+        """Forget a connection; only called from the selector thread"""
+        client_socket = session['socket']
+        if self.connections.pop(client_socket, None) is None:
+            return
+        with session['frames_lock']:
+            session['closing'] = True
+            session['frames'].clear()
+        try:
+            self.selector.unregister(client_socket)
+        except (KeyError, ValueError):
+            pass
+        self.unsubscribe(session)
+        client_socket.close()
+        log.info("Client %s disconnected", session['client_id'])
+    
+    def reap_idle_connections(self):
+        """Close connections that have been quiet for longer than idle_timeout
+        
+        Subscribed connections are quiet by design while they wait for pushes, so
+        they are left alone; keepalive still catches the ones whose peer is gone.
+        """
+        now = time.monotonic()
+        for session in list(self.connections.values()):
+            if session['subscribed_user'] is not None or session['scheduled']:
+                continue
+            if now - session['last_active'] > self.idle_timeout:
+                log.info("Client %s idle for %.0fs, closing", session['client_id'], self.idle_timeout)
+                self.close_connection(session)
+    
+    def handle_frame(self, client_socket, client_id, request_str, session):
+        """Process one newline-delimited frame. Returns False when the connection should close."""
+        fields = {'client': client_id}
+        log.debug("Received data (length: %s)", len(request_str), extra=fields)
+        
+        # Pipelined frames carry "<msg_id>:" in front of the payload; the id is
+        # echoed on the response so the client can match out-of-order replies
+        msg_id = None
+        if ':' in request_str:
+            prefix, request_str = request_str.split(':', 1)
+            if not prefix.isdigit():
+                return self.reject_frame(client_id, "invalid message id")
+            msg_id = prefix
+        
+        # SPECIAL CASE: If it's "TEST" (from test connection)
+        if request_str == "TEST":
+            log.debug("Test connection detected", extra=fields)
+            session['command'], session['failed'] = 'TEST', False
+            response = self.create_response("success", "Server is running!")
+            self.send_response(client_socket, response, msg_id)
+            return True
+        
+        # One tag check decides; nothing unauthenticated is parsed or answered
+        began = time.perf_counter()
+        request = self.security.decrypt_data(request_str)
+        self.metrics.observe('decrypt', time.perf_counter() - began)
+        if request is None:
+            return self.reject_frame(client_id, "not a valid frame")
+        session['verified'] = True
+        
+        command = request.get('command', '').upper()
+        params = request.get('params', {})
+        # The client's trace id comes back with this frame's stage timings
+        client_trace = request.get('trace')
+        if isinstance(client_trace, dict) and client_trace.get('id'):
+            trace = current_trace()
+            trace.id = str(client_trace['id'])[:64]
+            trace.client = client_trace
+        authenticated_user = session['user_id']
+        # Unknown names are lumped together so clients cannot grow the metrics table
+        known = command in self.commands or command in ['HELLO', 'SUBSCRIBE', 'RESUME', 'STATS']
+        session['command'] = command if known else 'UNKNOWN'
+        
+        # Log the request
+        log.debug("Command: %s", command, extra=fields)
+        if command in ['LOGIN', 'REGISTER', 'REGISTER_AND_LOGIN']:
+            log.debug("Username: %s", params.get('username', 'N/A'), extra=fields)
+        
+        # Commands that act for a user need a login on this connection (LOGIN,
+        # REGISTER_AND_LOGIN or RESUME); username/user_id params are not identity
+        if command in LOGIN_REQUIRED and not authenticated_user:
+            log.debug("%s without a login, rejecting", command)
+            response = self.create_response("error", "Authentication required")
+            self.send_response(client_socket, response, msg_id, session, command)
+            return True
 
-                print(f"[DEBUG] Response sending complete\n")
-                
-                if command == 'EXIT':
-                    break
+        # Execute command
+        began = time.perf_counter()
+        if command == 'HELLO':
+            # Connection-level negotiation; applies to every later frame on this socket
+            result = self.handle_hello(params, session)
+        elif command == 'SUBSCRIBE':
+            result = self.handle_subscribe(params, session)
+        elif command == 'RESUME':
+            result = self.handle_resume(params, session)
+        elif command == 'STATS':
+            result = self.handle_stats(params, client_id)
+        elif command == 'CHECK_AVAILABILITY':
+            result = self.handle_check_availability(params, client_id)
+        elif command in self.commands:
+            if command in ['LOGIN', 'REGISTER', 'REGISTER_AND_LOGIN']:
+                result = self.commands[command](params)
+                if result['status'] == 'success' and command in ['LOGIN', 'REGISTER_AND_LOGIN']:
+                    session['user_id'] = result['data']['user_id']
+                    # Lets a later connection sign in again without the password
+                    result['data']['session_token'] = self.db.create_session(session['user_id'])
+                    log.debug("Login successful, authenticated_user set to: %s", session['user_id'])
+                self.audit_auth(command, params, result, client_id)
+            elif authenticated_user:
+                result = self.commands[command](params, authenticated_user)
+            else:
+                result = self.commands[command](params)
+        else:
+            result = self.create_response("error", f"Unknown command: {command}")
+        self.metrics.observe('dispatch', time.perf_counter() - began)
+
+        # DEBUG: Print result before sending
+        log.debug("Command result type: %s", type(result))
+        log.debug("Command result: %s", result)
+        # A CachedResponse is always a successful GET_DATA
+        session['failed'] = isinstance(result, dict) and result.get('status') == 'error'
+        
+        self.send_response(client_socket, result, msg_id, session, command)
+        log.debug("Response sending complete")
+        
+        return command != 'EXIT'
+    
+    def send_response(self, client_socket, response, msg_id=None, session=None, command=None):
+        """Encrypt a response and send it as one newline-terminated frame"""
+        prefix = f"{msg_id}:" if msg_id is not None else ""
+        try:
+            compress_threshold = session.get('compress_threshold') if session else None
+            encoding = session.get('encoding', 'json') if session else 'json'
+            sizes = {}
+            payload = response
+            # Stages so far go back to a client that sent a trace id. Encrypting and
+            # sending this very frame cannot be in it (they are in log_trace), so the
+            # previous reply's on this connection go back instead. A not_modified
+            # reply stays as small as it can be.
+            trace = current_trace()
+            trace_data = None
+            if (trace is not None and trace.id is not None
+                    and not (isinstance(response, dict) and response.get('status') == 'not_modified')):
+                trace_data = {"id": trace.id, "server_ms": trace.milliseconds(),
+                              "total_ms": trace.total_ms()}
+                if session and session.get('last_reply_ms'):
+                    trace_data["previous_reply_ms"] = session['last_reply_ms']
+            if isinstance(response, CachedResponse):
+                # Already serialized; only compression and encryption are left
+                if trace_data:
+                    payload = response.encoded_with(encoding, 'trace', trace_data)
+                else:
+                    payload = response.encoded[encoding]
+                response = response.response
+            elif trace_data:
+                payload = dict(response, trace=trace_data)
+            began = time.perf_counter()
+            encrypted_response = self.security.encrypt_data(payload, compress_threshold, sizes, encoding)
+            encrypt_seconds = time.perf_counter() - began
+            self.metrics.observe('encrypt', encrypt_seconds)
+            if encrypted_response is None:
+                # The client cannot read anything unsealed; tell it the request failed
+                encrypted_response = self.security.encrypt_data(self.create_response("error", "Server error"))
+            if sizes and sizes['wire_size'] != sizes['raw_size']:
+                ratio = sizes['wire_size'] / sizes['raw_size']
+                log.debug("%s compressed %s -> %s bytes (ratio %.2f)", command, sizes['raw_size'], sizes['wire_size'], ratio)
+            log.debug("Encrypted response length: %s", len(encrypted_response))
             
-        except ConnectionResetError:
-            print(f"[-] Client {client_id} disconnected abruptly")
+            # SEND THE RESPONSE WITH NEWLINE
+            full_response = prefix + encrypted_response + "\n"
+            
+            # Pushes come from the watcher thread, so writes to one socket are serialized
+            began = time.perf_counter()
+            if session and 'send_lock' in session:
+                with session['send_lock']:
+                    client_socket.sendall(full_response.encode())
+            else:
+                client_socket.sendall(full_response.encode())
+            send_seconds = time.perf_counter() - began
+            self.metrics.observe('send', send_seconds)
+            if session is not None:
+                session['last_reply_ms'] = {"encrypt": round(encrypt_seconds * 1000, 3),
+                                            "send": round(send_seconds * 1000, 3)}
+            log.debug("Sent %s bytes to client (including newline)", len(full_response))
+                
         except Exception as e:
-            print(f"[!] Error with client {client_id}: {e}")
-            import traceback
-            traceback.print_exc()
-        finally:
-            client_socket.close()
-            self.clients = [c for c in self.clients if c[0] != client_socket]
-            print(f"[-] Client {client_id} disconnected")
+            log.exception("Error sending response: %s", e)
+    
+    def log_trace(self, trace, session):
+        """Log a traced frame's full stage breakdown: at INFO when it was slow,
+        else as sampled request detail"""
+        stages = trace.milliseconds()
+        total = trace.total_ms()
+        level = logging.INFO if total >= SLOW_REQUEST_MS else logging.DEBUG
+        if log.isEnabledFor(level):
+            log.log(level, "%s request %s took %.1f ms: %s", "Slow" if level == logging.INFO else "Traced",
+                    session['command'], total, stages,
+                    extra={'client': session['client_id'], 'trace_id': trace.id, 'client_trace': trace.client})
     
-    def handle_register(self, params):
-        """Handle user registration"""
+    def handle_hello(self, params, session):
+        """Negotiate per-connection options: response compression and payload encoding"""
+        agreed = {"compression": "none", "encoding": "json"}
+        try:
+            min_size = int(params.get('min_size', MIN_COMPRESS_SIZE))
+        except (TypeError, ValueError):
+            return self.create_response("error", "min_size must be a whole number")
+        
+        session['compress_threshold'] = None
+        if 'deflate' in params.get('compression', []):
+            threshold = max(min_size, MIN_COMPRESS_SIZE)
+            session['compress_threshold'] = threshold
+            agreed["compression"] = "deflate"
+            agreed["min_size"] = threshold
+        
+        # JSON stays the default so traffic can still be read while debugging
+        session['encoding'] = 'json'
+        if 'binary' in params.get('encoding', []):
+            session['encoding'] = 'binary'
+            agreed["encoding"] = "binary"
+        
+        return self.create_response("success", "Connection options agreed", agreed)
+    
+    def handle_subscribe(self, params, session):
+        """Push this user's request status changes on the current connection
+        
+        params.since is the last event id the client has seen; anything newer is
+        replayed first, so a reconnect does not miss changes.
+        """
+        # Only the user signed in on this connection; params carry no identity here
+        user_id = session['user_id']
+        if not user_id:
+            return self.create_response("error", "Authentication required")
+        
+        since = params.get('since')
+        if since is not None:
+            try:
+                since = int(since)
+            except (TypeError, ValueError):
+                return self.create_response("error", "since must be an event id")
+        
+        self.unsubscribe(session)
+        with self.events_lock:
+            session['subscribed_user'] = user_id
+            self.subscribers.setdefault(user_id, []).append(session)
+            
+            if since is not None:
+                for event in self.db.get_request_events(since, user_id):
+                    if event['event_id'] <= self.last_event_id:
+                        self.push_event(session, event)
+            latest = self.last_event_id
+        
+        log.debug("Connection subscribed to request events for user_id: %s", user_id)
+        return self.create_response("success", "Subscribed to request events", {"event_id": latest})
+    
+    def handle_resume(self, params, session):
+        """Sign this connection in with the session_token an earlier LOGIN returned"""
+        token = params.get('session_token')
+        if not isinstance(token, str) or not token:
+            return self.create_response("error", "Missing session_token")
+        user_id = self.db.resume_session(token)
+        if not user_id:
+            return self.create_response("error", "Session expired, please log in again")
+        session['user_id'] = user_id
+        return self.create_response("success", "Session resumed", {"user_id": user_id})
+    
+    def unsubscribe(self, session):
+        user_id = session.get('subscribed_user')
+        if user_id is None:
+            return
+        with self.events_lock:
+            sessions = [s for s in self.subscribers.get(user_id, []) if s is not session]
+            if sessions:
+                self.subscribers[user_id] = sessions
+            else:
+                self.subscribers.pop(user_id, None)
+            session['subscribed_user'] = None
+    
+    def forget_record(self, user_id):
+        """Drop what is cached about a user whose record or identity changed"""
+        self.response_cache.invalidate(str(user_id))
+        self.db.forget_user_id(user_id)
+    
+    def watch_request_events(self):
+        """Poll the request event journal and push new rows to subscribers
+        
+        The same loop drops cached GET_DATA responses of users whose records
+        changed, whoever changed them. Changes committed by this process were
+        already dropped by forget_record() as they committed.
+        """
+        while self.running:
+            time.sleep(EVENT_POLL_INTERVAL)
+            try:
+                for change_id, user_id in self.db.get_record_changes(self.last_record_change_id):
+                    self.last_record_change_id = change_id
+                    self.forget_record(user_id)
+            except Exception as e:
+                log.error("Record change watcher error: %s", e)
+            try:
+                with self.events_lock:
+                    events = self.db.get_request_events(self.last_event_id)
+                    for event in events:
+                        self.last_event_id = event['event_id']
+                        for session in self.subscribers.get(event['user_id'], []):
+                            self.push_event(session, event)
+            except Exception as e:
+                log.error("Request event watcher error: %s", e)
+    
+    def push_event(self, session, event):
+        """Send one request event as an unsolicited frame (msg_id 0)"""
+        log.debug("Pushing request %s -> %s to user_id: %s", event['request_id'], event['status'], event['user_id'])
+        self.send_response(session['socket'], {
+            "status": "event",
+            "type": "request_status",
+            "data": {
+                "event_id": event['event_id'],
+                "request_id": event['request_id'],
+                "status": event['status'],
+                "updated_at": event['updated_at']
+            }
+        }, PUSH_MSG_ID, session, 'EVENT')
+    
+    def handle_register(self, params, login=False):
+        """Handle user registration (and sign the new user in when login=True)"""
         required = ['username', 'password', 'email']
         valid, message = self.security.validate_input(params, required)
         
@@ -281,131 +718,126 @@ class StudentSocketServer:
             }
         
         # Register user with hashed password
-        result = self.db.register_user(username, password_hash, email, student_data)
+        result = self.db.register_user(username, password_hash, email, student_data, login)
         
-        if result['status'] == 'success':
+        if result['status'] == 'success' and login:
+            # Same shape as a LOGIN reply; the password was just set, so no second check
+            return self.create_response("success", "Registration and login successful", {
+                "user_id": result['user_id'],
+                "username": username
+            })
+        elif result['status'] == 'success':
             return self.create_response("success", "Registration successful", {
                 "user_id": result['user_id']
             })
         else:
             return self.create_response("error", result['message'])
     
+    def handle_register_and_login(self, params):
+        """Register and return an authenticated session in one round trip"""
+        return self.handle_register(params, login=True)
+    
+    def handle_check_availability(self, params, client_id):
+        """Cheap pre-check for the registration form: is a username/email still free?
+        
+        It tells anyone whether an account exists, so each address gets a few
+        checks at a time and every check is audited like REGISTER.
+        """
+        address = client_id.rsplit(':', 1)[0]
+        details = {"command": "CHECK_AVAILABILITY", "username": params.get('username'),
+                   "email": params.get('email')}
+        if not self.availability_limiter.allow(address):
+            self.audit.log_event('AVAILABILITY_LIMITED', None, address, details, 'MEDIUM')
+            return self.create_response("error", "Too many availability checks, try again later")
+        self.audit.log_event('AVAILABILITY_CHECK', None, address, details, 'LOW')
+        
+        result = {}
+        # Looked up as handle_register would store them, so the answers agree
+        if params.get('username'):
+            username = self.security.sanitize_input(params['username'])
+            result['username_available'] = not self.db.check_username_exists(username)
+        if params.get('email'):
+            email = self.security.sanitize_input(params['email'])
+            result['email_available'] = not self.db.check_email_exists(email)
+        
+        if not result:
+            return self.create_response("error", "Missing username or email")
+        return self.create_response("success", "Availability checked", result)
+    
     def handle_login(self, params):
         """Handle user login"""
         try:
-            print(f"[DEBUG] Login attempt with params: {params}")
+            log.debug("Login attempt with params: %s", params)
             
             required = ['username', 'password']
             valid, message = self.security.validate_input(params, required)
             
             if not valid:
-                print(f"[DEBUG] Validation failed: {message}")
+                log.debug("Validation failed: %s", message)
                 return self.create_response("error", message)
             
             username = params['username']
             password = params['password']
             
-            print(f"[DEBUG] Authenticating user: {username}")
+            log.debug("Authenticating user: %s", username)
             
             # Authenticate user
             result = self.db.authenticate_user(username, password)
             
-            print(f"[DEBUG] Authentication result: {result}")
+            log.debug("Authentication result: %s", result)
             
             if result['status'] == 'success':
                 response = self.create_response("success", "Login successful", {
                     "user_id": result['user_id'],
                     "username": result['username']
                 })
-                print(f"[DEBUG] Sending success response: {response}")
+                log.debug("Sending success response: %s", response)
                 return response
             else:
                 response = self.create_response("error", result['message'])
-                print(f"[DEBUG] Sending error response: {response}")
+                log.debug("Sending error response: %s", response)
                 return response
                 
         except Exception as e:
-            print(f"[DEBUG] Login handler exception: {e}")
-            import traceback
-            traceback.print_exc()
+            log.exception("Login handler exception: %s", e)
             return self.create_response("error", f"Server error: {str(e)}")
     
     def handle_get_data(self, params, authenticated_user_id=None):
         """Get student data for authenticated user"""
-        print(f"[DEBUG] GET_DATA called with params: {params}")
-        print(f"[DEBUG] authenticated_user_id parameter: {authenticated_user_id}")
-        
-        user_id = None
+        log.debug("GET_DATA called with params: %s", params)
+        log.debug("authenticated_user_id parameter: %s", authenticated_user_id)
         
-        # Priority 1: Use authenticated_user_id from session (if available)
-        if authenticated_user_id:
-            user_id = authenticated_user_id
-            print(f"[DEBUG] Using authenticated_user_id from session: {user_id}")
-        
-        # Priority 2: Check for username in params
-        elif 'username' in params:
-            username = params['username']
-            print(f"[DEBUG] Looking up user by username: {username}")
-            
-            cursor = self.db.connection.cursor()
-            cursor.execute("SELECT id FROM users WHERE username = ?", (username,))
-            user = cursor.fetchone()
-            
-            if user:
-                user_id = user[0]
-                print(f"[DEBUG] Found user_id: {user_id}")
-            else:
-                print(f"[DEBUG] User not found")
-                return self.create_response("error", "User not found")
-        
-        # Priority 3: Check for direct user_id parameter
-        elif 'user_id' in params:
-            user_id = params['user_id']
-            print(f"[DEBUG] Using direct user_id from params: {user_id}")
-        
-        else:
-            print(f"[DEBUG] No authentication found")
+        # Only the user signed in on this connection
+        user_id = authenticated_user_id
+        if not user_id:
             return self.create_response("error", "Authentication required")
         
-        print(f"[DEBUG] Fetching student data for user_id: {user_id}")
-        result = self.db.get_student_data(user_id)
-        return result
+        # Records change rarely: repeat loads are served already serialized
+        cached = self.response_cache.get(str(user_id))
+        if cached is None:
+            log.debug("Fetching student data for user_id: %s", user_id)
+            generation = self.response_cache.generation()
+            result = self.db.get_student_data(user_id)
+            if result['status'] != 'success':
+                return result
+            result['version'] = self.record_version(result['data'])
+            cached = CachedResponse(result)
+            self.response_cache.put(str(user_id), cached, generation)
+        
+        # Let the client revalidate its cached copy cheaply
+        if params.get('if_version') == cached.version:
+            log.debug("Student data not modified (version %s)", cached.version)
+            return {"status": "not_modified", "version": cached.version}
+        return cached
         
     def handle_submit_request(self, params, authenticated_user_id=None):
         """Submit a new request/complaint"""
-        print(f"[DEBUG] SUBMIT_REQUEST called with params: {params}")
-        print(f"[DEBUG] authenticated_user_id parameter: {authenticated_user_id}")
-        
-        user_id = None
+        log.debug("SUBMIT_REQUEST called with params: %s", params)
+        log.debug("authenticated_user_id parameter: %s", authenticated_user_id)
         
-        # Priority 1: Use authenticated_user_id from session (if available)
-        if authenticated_user_id:
-            user_id = authenticated_user_id
-            print(f"[DEBUG] Using authenticated_user_id from session: {user_id}")
-        
-        # Priority 2: Check for username in params
-        elif 'username' in params:
-            username = params['username']
-            print(f"[DEBUG] Looking up user by username: {username}")
-            
-            cursor = self.db.connection.cursor()
-            cursor.execute("SELECT id FROM users WHERE username = ?", (username,))
-            user = cursor.fetchone()
-            
-            if user:
-                user_id = user[0]
-                print(f"[DEBUG] Found user_id: {user_id}")
-            else:
-                print(f"[DEBUG] User not found")
-                return self.create_response("error", "User not found")
-        
-        # Priority 3: Check for direct user_id parameter
-        elif 'user_id' in params:
-            user_id = params['user_id']
-            print(f"[DEBUG] Using direct user_id from params: {user_id}")
-        
-        else:
-            print(f"[DEBUG] No authentication found")
+        # Only the user signed in on this connection
+        user_id = authenticated_user_id
+        if not user_id:
             return self.create_response("error", "Authentication required")
         
         # Validate request parameters
@@ -420,52 +852,27 @@ class StudentSocketServer:
         title = self.security.sanitize_input(params['title'])
         description = self.security.sanitize_input(params['description'])
         
-        print(f"[DEBUG] Submitting request for user_id: {user_id}")
-        print(f"[DEBUG] Request type: {request_type}, Title: {title}")
+        log.debug("Submitting request for user_id: %s", user_id)
+        log.debug("Request type: %s, Title: %s", request_type, title)
         
         result = self.db.submit_request(user_id, request_type, title, description)
+        if result['status'] != 'success':
+            return self.create_response("error", result['message'])
         return self.create_response("success", "Request submitted successfully", {
             "request_id": result['request_id']
         })
         
     def handle_get_requests(self, params, authenticated_user_id=None):
         """Get all requests for the user"""
-        print(f"[DEBUG] GET_REQUESTS called with params: {params}")
-        print(f"[DEBUG] authenticated_user_id parameter: {authenticated_user_id}")
-        
-        user_id = None
+        log.debug("GET_REQUESTS called with params: %s", params)
+        log.debug("authenticated_user_id parameter: %s", authenticated_user_id)
         
-        # Priority 1: Use authenticated_user_id from session (if available)
-        if authenticated_user_id:
-            user_id = authenticated_user_id
-            print(f"[DEBUG] Using authenticated_user_id from session: {user_id}")
-        
-        # Priority 2: Check for username in params
-        elif 'username' in params:
-            username = params['username']
-            print(f"[DEBUG] Looking up user by username: {username}")
-            
-            cursor = self.db.connection.cursor()
-            cursor.execute("SELECT id FROM users WHERE username = ?", (username,))
-            user = cursor.fetchone()
-            
-            if user:
-                user_id = user[0]
-                print(f"[DEBUG] Found user_id: {user_id}")
-            else:
-                print(f"[DEBUG] User not found")
-                return self.create_response("error", "User not found")
-        
-        # Priority 3: Check for direct user_id parameter
-        elif 'user_id' in params:
-            user_id = params['user_id']
-            print(f"[DEBUG] Using direct user_id from params: {user_id}")
-        
-        else:
-            print(f"[DEBUG] No authentication found")
+        # Only the user signed in on this connection
+        user_id = authenticated_user_id
+        if not user_id:
             return self.create_response("error", "Authentication required")
         
-        print(f"[DEBUG] Fetching requests for user_id: {user_id}")
+        log.debug("Fetching requests for user_id: %s", user_id)
         result = self.db.get_user_requests(user_id)
         return result
     
@@ -474,17 +881,91 @@ class StudentSocketServer:
         commands_info = {
             'REGISTER': 'Register new user - params: username, password, email, [student_data]',
             'LOGIN': 'Login user - params: username, password',
-            'GET_DATA': 'Get student data (requires login)',
-            'SUBMIT_REQUEST': 'Submit request - params: request_type, title, description',
+            'REGISTER_AND_LOGIN': 'Register and login in one step - params: same as REGISTER',
+            'CHECK_AVAILABILITY': 'Check whether a username/email is free - params: [username], [email]',
+            'GET_DATA': 'Get student data (requires login) - params: [if_version]',
+            'SUBMIT_REQUEST': 'Submit request (requires login) - params: request_type, title, description',
             'GET_REQUESTS': 'Get user requests (requires login)',
-            'EXIT': 'Disconnect from server'
+            'HELLO': 'Negotiate connection options - params: compression, min_size, encoding',
+            'SUBSCRIBE': 'Push request status changes on this connection (requires login) - params: [since]',
+            'RESUME': 'Sign in with the session_token from LOGIN - params: session_token',
+            'STATS': 'Server counters and latency histograms - params: token',
+            'EXIT': 'Disconnect from server (requires login) - params: [session_token]'
         }
         return self.create_response("success", "Available commands", commands_info)
     
+    def handle_stats(self, params, client_id):
+        """Counters, latency histograms and queue depths of this server process
+        
+        Latencies are cumulative since start; pollers subtract two snapshots'
+        bucket counts to get percentiles for the interval in between.
+        """
+        token = params.get('token')
+        if not self.stats_token or not isinstance(token, str) \
+                or not secrets.compare_digest(token.encode('utf-8'), self.stats_token.encode('utf-8')):
+            self.audit.log_event('STATS_DENIED', None, client_id.rsplit(':', 1)[0],
+                                 {"command": "STATS"}, 'MEDIUM')
+            return self.create_response("error", "Not authorized")
+        
+        stats = self.metrics.snapshot()
+        sessions = list(self.connections.values())
+        stats["connections"] = {
+            "active": len(sessions),
+            "subscribed": sum(1 for session in sessions if session['subscribed_user'] is not None),
+            "max": self.max_connections
+        }
+        database = self.db.stats()
+        audit = self.audit.stats()
+        with self.queued_lock:
+            queued = dict(self.queued)
+        stats["queues"] = {
+            "frames": sum(len(session['frames']) for session in sessions),
+            "workers": queued['workers'],
+            "rejections": queued['rejections'],
+            "group_commit": database["submissions_queued"],
+            "audit": audit["queued"],
+            "logins_pending": database["logins_pending"]
+        }
+        stats["admission"] = dict(self.admission.stats(),
+                                  availability_limited=self.availability_limiter.limited)
+        stats["response_cache"] = self.response_cache.stats()
+        stats["audit"] = audit
+        stats["group_commit"] = {"batches": database["commit_batches"],
+                                 "submissions": database["committed_submissions"]}
+        stats["logging"] = logs.stats()
+        return self.create_response("success", "Server statistics", stats)
+    
     def handle_exit(self, params, user_id=None):
-        """Handle client exit"""
+        """Handle client exit; a session_token given is signed out for good"""
+        token = params.get('session_token')
+        if user_id and isinstance(token, str):
+            self.db.end_session(token, user_id)
         return self.create_response("success", "Goodbye!")
     
+    def audit_auth(self, command, params, result, client_id):
+        """Record a login or registration attempt in the security audit log"""
+        success = result['status'] == 'success'
+        message = result.get('message', '')
+        if command.startswith('REGISTER'):
+            event_type, severity = ('REGISTER' if success else 'REGISTER_FAILED'), 'LOW'
+        elif success:
+            event_type, severity = 'LOGIN_SUCCESS', 'LOW'
+        elif message.startswith('Account locked') or message.startswith('Account is locked'):
+            event_type, severity = 'ACCOUNT_LOCKED', 'HIGH'
+        else:
+            event_type, severity = 'LOGIN_FAILED', 'MEDIUM'
+        
+        user_id = result.get('data', {}).get('user_id') if success else None
+        details = {"username": params.get('username'), "command": command}
+        if not success:
+            details["reason"] = message
+        self.audit.log_event(event_type, user_id, client_id.rsplit(':', 1)[0], details, severity)
+    
+    def record_version(self, data):
+        """Content hash used as the version tag of a student record"""
+        canonical = json.dumps(data, sort_keys=True, separators=(',', ':'))
+        return hashlib.sha256(canonical.encode('utf-8')).hexdigest()[:16]
+    
     def create_response(self, status, message, data=None):
         """Create standardized response"""
         response = {
@@ -499,32 +980,80 @@ class StudentSocketServer:
     def stop(self):
         """Stop the server"""
         self.running = False
-        for client, _ in self.clients:
+        for session in list(self.connections.values()):
             try:
-                client.close()
+                session['socket'].close()
             except:
                 pass
+        self.connections.clear()
         
         if self.server_socket:
             self.server_socket.close()
         
+        self.workers.shutdown(wait=False)
+        self.rejector.shutdown(wait=False)
+        self.audit.close()
+        try:
+            self.selector.close()
+        except Exception:
+            pass
         self.db.close()
-        print("[*] Server stopped")
+        log.info("Server stopped")
 
 if __name__ == "__main__":
     # Parse command line arguments
-    host = '0.0.0.0'
-    port = 12345
+    parser = argparse.ArgumentParser(description="Secure student system socket server")
+    parser.add_argument('host', nargs='?', default='0.0.0.0')
+    parser.add_argument('port', nargs='?', type=int, default=12345)
+    parser.add_argument('--backlog', type=int, default=LISTEN_BACKLOG)
+    parser.add_argument('--max-connections', type=int, default=MAX_CONNECTIONS,
+                        help="per server process")
+    parser.add_argument('--processes', type=int, default=1,
+                        help="server processes sharing the port (SO_REUSEPORT)")
+    parser.add_argument('--global-rate', type=float, default=GLOBAL_RATE,
+                        help="requests/s admitted per server process; 0 for no limit")
+    parser.add_argument('--client-rate', type=float, default=CLIENT_RATE,
+                        help="requests/s admitted per connection; 0 for no limit")
+    parser.add_argument('--group-commit-size', type=int, default=GROUP_COMMIT_SIZE,
+                        help="most SUBMIT_REQUESTs per transaction; 1 turns group commit off")
+    parser.add_argument('--group-commit-window', type=float, default=GROUP_COMMIT_WINDOW * 1000,
+                        help="ms to wait for more submissions to join a transaction")
+    parser.add_argument('--stats-token', default=os.environ.get('STUDENT_STATS_TOKEN'),
+                        help="token the STATS command requires (default $STUDENT_STATS_TOKEN); "
+                             "STATS is off without one")
+    parser.add_argument('--log-level', default='INFO', choices=['DEBUG', 'INFO', 'WARNING', 'ERROR'],
+                        help="DEBUG adds per-request detail")
+    parser.add_argument('--log-sample', type=float, default=logs.LOG_SAMPLE_RATE,
+                        help="share of requests whose DEBUG detail is logged (1 for all)")
+    parser.add_argument('--log-format', default='text', choices=['text', 'json'])
+    args = parser.parse_args()
+    
+    log_config = {'level': args.log_level, 'sample_rate': args.log_sample,
+                  'log_format': args.log_format}
+    logs.setup_logging(**log_config)
+    
+    options = {'backlog': args.backlog, 'max_connections': args.max_connections,
+               'group_commit_size': args.group_commit_size,
+               'group_commit_window': args.group_commit_window / 1000,
+               'global_rate': args.global_rate, 'client_rate': args.client_rate,
+               'stats_token': args.stats_token}
+    if args.processes > 1:
+        from supervisor import ServerSupervisor
+        ServerSupervisor(args.host, args.port, args.processes, log_config=log_config, **options).start()
+        logs.stop_logging()
+        sys.exit(0)
     
-    if len(sys.argv) > 1:
-        host = sys.argv[1]
-    if len(sys.argv) > 2:
-        port = int(sys.argv[2])
+    server = StudentSocketServer(args.host, args.port, **options)
     
-    server = StudentSocketServer(host, port)
+    # Leave the selector loop on SIGTERM too, so stop() flushes the audit queue
+    def request_stop(signum, frame):
+        server.running = False
+    signal.signal(signal.SIGTERM, request_stop)
     
     try:
         server.start()
     except KeyboardInterrupt:
-        print("\n[*] Shutting down server...")
+        log.info("Shutting down server...")
         server.stop()
+    finally:
+        logs.stop_logging()
@@ -0,0 +1,133 @@
+# supervisor.py - Run several server processes on one port
+#
+# Python threads share one GIL, so a single server process spends at most one
+# core on AES and JSON work. In multi-process mode every worker process binds
+# the same port with SO_REUSEPORT and the kernel spreads new connections across
+# them. Each process has its own selector loop, worker pool, database
+# connections and event watcher. The processes share nothing but the SQLite
+# file, which WAL mode and busy timeouts make safe for several processes.
+import multiprocessing
+import os
+import signal
+import socket
+import time
+from database import Database
+from server import StudentSocketServer
+import logs
+
+log = logs.get_logger(__name__)
+
+# How often the supervisor checks on its processes
+CHECK_INTERVAL = 1.0
+
+# A process that dies sooner than this after starting is restarted with back-off,
+# so a crash at startup (e.g. a bad port) does not turn into a fork loop
+MIN_UPTIME = 5.0
+RESTART_DELAY = 1.0
+MAX_RESTART_DELAY = 30.0
+
+# Time given to processes to close their connections before they are killed
+STOP_TIMEOUT = 5.0
+
+
+def reuse_port_supported():
+    return hasattr(socket, 'SO_REUSEPORT')
+
+
+def run_server_process(host, port, options, log_config):
+    """Entry point of one worker process"""
+    # Ctrl+C reaches the whole process group; only the supervisor acts on it
+    signal.signal(signal.SIGINT, signal.SIG_IGN)
+    # The parent's log writer thread did not survive the fork
+    logs.setup_logging(**log_config)
+
+    server = StudentSocketServer(host, port, reuse_port=True, **options)
+
+    def request_stop(signum, frame):
+        # The selector loop notices within SELECT_TIMEOUT and shuts down cleanly
+        server.running = False
+    signal.signal(signal.SIGTERM, request_stop)
+
+    log.info("Server process %s starting", os.getpid())
+    try:
+        server.start()
+    finally:
+        logs.stop_logging()
+
+
+class ServerSupervisor:
+    """Starts N server processes, restarts any that die, stops them all on exit"""
+
+    def __init__(self, host, port, processes, log_config=None, **options):
+        self.host = host
+        self.port = port
+        self.process_count = processes
+        self.options = options
+        self.log_config = log_config or {}
+        self.processes = {}  # slot -> (Process, started_at, restart_delay)
+        self.running = False
+
+    def start(self):
+        if not reuse_port_supported():
+            log.warning("SO_REUSEPORT is not available on this platform, running a single process")
+            StudentSocketServer(self.host, self.port, **self.options).start()
+            return
+
+        # Create the schema once, before any process can race to do it
+        Database().close()
+
+        self.running = True
+        signal.signal(signal.SIGTERM, lambda signum, frame: self.request_stop())
+        log.info("Supervisor %s starting %s server processes on %s:%s",
+                 os.getpid(), self.process_count, self.host, self.port)
+        for slot in range(self.process_count):
+            self.spawn(slot, RESTART_DELAY)
+
+        try:
+            while self.running:
+                time.sleep(CHECK_INTERVAL)
+                self.check_processes()
+        except KeyboardInterrupt:
+            log.info("Shutting down server processes...")
+        finally:
+            self.stop()
+
+    def spawn(self, slot, restart_delay):
+        process = multiprocessing.Process(target=run_server_process,
+                                          args=(self.host, self.port, self.options, self.log_config),
+                                          name=f"server-{slot}")
+        process.start()
+        self.processes[slot] = (process, time.monotonic(), restart_delay)
+
+    def check_processes(self):
+        """Restart processes that exited, backing off when they keep dying"""
+        for slot, (process, started_at, restart_delay) in list(self.processes.items()):
+            if process.is_alive() or not self.running:
+                continue
+            uptime = time.monotonic() - started_at
+            log.warning("Server process %s exited with code %s after %.1fs",
+                        process.pid, process.exitcode, uptime)
+            if uptime < MIN_UPTIME:
+                log.info("Restarting slot %s in %.0fs", slot, restart_delay)
+                time.sleep(restart_delay)
+                self.spawn(slot, min(restart_delay * 2, MAX_RESTART_DELAY))
+            else:
+                self.spawn(slot, RESTART_DELAY)
+
+    def request_stop(self):
+        self.running = False
+
+    def stop(self):
+        self.running = False
+        for process, _, _ in self.processes.values():
+            if process.is_alive():
+                process.terminate()
+        deadline = time.monotonic() + STOP_TIMEOUT
+        for process, _, _ in self.processes.values():
+            process.join(max(0.0, deadline - time.monotonic()))
+            if process.is_alive():
+                log.warning("Server process %s did not stop, killing it", process.pid)
+                process.kill()
+                process.join()
+        self.processes.clear()
+        log.info("Supervisor stopped")
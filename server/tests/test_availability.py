@@ -0,0 +1,52 @@
+# test_availability.py - CHECK_AVAILABILITY is limited per address and audited
+import os
+import tempfile
+import unittest
+
+from admission import AVAILABILITY_BURST
+from server import StudentSocketServer
+
+
+class CheckAvailabilityTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1)
+        self.server.db.register_user("alice", "pw", "alice@example.com")
+        self.events = []
+        self.server.audit.log_event = lambda *event: self.events.append(event)
+
+    def tearDown(self):
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.server.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def test_answers_and_audits_each_check(self):
+        result = self.server.handle_check_availability({'username': 'alice', 'email': 'new@example.com'},
+                                                       '10.0.0.1:5000')
+        self.assertEqual(result['data'], {'username_available': False, 'email_available': True})
+        event_type, user_id, address, details, severity = self.events[0]
+        self.assertEqual((event_type, address, severity), ('AVAILABILITY_CHECK', '10.0.0.1', 'LOW'))
+        self.assertEqual(details['username'], 'alice')
+
+    def test_limit_follows_the_address_across_connections(self):
+        for port in range(AVAILABILITY_BURST):
+            result = self.server.handle_check_availability({'username': f'user{port}'}, f'10.0.0.1:{port}')
+            self.assertEqual(result['status'], 'success')
+
+        # A new connection from the same address does not start over
+        result = self.server.handle_check_availability({'username': 'bob'}, '10.0.0.1:9999')
+        self.assertEqual(result['message'], 'Too many availability checks, try again later')
+        self.assertEqual(self.events[-1][0], 'AVAILABILITY_LIMITED')
+        self.assertEqual(self.events[-1][4], 'MEDIUM')
+
+        other = self.server.handle_check_availability({'username': 'bob'}, '10.0.0.2:5000')
+        self.assertEqual(other['status'], 'success')
+
+
+if __name__ == '__main__':
+    unittest.main()
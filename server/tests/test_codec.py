@@ -0,0 +1,44 @@
+# test_codec.py - Compact encoding against the fixtures the Android client tests share
+import json
+import os
+import unittest
+
+import codec
+
+# CompactCodecTest.java reads the same file from its test resources
+FIXTURES = os.path.join(os.path.dirname(__file__), '..', '..', 'android-app', 'StudentClientApp',
+                        'app', 'src', 'test', 'resources', 'codec_fixtures.json')
+
+
+def load_fixtures():
+    with open(FIXTURES, encoding='utf-8') as fixtures:
+        return json.load(fixtures)
+
+
+class CodecFixtureTest(unittest.TestCase):
+    def test_encodes_fixture_bytes(self):
+        for fixture in load_fixtures():
+            with self.subTest(fixture['name']):
+                self.assertEqual(codec.encode(fixture['value']).hex(), fixture['hex'])
+
+    def test_decodes_fixture_bytes(self):
+        for fixture in load_fixtures():
+            with self.subTest(fixture['name']):
+                self.assertEqual(codec.decode(bytes.fromhex(fixture['hex'])), fixture['value'])
+
+    def test_append_field_matches_encoding_the_whole_object(self):
+        value = {'status': 'success', 'data': {'semester': 3}}
+        appended = codec.append_field(codec.encode(value), 'trace', {'queue': 0.5})
+        self.assertEqual(appended, codec.encode(dict(value, trace={'queue': 0.5})))
+
+    def test_rejects_malformed_payloads(self):
+        valid = codec.encode({'status': 'success'})
+        for data in (b'', b'{}', bytes((codec.BINARY_MARKER, 2)) + valid[2:], valid + b'\x00',
+                     bytes((codec.BINARY_MARKER, codec.SCHEMA_VERSION, codec.T_OBJECT, 1, 99, 0))):
+            with self.subTest(data.hex()):
+                with self.assertRaises(ValueError):
+                    codec.decode(data)
+
+
+if __name__ == '__main__':
+    unittest.main()
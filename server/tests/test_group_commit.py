@@ -0,0 +1,61 @@
+# test_group_commit.py - SUBMIT_REQUEST never waits forever on the committer
+import os
+import tempfile
+import threading
+import unittest
+
+import database
+from database import Database
+
+
+class GroupCommitTest(unittest.TestCase):
+    def setUp(self):
+        self.directory = tempfile.TemporaryDirectory()
+        self.db = Database(os.path.join(self.directory.name, "test.db"))
+        self.user_id = self.db.register_user("alice", "pw", "alice@example.com")["user_id"]
+
+    def tearDown(self):
+        self.db.close()
+        self.directory.cleanup()
+
+    def submit(self):
+        return self.db.submit_request(self.user_id, "Other", "Title", "Description")
+
+    def test_batches_commit(self):
+        result = self.submit()
+        self.assertEqual(result["status"], "success")
+        self.assertEqual(len(self.db.get_user_requests(self.user_id)["requests"]), 1)
+
+    def test_committer_failure_answers_the_batch(self):
+        def fail(batch):
+            raise RuntimeError("disk gone")
+        self.db._commit_submissions = fail
+        result = self.submit()
+        self.assertEqual(result["status"], "error")
+        self.assertIn("disk gone", result["message"])
+
+        # The committer survived it
+        del self.db._commit_submissions
+        self.assertEqual(self.submit()["status"], "success")
+
+    def test_waiting_gives_up_after_the_timeout(self):
+        release = threading.Event()
+        commit = self.db._commit_submissions
+
+        def stall(batch):
+            release.wait(5)
+            commit(batch)
+        self.db._commit_submissions = stall
+        timeout = database.SUBMIT_TIMEOUT
+        database.SUBMIT_TIMEOUT = 0.05
+        try:
+            result = self.submit()
+        finally:
+            database.SUBMIT_TIMEOUT = timeout
+            release.set()
+        self.assertEqual(result["status"], "error")
+        self.assertIn("not confirmed in time", result["message"])
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,41 @@
+# test_hello.py - HELLO negotiates connection options from untrusted params
+import os
+import tempfile
+import unittest
+
+from server import MIN_COMPRESS_SIZE, StudentSocketServer
+
+
+class HelloTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1)
+
+    def tearDown(self):
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.server.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def test_min_size_is_raised_to_the_floor(self):
+        session = {}
+        result = self.server.handle_hello({'compression': ['deflate'], 'min_size': 1}, session)
+        self.assertEqual(result['data']['min_size'], MIN_COMPRESS_SIZE)
+        self.assertEqual(session['compress_threshold'], MIN_COMPRESS_SIZE)
+
+    def test_malformed_min_size_is_an_error(self):
+        for min_size in ('big', None, [512]):
+            with self.subTest(min_size=min_size):
+                session = {'compress_threshold': None, 'encoding': 'json'}
+                result = self.server.handle_hello({'compression': ['deflate'], 'min_size': min_size}, session)
+                self.assertEqual(result['message'], 'min_size must be a whole number')
+                # The connection keeps its previous options
+                self.assertEqual(session, {'compress_threshold': None, 'encoding': 'json'})
+
+
+if __name__ == '__main__':
+    unittest.main()
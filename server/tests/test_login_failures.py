@@ -0,0 +1,83 @@
+# test_login_failures.py - Failed-login counting across the buffered flush
+#
+# Run from the server directory: python -m unittest discover tests
+import os
+import tempfile
+import unittest
+
+from database import Database, MAX_FAILED_LOGINS
+
+
+class LoginFailureTest(unittest.TestCase):
+    def setUp(self):
+        self.directory = tempfile.TemporaryDirectory()
+        self.db = Database(os.path.join(self.directory.name, "test.db"))
+        result = self.db.register_user("alice", "right", "alice@example.com")
+        self.assertEqual(result["status"], "success")
+
+    def tearDown(self):
+        self.db.close()
+        self.directory.cleanup()
+
+    def persisted_failures(self):
+        return self.db.connection.execute(
+            "SELECT failed_login_attempts FROM users WHERE username = ?", ("alice",)).fetchone()[0]
+
+    def test_success_resets_count_before_the_reset_is_flushed(self):
+        for _ in range(MAX_FAILED_LOGINS - 1):
+            self.assertEqual(self.db.authenticate_user("alice", "wrong")["status"], "error")
+        self.db.flush_logins()
+        self.assertEqual(self.persisted_failures(), MAX_FAILED_LOGINS - 1)
+
+        self.assertEqual(self.db.authenticate_user("alice", "right")["status"], "success")
+        # The reset to 0 is still only queued; one typo must not lock the account
+        result = self.db.authenticate_user("alice", "wrong")
+        self.assertIn(f"{MAX_FAILED_LOGINS - 1} attempts remaining", result["message"])
+
+        self.db.flush_logins()
+        self.assertEqual(self.persisted_failures(), 1)
+
+    def test_persisted_failures_count_in_another_process(self):
+        # A second Database on the same file stands in for another server process
+        other = Database(os.path.join(self.directory.name, "test.db"))
+        try:
+            for _ in range(2):
+                self.db.authenticate_user("alice", "wrong")
+            other.authenticate_user("alice", "wrong")
+            self.db.flush_logins()
+            other.flush_logins()
+            # Each process's failures were added, not written over each other
+            self.assertEqual(self.persisted_failures(), 3)
+
+            result = other.authenticate_user("alice", "wrong")
+            self.assertIn(f"{MAX_FAILED_LOGINS - 4} attempts remaining", result["message"])
+            other.flush_logins()
+            # One more anywhere locks the account for both
+            self.assertIn("Account locked", self.db.authenticate_user("alice", "wrong")["message"])
+            self.assertIn("locked", other.authenticate_user("alice", "right")["message"])
+        finally:
+            other.close()
+
+    def test_unwritten_failures_are_bounded_per_process(self):
+        other = Database(os.path.join(self.directory.name, "test.db"))
+        try:
+            # Neither process has written yet, so each sees only its own failures
+            for _ in range(MAX_FAILED_LOGINS - 1):
+                self.assertIn("remaining", self.db.authenticate_user("alice", "wrong")["message"])
+                self.assertIn("remaining", other.authenticate_user("alice", "wrong")["message"])
+            self.db.flush_logins()
+            other.flush_logins()
+            self.assertIn("Account locked", other.authenticate_user("alice", "wrong")["message"])
+        finally:
+            other.close()
+
+    def test_lockout_after_max_failures(self):
+        for _ in range(MAX_FAILED_LOGINS - 1):
+            self.db.authenticate_user("alice", "wrong")
+        result = self.db.authenticate_user("alice", "wrong")
+        self.assertIn("Account locked", result["message"])
+        self.assertIn("locked", self.db.authenticate_user("alice", "right")["message"])
+
+
+if __name__ == '__main__':
+    unittest.main()
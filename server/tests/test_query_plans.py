@@ -0,0 +1,55 @@
+# test_query_plans.py - Hot queries must keep using their indexes
+#
+# Runs EXPLAIN QUERY PLAN for every query in database.HOT_QUERIES on a fresh
+# database (schema plus migrations). Run after changing either.
+import os
+import tempfile
+import unittest
+
+from database import Database, HOT_QUERIES
+
+# Index (or rowid lookup) each hot query is meant to search with
+EXPECTED_INDEXES = {
+    'user_id_by_username': 'sqlite_autoindex_users_1',
+    'login_state': 'sqlite_autoindex_users_1',
+    'email_exists': 'idx_users_email',
+    'student_data': 'idx_student_records_user',
+    'user_requests': 'idx_requests_user_created',
+    'request_events': 'INTEGER PRIMARY KEY',
+    'user_request_events': 'INTEGER PRIMARY KEY',
+    'record_changes': 'INTEGER PRIMARY KEY',
+    'session_user': 'sqlite_autoindex_sessions_1',
+}
+
+
+class QueryPlanTest(unittest.TestCase):
+    @classmethod
+    def setUpClass(cls):
+        cls.directory = tempfile.TemporaryDirectory()
+        cls.db = Database(os.path.join(cls.directory.name, "plan_check.db"))
+
+    @classmethod
+    def tearDownClass(cls):
+        cls.db.close()
+        cls.directory.cleanup()
+
+    def plan(self, name):
+        sql, params = HOT_QUERIES[name]
+        return [row[-1] for row in self.db.connection.execute("EXPLAIN QUERY PLAN " + sql, params)]
+
+    def test_every_hot_query_has_an_expected_index(self):
+        self.assertEqual(set(EXPECTED_INDEXES), set(HOT_QUERIES))
+
+    def test_hot_queries_use_their_indexes(self):
+        for name, index in EXPECTED_INDEXES.items():
+            with self.subTest(query=name):
+                plan = self.plan(name)
+                self.assertTrue(any(step.startswith('SEARCH') and index in step for step in plan),
+                                f"{name} does not search {index}: {plan}")
+
+    def test_no_hot_query_scans_or_sorts(self):
+        self.assertEqual(self.db.check_query_plans(), {})
+
+
+if __name__ == '__main__':
+    unittest.main()
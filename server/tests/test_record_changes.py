@@ -0,0 +1,50 @@
+# test_record_changes.py - Record changes reported as they commit
+import os
+import tempfile
+import unittest
+
+from database import Database
+
+STUDENT = {'student_id': 'S1', 'full_name': 'Alice', 'department': 'CS', 'semester': 1, 'gpa': 3.0}
+
+
+class RecordChangeTest(unittest.TestCase):
+    def setUp(self):
+        self.directory = tempfile.TemporaryDirectory()
+        self.db = Database(os.path.join(self.directory.name, "test.db"))
+        self.changed = []
+        self.db.record_listener = self.changed.append
+
+    def tearDown(self):
+        self.db.close()
+        self.directory.cleanup()
+
+    def test_listener_hears_committed_record_writes(self):
+        user_id = self.db.register_user("alice", "pw", "alice@example.com", dict(STUDENT))["user_id"]
+        self.assertEqual(self.changed, [user_id])
+
+        with self.db.transaction() as cursor:
+            cursor.execute("UPDATE student_records SET gpa = 3.5 WHERE user_id = ?", (user_id,))
+            # Not before the commit: a reader could still cache the old row
+            self.assertEqual(self.changed, [user_id])
+        self.assertEqual(self.changed, [user_id, user_id])
+
+    def test_listener_ignores_rolled_back_writes(self):
+        user_id = self.db.register_user("alice", "pw", "alice@example.com", dict(STUDENT))["user_id"]
+        del self.changed[:]
+        with self.assertRaises(RuntimeError):
+            with self.db.transaction() as cursor:
+                cursor.execute("UPDATE student_records SET gpa = 1.0 WHERE user_id = ?", (user_id,))
+                raise RuntimeError("abandon")
+        self.assertEqual(self.changed, [])
+
+    def test_login_bookkeeping_is_not_a_record_change(self):
+        self.db.register_user("alice", "pw", "alice@example.com")
+        del self.changed[:]
+        self.db.authenticate_user("alice", "pw")
+        self.db.flush_logins()
+        self.assertEqual(self.changed, [])
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,101 @@
+# test_register_and_login.py - REGISTER_AND_LOGIN signs the connection in, or changes nothing
+import os
+import socket
+import tempfile
+import threading
+import unittest
+
+from security import SecurityHandler
+from server import StudentSocketServer
+
+NEW_USER = {'username': 'alice', 'password': 'pw-hash', 'email': 'alice@example.com',
+            'student_id': 'S1', 'full_name': 'Alice', 'department': 'CS'}
+
+
+class RegisterAndLoginTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1)
+        self.db = self.server.db
+        self.security = SecurityHandler()
+        self.server_end, self.client_end = socket.socketpair()
+        self.reader = self.client_end.makefile('rb')
+        self.session = {'user_id': None, 'compress_threshold': None, 'encoding': 'json',
+                        'send_lock': threading.Lock(), 'subscribed_user': None,
+                        'client_id': '127.0.0.1:5000'}
+
+    def tearDown(self):
+        self.reader.close()
+        self.server_end.close()
+        self.client_end.close()
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def call(self, command, params):
+        frame = self.security.encrypt_data({"command": command, "params": params})
+        self.server.handle_frame(self.server_end, self.session['client_id'], f"1:{frame}", self.session)
+        reply = self.reader.readline().decode().strip()
+        return self.security.decrypt_data(reply.split(':', 1)[1])
+
+    def test_signs_the_connection_in(self):
+        reply = self.call("REGISTER_AND_LOGIN", NEW_USER)
+        self.assertEqual(reply['status'], 'success')
+        user_id = reply['data']['user_id']
+        self.assertEqual(reply['data']['username'], 'alice')
+        self.assertEqual(self.session['user_id'], user_id)
+        self.assertEqual(self.db.resume_session(reply['data']['session_token']), user_id)
+
+        # No LOGIN and no identity params needed on this connection
+        data = self.call("GET_DATA", {})
+        self.assertEqual(data['status'], 'success')
+        self.assertEqual(data['data']['full_name'], 'Alice')
+
+    def test_duplicate_username_changes_nothing(self):
+        first = self.call("REGISTER_AND_LOGIN", NEW_USER)['data']['user_id']
+        self.session['user_id'] = None
+
+        duplicate = dict(NEW_USER, email='other@example.com', student_id='S2', full_name='Mallory')
+        reply = self.call("REGISTER_AND_LOGIN", duplicate)
+        self.assertEqual(reply['status'], 'error')
+        self.assertNotIn('data', reply)
+        self.assertIsNone(self.session['user_id'])
+
+        # Neither the user row nor the student record of the failed attempt is left behind
+        self.assertFalse(self.db.check_email_exists('other@example.com'))
+        self.assertEqual(self.db.get_user_id('alice'), first)
+        self.assertEqual(self.db.get_student_data(first)['data']['full_name'], 'Alice')
+        students = self.db.connection.execute("SELECT COUNT(*) FROM student_records").fetchone()[0]
+        self.assertEqual(students, 1)
+        self.assertEqual(self.call("GET_DATA", {})['message'], 'Authentication required')
+
+    def test_duplicate_email_changes_nothing(self):
+        self.call("REGISTER_AND_LOGIN", NEW_USER)
+        self.session['user_id'] = None
+
+        reply = self.call("REGISTER_AND_LOGIN", dict(NEW_USER, username='bob', student_id='S2'))
+        self.assertEqual(reply['status'], 'error')
+        self.assertIsNone(self.session['user_id'])
+        self.assertIsNone(self.db.get_user_id('bob'))
+
+    def test_failed_student_record_rolls_the_user_back(self):
+        self.call("REGISTER_AND_LOGIN", NEW_USER)
+        self.session['user_id'] = None
+
+        # The users insert succeeds; the student_id clash only shows on the second insert
+        reply = self.call("REGISTER_AND_LOGIN", dict(NEW_USER, username='bob', email='bob@example.com'))
+        self.assertEqual(reply['status'], 'error')
+        self.assertIsNone(self.session['user_id'])
+        self.assertIsNone(self.db.get_user_id('bob'))
+        self.assertFalse(self.db.check_email_exists('bob@example.com'))
+        sessions = self.db.connection.execute("SELECT COUNT(*) FROM sessions").fetchone()[0]
+        self.assertEqual(sessions, 1)
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,76 @@
+# test_sessions.py - Commands act only for the user signed in on the connection
+import os
+import tempfile
+import unittest
+
+import database
+from server import StudentSocketServer
+
+STUDENT = {'student_id': 'S1', 'full_name': 'Alice', 'department': 'CS', 'semester': 1, 'gpa': 3.0}
+
+
+class SessionTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1)
+        self.db = self.server.db
+        self.user_id = self.db.register_user("alice", "pw", "alice@example.com", dict(STUDENT))["user_id"]
+
+    def tearDown(self):
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def test_identity_params_are_not_a_login(self):
+        request = {'request_type': 'Other', 'title': 'T', 'description': 'D'}
+        for params in ({'username': 'alice'}, {'user_id': self.user_id}):
+            with self.subTest(params=params):
+                self.assertEqual(self.server.handle_get_data(params)['status'], 'error')
+                self.assertEqual(self.server.handle_get_requests(params)['status'], 'error')
+                self.assertEqual(self.server.handle_submit_request(dict(request, **params))['status'], 'error')
+        self.assertEqual(self.db.get_user_requests(self.user_id)['requests'], [])
+
+    def test_signed_in_user_wins_over_params(self):
+        bob = dict(STUDENT, student_id='S2', full_name='Bob')
+        other = self.db.register_user("bob", "pw", "bob@example.com", bob)["user_id"]
+        result = self.server.handle_get_data({'user_id': other, 'username': 'bob'}, self.user_id)
+        self.assertEqual(result.response['data']['full_name'], 'Alice')
+
+    def test_resume_signs_a_new_connection_in(self):
+        token = self.db.create_session(self.user_id)
+        session = {'user_id': None}
+        result = self.server.handle_resume({'session_token': token}, session)
+        self.assertEqual(result['status'], 'success')
+        self.assertEqual(session['user_id'], self.user_id)
+
+    def test_resume_rejects_unknown_expired_and_signed_out_tokens(self):
+        for params in ({}, {'session_token': 12}, {'session_token': 'made-up'}):
+            session = {'user_id': None}
+            self.assertEqual(self.server.handle_resume(params, session)['status'], 'error')
+            self.assertIsNone(session['user_id'])
+
+        token = self.db.create_session(self.user_id)
+        self.server.handle_exit({'session_token': token}, self.user_id)
+        self.assertIsNone(self.db.resume_session(token))
+
+        lifetime = database.SESSION_SECONDS
+        database.SESSION_SECONDS = -1
+        try:
+            expired = self.db.create_session(self.user_id)
+        finally:
+            database.SESSION_SECONDS = lifetime
+        self.assertIsNone(self.db.resume_session(expired))
+
+    def test_exit_cannot_sign_out_another_users_token(self):
+        token = self.db.create_session(self.user_id)
+        self.server.handle_exit({'session_token': token}, self.user_id + 1)
+        self.assertEqual(self.db.resume_session(token), self.user_id)
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,60 @@
+# test_shedding.py - Frames over the rate limits are answered only when authentic
+import os
+import socket
+import tempfile
+import threading
+import unittest
+
+from security import SecurityHandler
+from server import StudentSocketServer
+
+
+class ShedFrameTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1)
+        self.security = SecurityHandler()
+        self.server_end, self.client_end = socket.socketpair()
+        self.client_end.settimeout(0.2)
+        self.session = {'socket': self.server_end, 'client_id': '127.0.0.1:5000', 'verified': False,
+                        'compress_threshold': None, 'encoding': 'json', 'send_lock': threading.Lock()}
+
+    def tearDown(self):
+        self.server_end.close()
+        self.client_end.close()
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.server.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def reply(self):
+        try:
+            line = self.client_end.recv(65536).decode().strip()
+        except socket.timeout:
+            return None
+        msg_id, payload = line.split(':', 1)
+        return msg_id, self.security.decrypt_data(payload)
+
+    def test_unauthenticated_frames_get_no_reply(self):
+        for frame in ("1:bm90IGEgZnJhbWU=", "TEST", "x:abc"):
+            with self.subTest(frame=frame):
+                self.server.shed_frame(self.session, frame, 250)
+                self.assertIsNone(self.reply())
+        self.assertFalse(self.session['verified'])
+
+    def test_authentic_frame_gets_the_retry_hint(self):
+        frame = self.security.encrypt_data({"command": "GET_DATA", "params": {}})
+        self.server.shed_frame(self.session, f"7:{frame}", 250)
+        msg_id, response = self.reply()
+        self.assertEqual(msg_id, "7")
+        self.assertEqual(response['status'], 'overloaded')
+        self.assertEqual(response['data']['retry_after_ms'], 250)
+        self.assertTrue(self.session['verified'])
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,50 @@
+# test_stats.py - STATS queue depths come from the server's own counters
+import os
+import tempfile
+import threading
+import unittest
+
+from server import StudentSocketServer
+
+
+class QueueDepthTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1, stats_token='secret')
+
+    def tearDown(self):
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.server.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def queues(self):
+        return self.server.handle_stats({'token': 'secret'}, '127.0.0.1:5000')['data']['queues']
+
+    def test_counts_tasks_until_a_thread_starts_them(self):
+        started, release = threading.Event(), threading.Event()
+
+        def block():
+            started.set()
+            release.wait(5)
+
+        done = threading.Event()
+        self.server.submit('workers', block)
+        self.assertTrue(started.wait(5))
+        # The only worker is busy, so these two wait
+        self.server.submit('workers', lambda: None)
+        self.server.submit('workers', done.set)
+        self.assertEqual(self.queues()['workers'], 2)
+        self.assertEqual(self.queues()['rejections'], 0)
+
+        release.set()
+        self.assertTrue(done.wait(5))
+        self.assertEqual(self.queues()['workers'], 0)
+
+
+if __name__ == '__main__':
+    unittest.main()
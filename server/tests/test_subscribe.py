@@ -0,0 +1,56 @@
+# test_subscribe.py - SUBSCRIBE follows the connection's login, not its params
+import os
+import tempfile
+import unittest
+
+from server import StudentSocketServer
+
+STUDENT = {'student_id': 'S1', 'full_name': 'Alice', 'department': 'CS', 'semester': 1, 'gpa': 3.0}
+
+
+class SubscribeTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1)
+        self.user_id = self.server.db.register_user("alice", "pw", "alice@example.com",
+                                                    dict(STUDENT))["user_id"]
+
+    def tearDown(self):
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.server.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def test_params_do_not_subscribe_another_user(self):
+        session = {'user_id': None, 'subscribed_user': None}
+        for params in ({'username': 'alice'}, {'user_id': self.user_id}):
+            result = self.server.handle_subscribe(params, session)
+            self.assertEqual(result['status'], 'error')
+        self.assertEqual(self.server.subscribers, {})
+        self.assertIsNone(session['subscribed_user'])
+
+    def test_signed_in_connection_subscribes_its_own_user(self):
+        session = {'user_id': self.user_id, 'subscribed_user': None}
+        # Identity params cannot redirect a signed-in connection either
+        result = self.server.handle_subscribe({'user_id': self.user_id + 1}, session)
+        self.assertEqual(result['status'], 'success')
+        self.assertEqual(session['subscribed_user'], self.user_id)
+        self.assertEqual(self.server.subscribers, {self.user_id: [session]})
+
+    def test_malformed_since_is_an_error(self):
+        session = {'user_id': self.user_id, 'subscribed_user': None}
+        for since in ('latest', [3], {'id': 3}):
+            with self.subTest(since=since):
+                result = self.server.handle_subscribe({'since': since}, session)
+                self.assertEqual(result['message'], 'since must be an event id')
+        # Rejected before it replaced any subscription
+        self.assertIsNone(session['subscribed_user'])
+        self.assertEqual(self.server.handle_subscribe({'since': '0'}, session)['status'], 'success')
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,69 @@
+# test_trace.py - Stage timings returned to clients that send a trace id
+import os
+import socket
+import tempfile
+import threading
+import unittest
+
+from metrics import begin_trace, end_trace
+from security import SecurityHandler
+from server import StudentSocketServer
+
+STUDENT = {'student_id': 'S1', 'full_name': 'Alice', 'department': 'CS', 'semester': 1, 'gpa': 3.0}
+
+
+class TraceTest(unittest.TestCase):
+    def setUp(self):
+        # The server opens its database in the working directory
+        self.directory = tempfile.TemporaryDirectory()
+        self.cwd = os.getcwd()
+        os.chdir(self.directory.name)
+        self.server = StudentSocketServer(workers=1)
+        self.security = SecurityHandler()
+        self.server_end, self.client_end = socket.socketpair()
+        self.reader = self.client_end.makefile('rb')
+        user_id = self.server.db.register_user("alice", "pw", "alice@example.com", dict(STUDENT))["user_id"]
+        self.session = {'user_id': user_id, 'compress_threshold': None, 'encoding': 'json',
+                        'send_lock': threading.Lock(), 'subscribed_user': None,
+                        'client_id': '127.0.0.1:5000', 'last_reply_ms': None}
+
+    def tearDown(self):
+        self.reader.close()
+        self.server_end.close()
+        self.client_end.close()
+        self.server.workers.shutdown()
+        self.server.rejector.shutdown()
+        self.server.db.close()
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def call(self, params, trace_id):
+        # As the worker does around every frame
+        frame = self.security.encrypt_data({"command": "GET_DATA", "params": params, "trace": {"id": trace_id}})
+        begin_trace()
+        try:
+            self.server.handle_frame(self.server_end, self.session['client_id'], f"1:{frame}", self.session)
+        finally:
+            end_trace()
+        reply = self.reader.readline().decode().strip()
+        return self.security.decrypt_data(reply.split(':', 1)[1])
+
+    def test_previous_reply_stages_come_back(self):
+        first = self.call({}, "t1")
+        self.assertEqual(first['trace']['id'], "t1")
+        self.assertIn('dispatch', first['trace']['server_ms'])
+        # Nothing was sent on this connection before
+        self.assertNotIn('previous_reply_ms', first['trace'])
+
+        second = self.call({}, "t2")
+        self.assertEqual(set(second['trace']['previous_reply_ms']), {'encrypt', 'send'})
+        self.assertEqual(self.session['last_reply_ms'].keys(), {'encrypt', 'send'})
+
+    def test_not_modified_carries_no_trace(self):
+        version = self.call({}, "t1")['version']
+        reply = self.call({'if_version': version}, "t2")
+        self.assertEqual(reply, {"status": "not_modified", "version": version})
+
+
+if __name__ == '__main__':
+    unittest.main()
@@ -0,0 +1,455 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Live view of a server's STATS while a load test runs.
+ *
+ * Usage: STUDENT_STATS_TOKEN=... java tools/StatsConsole.java [host] [port] [seconds]
+ *
+ * Polls STATS over the normal encrypted protocol every few seconds and prints
+ * per-command rates, error counts and latency percentiles for the last interval
+ * (from the difference between two snapshots' histogram buckets), followed by
+ * stage timings, connections and queue depths. The console keeps one
+ * connection, so with --processes N it shows the one process the kernel
+ * handed that connection to.
+ *
+ * Single file with no dependencies, so it runs with a plain JDK (11+).
+ */
+public class StatsConsole {
+    private static final String ENCRYPTION_KEY = "0123456789abcdef0123456789abcdef";
+    private static final String ENCRYPTION_ALGORITHM = "AES/GCM/NoPadding";
+    private static final byte FRAME_VERSION = 1;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int TIMEOUT_MS = 10000;
+
+    private final String host;
+    private final int port;
+    private final String token;
+    private final SecureRandom random = new SecureRandom();
+    private Socket socket;
+    private BufferedReader reader;
+    private int msgId;
+
+    public StatsConsole(String host, int port, String token) {
+        this.host = host;
+        this.port = port;
+        this.token = token;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 12345;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2.0;
+        String token = System.getenv("STUDENT_STATS_TOKEN");
+        if (token == null || token.isEmpty()) {
+            System.err.println("Set STUDENT_STATS_TOKEN to the server's --stats-token");
+            System.exit(2);
+        }
+
+        StatsConsole console = new StatsConsole(host, port, token);
+        Map<String, Object> previous = console.fetch();
+        long previousAt = System.nanoTime();
+        while (true) {
+            Thread.sleep((long) (seconds * 1000));
+            Map<String, Object> current;
+            try {
+                current = console.fetch();
+            } catch (Exception e) {
+                System.out.println("Poll failed: " + e.getMessage() + ", reconnecting");
+                console.disconnect();
+                continue;
+            }
+            long now = System.nanoTime();
+            System.out.print(render(previous, current, (now - previousAt) / 1e9));
+            previous = current;
+            previousAt = now;
+        }
+    }
+
+    /** One STATS round trip; returns the response's data object */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> fetch() throws Exception {
+        if (socket == null) {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+        String request = "{\"command\":\"STATS\",\"params\":{\"token\":" + quote(token) + "}}";
+        OutputStream out = socket.getOutputStream();
+        out.write((++msgId + ":" + encrypt(request) + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        String line;
+        // Skip anything that is not the reply to this request (e.g. pushes)
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                throw new IllegalStateException("server closed the connection");
+            }
+        } while (!line.startsWith(msgId + ":"));
+
+        Map<String, Object> response = (Map<String, Object>) new JsonParser(
+                decrypt(line.substring(line.indexOf(':') + 1))).parse();
+        if (!"success".equals(response.get("status"))) {
+            throw new IllegalStateException(String.valueOf(response.get("message")));
+        }
+        return (Map<String, Object>) response.get("data");
+    }
+
+    private void disconnect() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (Exception ignored) {
+        }
+        socket = null;
+    }
+
+    // Frame: version byte, 12-byte nonce, AES-GCM ciphertext and 16-byte tag; the
+    // version byte is authenticated too. Same layout as the server's security.py.
+    private String encrypt(String plainText) throws Exception {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        byte[] sealed = frameCipher(Cipher.ENCRYPT_MODE, nonce).doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+        byte[] combined = new byte[1 + NONCE_SIZE + sealed.length];
+        combined[0] = FRAME_VERSION;
+        System.arraycopy(nonce, 0, combined, 1, NONCE_SIZE);
+        System.arraycopy(sealed, 0, combined, 1 + NONCE_SIZE, sealed.length);
+        return Base64.getEncoder().encodeToString(combined);
+    }
+
+    private String decrypt(String encryptedBase64) throws Exception {
+        byte[] combined = Base64.getDecoder().decode(encryptedBase64.trim());
+        if (combined.length < 1 + NONCE_SIZE + TAG_SIZE || combined[0] != FRAME_VERSION) {
+            throw new IllegalStateException("unsupported frame from server");
+        }
+        Cipher cipher = frameCipher(Cipher.DECRYPT_MODE, Arrays.copyOfRange(combined, 1, 1 + NONCE_SIZE));
+        return new String(cipher.doFinal(combined, 1 + NONCE_SIZE, combined.length - 1 - NONCE_SIZE),
+                StandardCharsets.UTF_8);
+    }
+
+    private static Cipher frameCipher(int mode, byte[] nonce) throws Exception {
+        Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+        cipher.init(mode, new SecretKeySpec(ENCRYPTION_KEY.getBytes(StandardCharsets.UTF_8), "AES"),
+                new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        cipher.updateAAD(new byte[] {FRAME_VERSION});
+        return cipher;
+    }
+
+    // ---- Rendering ----
+
+    @SuppressWarnings("unchecked")
+    private static String render(Map<String, Object> previous, Map<String, Object> current, double seconds) {
+        List<Object> bounds = (List<Object>) current.get("bucket_bounds_ms");
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%n=== %s:  up %.0fs, interval %.1fs ===%n",
+                java.time.LocalTime.now().withNano(0), number(current.get("uptime_s")), seconds));
+
+        out.append(String.format("%-20s %9s %7s %9s %9s %9s %9s%n",
+                "command", "req/s", "errors", "p50 ms", "p95 ms", "p99 ms", "mean ms"));
+        appendRows(out, section(previous, "commands"), section(current, "commands"), bounds, seconds, true);
+
+        out.append(String.format("%-20s %9s %7s %9s %9s %9s %9s%n",
+                "stage", "ops/s", "", "p50 ms", "p95 ms", "p99 ms", "mean ms"));
+        appendRows(out, section(previous, "stages"), section(current, "stages"), bounds, seconds, false);
+
+        Map<String, Object> connections = section(current, "connections");
+        out.append(String.format("connections %.0f (%.0f subscribed, max %.0f)%n",
+                number(connections.get("active")), number(connections.get("subscribed")),
+                number(connections.get("max"))));
+        out.append("queues      ").append(inline(section(current, "queues"))).append('\n');
+
+        Map<String, Object> admission = section(current, "admission");
+        double shed = number(admission.get("shed")) - number(section(previous, "admission").get("shed"));
+        out.append(String.format("admission   %.0f admitted, %.0f shed (%.1f/s)%n",
+                number(admission.get("admitted")), number(admission.get("shed")), shed / seconds));
+        Map<String, Object> cache = section(current, "response_cache");
+        out.append(String.format("cache       %.0f entries, %.0f KB, hit ratio %s%n",
+                number(cache.get("entries")), number(cache.get("bytes")) / 1024, cache.get("hit_ratio")));
+        out.append("audit       ").append(inline(section(current, "audit"))).append('\n');
+        out.append("group commit ").append(inline(section(current, "group_commit"))).append('\n');
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendRows(StringBuilder out, Map<String, Object> before, Map<String, Object> after,
+                                   List<Object> bounds, double seconds, boolean withErrors) {
+        List<String> names = new ArrayList<>(after.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            Map<String, Object> now = (Map<String, Object>) after.get(name);
+            Map<String, Object> then = before.containsKey(name)
+                    ? (Map<String, Object>) before.get(name) : Collections.<String, Object>emptyMap();
+            double count = number(now.get("count")) - number(then.get("count"));
+            if (count <= 0) {
+                continue;
+            }
+            long[] buckets = bucketDelta((List<Object>) now.get("buckets"), (List<Object>) then.get("buckets"));
+            String errors = withErrors
+                    ? String.format("%.0f", number(now.get("errors")) - number(then.get("errors"))) : "";
+            out.append(String.format("%-20s %9.1f %7s %9s %9s %9s %9.2f%n", name, count / seconds, errors,
+                    percentile(buckets, bounds, 0.50), percentile(buckets, bounds, 0.95),
+                    percentile(buckets, bounds, 0.99),
+                    (number(now.get("total_ms")) - number(then.get("total_ms"))) / count));
+        }
+    }
+
+    private static long[] bucketDelta(List<Object> now, List<Object> then) {
+        long[] delta = new long[now.size()];
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] = (long) number(now.get(i)) - (then != null ? (long) number(then.get(i)) : 0);
+        }
+        return delta;
+    }
+
+    /** Upper bound of the bucket holding the fraction; "+" past the last bound */
+    private static String percentile(long[] buckets, List<Object> bounds, double fraction) {
+        long total = 0;
+        for (long bucket : buckets) {
+            total += bucket;
+        }
+        double rank = fraction * total;
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i < bounds.size() ? "<" + trim(number(bounds.get(i)))
+                        : ">" + trim(number(bounds.get(bounds.size() - 1)));
+            }
+        }
+        return "-";
+    }
+
+    private static String trim(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> section(Map<String, Object> stats, String name) {
+        Object value = stats.get(name);
+        return value instanceof Map ? (Map<String, Object>) value : Collections.<String, Object>emptyMap();
+    }
+
+    private static String inline(Map<String, Object> values) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            Object value = entry.getValue();
+            out.append(entry.getKey()).append(' ')
+                    .append(value instanceof Double ? trim((Double) value) : String.valueOf(value));
+        }
+        return out.toString();
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    private static String quote(String text) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    /**
+     * Just enough JSON for STATS replies: objects keep their key order, numbers
+     * become Double, and the rest map to String, Boolean, List and null.
+     */
+    static class JsonParser {
+        private final String text;
+        private int position;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        Object parse() {
+            Object value = value();
+            skipWhitespace();
+            if (position != text.length()) {
+                throw error("trailing data");
+            }
+            return value;
+        }
+
+        private Object value() {
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("unexpected end");
+            }
+            char c = text.charAt(position);
+            switch (c) {
+                case '{':
+                    return object();
+                case '[':
+                    return array();
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                object.put(key, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                if (position >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'u':
+                        out.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        out.append(escaped);
+                }
+            }
+        }
+
+        private Double number() {
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            if (start == position) {
+                throw error("unexpected character");
+            }
+            return Double.valueOf(text.substring(start, position));
+        }
+
+        private Object literal(String word, Object value) {
+            if (!text.startsWith(word, position)) {
+                throw error("unexpected character");
+            }
+            position += word.length();
+            return value;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            position++;
+        }
+
+        private char peek() {
+            return position < text.length() ? text.charAt(position) : '\0';
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Bad JSON at " + position + ": " + message);
+        }
+    }
+}